@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Compares the table lookups of {@link GregorianCalendarMetrics} with the arithmetic it used before (Gauss's algorithm for every call). Every invocation
+ * queries all days of {@value #YEARS} consecutive years, the scores are nanoseconds per day.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalendarMetricsBenchmark
+{
+	/**
+	 * The number of years to iterate per invocation.
+	 */
+	public final static int YEARS = 4;
+
+	/**
+	 * The number of days in {@link #YEARS} years starting with {@link #FIRST_YEAR}.
+	 */
+	public final static int DAYS = 1461;
+
+	private final static int FIRST_YEAR = 2012;
+
+	private final static int WEEK_START = 1;
+
+	private final static int MIN_DAYS_IN_FIRST_WEEK = 4;
+
+	private final CalendarMetrics mCalendarMetrics = new GregorianCalendarMetrics(WEEK_START, MIN_DAYS_IN_FIRST_WEEK);
+
+
+	@Benchmark
+	@OperationsPerInvocation(DAYS)
+	public void weekOfYearTables(Blackhole blackhole)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		for (int year = FIRST_YEAR; year < FIRST_YEAR + YEARS; ++year)
+		{
+			for (int yearDay = 1, yearDays = calendarMetrics.getDaysPerYear(year); yearDay <= yearDays; ++yearDay)
+			{
+				blackhole.consume(calendarMetrics.getWeekOfYear(year, yearDay));
+			}
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(DAYS)
+	public void weekOfYearArithmetic(Blackhole blackhole)
+	{
+		for (int year = FIRST_YEAR; year < FIRST_YEAR + YEARS; ++year)
+		{
+			for (int yearDay = 1, yearDays = daysPerYear(year); yearDay <= yearDays; ++yearDay)
+			{
+				blackhole.consume(weekOfYear(year, yearDay));
+			}
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(DAYS)
+	public void dayOfWeekTables(Blackhole blackhole)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		for (int year = FIRST_YEAR; year < FIRST_YEAR + YEARS; ++year)
+		{
+			for (int yearDay = 1, yearDays = calendarMetrics.getDaysPerYear(year); yearDay <= yearDays; ++yearDay)
+			{
+				blackhole.consume(calendarMetrics.getDayOfWeek(year, yearDay));
+			}
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(DAYS)
+	public void dayOfWeekArithmetic(Blackhole blackhole)
+	{
+		for (int year = FIRST_YEAR; year < FIRST_YEAR + YEARS; ++year)
+		{
+			for (int yearDay = 1, yearDays = daysPerYear(year); yearDay <= yearDays; ++yearDay)
+			{
+				blackhole.consume(dayOfWeek(year, yearDay));
+			}
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(DAYS)
+	public void monthAndDayTables(Blackhole blackhole)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		for (int year = FIRST_YEAR; year < FIRST_YEAR + YEARS; ++year)
+		{
+			for (int yearDay = 1, yearDays = calendarMetrics.getDaysPerYear(year); yearDay <= yearDays; ++yearDay)
+			{
+				blackhole.consume(calendarMetrics.getMonthAndDayOfYearDay(year, yearDay));
+			}
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(DAYS)
+	public void monthAndDayArithmetic(Blackhole blackhole)
+	{
+		for (int year = FIRST_YEAR; year < FIRST_YEAR + YEARS; ++year)
+		{
+			for (int yearDay = 1, yearDays = daysPerYear(year); yearDay <= yearDays; ++yearDay)
+			{
+				blackhole.consume(monthAndDay(year, yearDay));
+			}
+		}
+	}
+
+	/*
+	 * The arithmetic GregorianCalendarMetrics used before it switched to tables.
+	 */
+
+	private final static int[] YEARDAYS_PER_MONTH = { 0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334 };
+
+
+	private static boolean isLeapYear(int year)
+	{
+		return (year & 0x3) == 0 && year % 100 != 0 || year % 400 == 0;
+	}
+
+
+	private static int daysPerYear(int year)
+	{
+		return isLeapYear(year) ? 366 : 365;
+	}
+
+
+	private static int yearDaysForMonth(int year, int month)
+	{
+		return month > 1 && isLeapYear(year) ? YEARDAYS_PER_MONTH[month] + 1 : YEARDAYS_PER_MONTH[month];
+	}
+
+
+	private static int weekDayOfFirstYearDay(int year)
+	{
+		int y = year - 1;
+		return (1 + 5 * (y & 3) + 4 * (y % 100) + 6 * (y % 400)) % 7;
+	}
+
+
+	private static int dayOfWeek(int year, int yearDay)
+	{
+		int y = year - 1;
+		return (yearDay + 5 * (y & 3) + 4 * (y % 100) + 6 * (y % 400)) % 7;
+	}
+
+
+	private static int yearDayOfFirstWeekStart(int year)
+	{
+		int yd = 1 + WEEK_START - weekDayOfFirstYearDay(year);
+		return yd > MIN_DAYS_IN_FIRST_WEEK ? yd - 7 : yd < MIN_DAYS_IN_FIRST_WEEK - 6 ? yd + 7 : yd;
+	}
+
+
+	private static int weeksPerYear(int year)
+	{
+		int yearDays = daysPerYear(year) - yearDayOfFirstWeekStart(year) + 1;
+		return 7 - yearDays % 7 >= MIN_DAYS_IN_FIRST_WEEK ? yearDays / 7 : yearDays / 7 + 1;
+	}
+
+
+	private static int weekOfYear(int year, int yearDay)
+	{
+		int yd1st = yearDayOfFirstWeekStart(year);
+		if (yearDay < yd1st)
+		{
+			return weeksPerYear(year - 1);
+		}
+		int week = (yearDay - yd1st) / 7 + 1;
+		int weeksInYear = weeksPerYear(year);
+		return week > weeksInYear ? week - weeksInYear : week;
+	}
+
+
+	private static int monthAndDay(int year, int yearDay)
+	{
+		int month = (yearDay >> 5) + 1;
+		if (month < 12 && yearDaysForMonth(year, month) < yearDay)
+		{
+			++month;
+		}
+		--month;
+		return CalendarMetrics.monthAndDay(month, yearDay - yearDaysForMonth(year, month));
+	}
+}
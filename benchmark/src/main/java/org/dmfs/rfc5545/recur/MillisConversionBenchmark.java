@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Compares the conversion of instances to time stamps using a {@link Calendar} (which is what {@link RecurrenceIterator} used to do) with the conversion by
+ * {@link CalendarMetrics#toMillis(long)}. The scores are nanoseconds per instance.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MillisConversionBenchmark
+{
+	/**
+	 * The number of instances to convert per invocation.
+	 */
+	public final static int INSTANCES = 1000;
+
+	private final long[] mInstances = new long[INSTANCES];
+
+	private final Calendar mHelper = new Calendar(Calendar.UTC, 2000, 0, 1, 0, 0, 0);
+
+	private final CalendarMetrics mCalendarMetrics = new GregorianCalendarMetrics(0, 4);
+
+
+	@Setup
+	public void setup()
+	{
+		// a daily series with a varying time of day
+		for (int i = 0; i < INSTANCES; ++i)
+		{
+			int yearDay = i % 365 + 1;
+			int year = 2009 + i / 365;
+			int monthAndDay = mCalendarMetrics.getMonthAndDayOfYearDay(year, yearDay);
+			mInstances[i] = Instance.make(year, CalendarMetrics.month(monthAndDay), CalendarMetrics.dayOfMonth(monthAndDay), i % 24, i % 60, 0);
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(INSTANCES)
+	public void calendar(Blackhole blackhole)
+	{
+		Calendar helper = mHelper;
+		for (long instance : mInstances)
+		{
+			helper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
+				Instance.second(instance));
+			blackhole.consume(helper.getTimeInMillis());
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(INSTANCES)
+	public void calendarMetrics(Blackhole blackhole)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		for (long instance : mInstances)
+		{
+			blackhole.consume(calendarMetrics.toMillis(instance));
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Measures the throughput of {@link RecurrenceIterator} for all shapes in {@link RuleShape}.
+ * <p>
+ * Each invocation creates a new iterator and iterates {@value #INSTANCES} instances, so the scores are nanoseconds per instance. Run with
+ * <code>-bm thrpt -tu s</code> to get instances per second and with <code>-prof gc</code> to get the allocated bytes per instance
+ * (<code>gc.alloc.rate.norm</code>).
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecurrenceIteratorBenchmark
+{
+	/**
+	 * The number of instances to iterate per invocation.
+	 */
+	public final static int INSTANCES = 1000;
+
+	/**
+	 * The shape of the rule to iterate.
+	 */
+	@Param
+	public RuleShape shape;
+
+	/**
+	 * The time zone of the start date. <code>floating</code> stands for a floating start date and <code>allday</code> for an all-day start date.
+	 */
+	@Param({ "floating", "allday", "UTC", "Europe/Berlin" })
+	public String timeZone;
+
+	private RecurrenceRule mRule;
+
+	private Calendar mStart;
+
+	/**
+	 * The start of the range for {@link #instancesBetween()}.
+	 */
+	private long mRangeStart;
+
+	/**
+	 * The end of the range for {@link #instancesBetween()}.
+	 */
+	private long mRangeEnd;
+
+
+	@Setup
+	public void setup()
+	{
+		mRule = shape.parse();
+		if ("floating".equals(timeZone))
+		{
+			mStart = new Calendar(2009, Calendar.JANUARY, 5, 9, 0, 0);
+		}
+		else if ("allday".equals(timeZone))
+		{
+			mStart = new Calendar(2009, Calendar.JANUARY, 5);
+		}
+		else
+		{
+			mStart = new Calendar(TimeZone.getTimeZone(timeZone), 2009, Calendar.JANUARY, 5, 9, 0, 0);
+		}
+
+		// a month view about five years after the start
+		mRangeStart = new Calendar(Calendar.UTC, 2014, Calendar.MARCH, 1, 0, 0, 0).getTimeInMillis();
+		mRangeEnd = new Calendar(Calendar.UTC, 2014, Calendar.APRIL, 1, 0, 0, 0).getTimeInMillis();
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(INSTANCES)
+	public void nextMillis(Blackhole blackhole)
+	{
+		RecurrenceIterator iterator = mRule.iterator(mStart);
+		for (int i = 0; i < INSTANCES && iterator.hasNext(); ++i)
+		{
+			blackhole.consume(iterator.nextMillis());
+		}
+	}
+
+
+	@Benchmark
+	@OperationsPerInvocation(INSTANCES)
+	public void nextCalendar(Blackhole blackhole)
+	{
+		RecurrenceIterator iterator = mRule.iterator(mStart);
+		for (int i = 0; i < INSTANCES && iterator.hasNext(); ++i)
+		{
+			blackhole.consume(iterator.nextCalendar());
+		}
+	}
+
+
+	/**
+	 * Measures the cost of creating a new iterator and retrieving the first instance.
+	 */
+	@Benchmark
+	public long firstInstance()
+	{
+		return mRule.iterator(mStart).nextMillis();
+	}
+
+
+	/**
+	 * Measures the cost of retrieving all instances of a month about five years after the start.
+	 */
+	@Benchmark
+	public long[] instancesBetween()
+	{
+		return mRule.instancesBetween(mStart, mRangeStart, mRangeEnd);
+	}
+}
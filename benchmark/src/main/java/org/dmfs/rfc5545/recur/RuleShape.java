@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+/**
+ * The corpus of rule shapes the benchmarks run against. The shapes have been chosen to cover every {@link RuleIterator} at least once, both in expand and in
+ * filter mode.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public enum RuleShape
+{
+	DAILY("FREQ=DAILY"),
+
+	DAILY_INTERVAL("FREQ=DAILY;INTERVAL=3"),
+
+	WEEKLY_BYDAY("FREQ=WEEKLY;BYDAY=MO,WE,FR"),
+
+	WEEKLY_INTERVAL_BYDAY("FREQ=WEEKLY;INTERVAL=2;BYDAY=TU,TH;WKST=SU"),
+
+	MONTHLY_NTH_WEEKDAY("FREQ=MONTHLY;BYDAY=2TU"),
+
+	MONTHLY_LAST_WEEKDAY("FREQ=MONTHLY;BYDAY=-1FR"),
+
+	MONTHLY_BYMONTHDAY("FREQ=MONTHLY;BYMONTHDAY=1,15,-1"),
+
+	YEARLY_BYMONTH_BYMONTHDAY("FREQ=YEARLY;BYMONTH=5;BYMONTHDAY=23"),
+
+	YEARLY_BYWEEKNO("FREQ=YEARLY;BYWEEKNO=1,20,-1;BYDAY=MO,TH"),
+
+	YEARLY_BYYEARDAY("FREQ=YEARLY;BYYEARDAY=1,100,200,-1"),
+
+	DAILY_BYHOUR_BYMINUTE("FREQ=DAILY;BYHOUR=9,12,17;BYMINUTE=0,30"),
+
+	HOURLY_BYDAY("FREQ=HOURLY;BYDAY=MO,TU,WE,TH,FR"),
+
+	MINUTELY_BYHOUR("FREQ=MINUTELY;INTERVAL=15;BYHOUR=9,10,11,12,13,14,15,16"),
+
+	MONTHLY_BYMONTHDAY_BYDAY("FREQ=MONTHLY;BYMONTHDAY=13;BYDAY=FR"),
+
+	DAILY_BYMONTH_BYDAY("FREQ=DAILY;BYMONTH=6,7,8;BYDAY=SA,SU"),
+
+	WEEKLY_COUNT("FREQ=WEEKLY;BYDAY=MO,WE,FR;COUNT=1000"),
+
+	MONTHLY_BYSETPOS("FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1"),
+
+	YEARLY_BYSETPOS("FREQ=YEARLY;BYMONTH=3,6,9,12;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=1,-1");
+
+	/**
+	 * The recurrence rule string.
+	 */
+	public final String rule;
+
+
+	private RuleShape(String rule)
+	{
+		this.rule = rule;
+	}
+
+
+	/**
+	 * Parse the rule of this shape.
+	 *
+	 * @return A new {@link RecurrenceRule}.
+	 */
+	public RecurrenceRule parse()
+	{
+		try
+		{
+			return new RecurrenceRule(rule);
+		}
+		catch (InvalidRecurrenceRuleException e)
+		{
+			throw new IllegalStateException("invalid rule in benchmark corpus: " + rule, e);
+		}
+	}
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.List;
+
+import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
+import org.dmfs.rfc5545.recur.RecurrenceRule.WeekdayNum;
+
+
+/**
+ * An iterator for the most common rule shapes that computes the instances arithmetically. It replaces the {@link FreqIterator}, all BYxxx filters, the
+ * {@link SanityFilter} and the {@link CountLimiter} of a rule.
+ * <p>
+ * The supported rules have a fixed number of instances in every interval (called period here), so the n-th instance of a rule can be computed right away. That
+ * allows to return any instance and to skip any number of instances without iterating the instances in between, even if the rule has a COUNT part. Use
+ * {@link #get(RecurrenceRule, CalendarMetrics, Calendar)} to get an iterator for a rule.
+ * </p>
+ * <p>
+ * Like the {@link SanityFilter} this iterator returns the start first and all instances after the start after that. The instances of period <code>0</code> are
+ * the instances of the interval that contains the start. Subclasses just compute the instances of a period, see {@link #instance(long, int)}.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+abstract class ArithmeticIterator extends RuleIterator
+{
+	/**
+	 * The number of days of the shortest month in the Gregorian calendar. Days up to this day exist in every month.
+	 */
+	private final static int MIN_DAYS_PER_MONTH = 28;
+
+	/**
+	 * A year that's not a leap year, to get the shortest length of a month.
+	 */
+	private final static int COMMON_YEAR = 2013;
+
+	final CalendarMetrics mCalendarMetrics;
+
+	/**
+	 * The first instance.
+	 */
+	final long mStart;
+
+	/**
+	 * The number of instances per period.
+	 */
+	private final int mInstancesPerPeriod;
+
+	/**
+	 * The number of instances of period <code>0</code> that don't follow the start or <code>-1</code> if not known yet. These are never returned.
+	 */
+	private int mSkippedInstances = -1;
+
+	/**
+	 * The number of instances after the start to return.
+	 */
+	private final long mLimit;
+
+	/**
+	 * The index of the next instance after the start to return.
+	 */
+	private long mIndex;
+
+	/**
+	 * This indicates that the next instance to return is the start.
+	 */
+	private boolean mFirst = true;
+
+	/**
+	 * The set we return.
+	 */
+	private final LongArray mResultSet = new LongArray(1);
+
+
+	/**
+	 * Returns an {@link ArithmeticIterator} for the given rule, if it has one of the supported shapes. These are:
+	 * <ul>
+	 * <li>DAILY and WEEKLY rules without any BYxxx parts, WEEKLY rules with a BYDAY part that contains only week days without a position,</li>
+	 * <li>MONTHLY rules without any BYxxx parts, with a BYMONTHDAY part or with a BYDAY part that contains a single week day with a position between -4 and 4,</li>
+	 * <li>YEARLY rules without any BYxxx parts or with a BYMONTH part and an optional BYMONTHDAY part.</li>
+	 * </ul>
+	 * <p>
+	 * All of them may have an INTERVAL, a WKST, a COUNT and an UNTIL part. Days of month must exist in every month the rule covers, i.e. MONTHLY rules are
+	 * supported if all days of month are between 1 and 28 (or if there is a single day between -28 and -1). The COUNT part is applied by the iterator, the
+	 * UNTIL part is left to an {@link UntilLimiter}.
+	 * </p>
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} to use.
+	 * @param start
+	 *            The first instance.
+	 * @return An {@link ArithmeticIterator} or <code>null</code> if the rule is not supported.
+	 */
+	static ArithmeticIterator get(RecurrenceRule rule, CalendarMetrics calendarMetrics, Calendar start)
+	{
+		if (!(calendarMetrics instanceof GregorianCalendarMetrics) || rule.hasPart(Part.BYSECOND) || rule.hasPart(Part.BYMINUTE)
+			|| rule.hasPart(Part.BYHOUR) || rule.hasPart(Part.BYYEARDAY) || rule.hasPart(Part.BYWEEKNO) || rule.hasPart(Part.BYSETPOS)
+			|| !RuleOptimizer.isUnique(rule))
+		{
+			return null;
+		}
+
+		boolean hasMonths = rule.hasPart(Part.BYMONTH);
+		boolean hasMonthDays = rule.hasPart(Part.BYMONTHDAY);
+		List<WeekdayNum> byDay = rule.getByDayPart();
+		int interval = rule.getInterval();
+		int startDay = start.get(Calendar.DAY_OF_MONTH);
+
+		switch (rule.getFreq())
+		{
+			case DAILY:
+				if (hasMonths || hasMonthDays || byDay != null)
+				{
+					return null;
+				}
+				return new DayStepIterator(rule, calendarMetrics, start, interval, null);
+
+			case WEEKLY:
+				if (hasMonths || hasMonthDays)
+				{
+					return null;
+				}
+				if (byDay == null)
+				{
+					return new DayStepIterator(rule, calendarMetrics, start, 7 * interval, null);
+				}
+				int[] weekdays = new int[byDay.size()];
+				for (int i = 0; i < weekdays.length; ++i)
+				{
+					WeekdayNum day = byDay.get(i);
+					if (day.pos != 0)
+					{
+						return null;
+					}
+					weekdays[i] = day.weekday.ordinal();
+				}
+				return new DayStepIterator(rule, calendarMetrics, start, 7 * interval, weekdays);
+
+			case MONTHLY:
+				if (hasMonths)
+				{
+					return null;
+				}
+				if (byDay != null)
+				{
+					// a single week day with a position that exists in every month
+					if (hasMonthDays || byDay.size() != 1 || byDay.get(0).pos == 0 || Math.abs(byDay.get(0).pos) > 4)
+					{
+						return null;
+					}
+					return new MonthStepIterator(rule, calendarMetrics, start, interval, null, null, byDay.get(0));
+				}
+				int[] monthDays = hasMonthDays ? rule.getSortedByPart(Part.BYMONTHDAY) : new int[] { startDay };
+				return validDays(monthDays, MIN_DAYS_PER_MONTH) ? new MonthStepIterator(rule, calendarMetrics, start, interval, null, monthDays, null)
+					: null;
+
+			case YEARLY:
+				if (byDay != null || hasMonthDays && !hasMonths)
+				{
+					return null;
+				}
+				int[] months = hasMonths ? rule.getSortedByPart(Part.BYMONTH) : null;
+				int[] days = hasMonthDays ? rule.getSortedByPart(Part.BYMONTHDAY) : new int[] { startDay };
+
+				// the days must exist in every month, even in February of a regular year
+				int minDays = Integer.MAX_VALUE;
+				if (months == null)
+				{
+					minDays = calendarMetrics.getDaysPerMonth(COMMON_YEAR, start.get(Calendar.MONTH));
+				}
+				else
+				{
+					for (int month : months)
+					{
+						minDays = Math.min(minDays, calendarMetrics.getDaysPerMonth(COMMON_YEAR, month - 1));
+					}
+				}
+				return validDays(days, minDays) ? new MonthStepIterator(rule, calendarMetrics, start, 12 * interval, months, days, null) : null;
+
+			default:
+				return null;
+		}
+	}
+
+
+	/**
+	 * Checks that the given days of month exist in every month with at least the given number of days and that they have the same order in all months.
+	 *
+	 * @param days
+	 *            The sorted days of month.
+	 * @param minDays
+	 *            The number of days of the shortest month.
+	 * @return <code>true</code> if the days are either all positive and not larger than <code>minDays</code> or a single negative day not smaller than
+	 *         <code>-minDays</code>.
+	 */
+	private static boolean validDays(int[] days, int minDays)
+	{
+		if (days[0] < 0)
+		{
+			return days.length == 1 && days[0] >= -minDays;
+		}
+		return days[days.length - 1] <= minDays;
+	}
+
+
+	/**
+	 * Creates an iterator for the given rule.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} to use.
+	 * @param start
+	 *            The first instance.
+	 * @param instancesPerPeriod
+	 *            The number of instances per period.
+	 */
+	ArithmeticIterator(RecurrenceRule rule, CalendarMetrics calendarMetrics, Calendar start, int instancesPerPeriod)
+	{
+		super(null);
+		mCalendarMetrics = calendarMetrics;
+		mStart = Instance.makeFast(start);
+		mInstancesPerPeriod = instancesPerPeriod;
+		Integer count = rule.getCount();
+		// the start counts as the first instance
+		mLimit = count == null ? Long.MAX_VALUE : count - 1;
+	}
+
+
+	/**
+	 * Returns the given instance of the given period. The instances of a period must be ordered and all instances of a period must precede the instances of
+	 * the next period.
+	 *
+	 * @param period
+	 *            The period. Period <code>0</code> is the interval that contains the start.
+	 * @param index
+	 *            The index of the instance in the period, between <code>0</code> and the number of instances per period (exclusive).
+	 * @return The instance.
+	 */
+	abstract long instance(long period, int index);
+
+
+	/**
+	 * Returns the period that contains the day of the given instance. Instances of earlier periods must precede the instance.
+	 *
+	 * @param instance
+	 *            An instance.
+	 * @return The period, which is negative if the instance precedes the start.
+	 */
+	abstract long period(long instance);
+
+
+	/**
+	 * Returns the instance with the given index, counting from the first instance of period <code>0</code>.
+	 *
+	 * @param index
+	 *            The index of the instance.
+	 * @return The instance.
+	 */
+	private long instanceAt(long index)
+	{
+		int instancesPerPeriod = mInstancesPerPeriod;
+		return instancesPerPeriod == 1 ? instance(index, 0) : instance(index / instancesPerPeriod, (int) (index % instancesPerPeriod));
+	}
+
+
+	/**
+	 * Returns the number of instances of period <code>0</code> that don't follow the start. This can't be done in the constructor, because it depends on the
+	 * fields of the subclasses.
+	 *
+	 * @return The number of instances to skip.
+	 */
+	private int skippedInstances()
+	{
+		int skipped = mSkippedInstances;
+		if (skipped < 0)
+		{
+			skipped = 0;
+			while (skipped < mInstancesPerPeriod && instance(0, skipped) <= mStart)
+			{
+				++skipped;
+			}
+			mSkippedInstances = skipped;
+		}
+		return skipped;
+	}
+
+
+	@Override
+	public long next()
+	{
+		if (mFirst)
+		{
+			mFirst = false;
+			return mStart;
+		}
+
+		long index = mIndex;
+		if (index >= mLimit)
+		{
+			return Long.MIN_VALUE;
+		}
+		mIndex = index + 1;
+		return instanceAt(index + skippedInstances());
+	}
+
+
+	@Override
+	LongArray nextSet()
+	{
+		long next = next();
+		if (next == Long.MIN_VALUE)
+		{
+			return null;
+		}
+		LongArray resultSet = mResultSet;
+		resultSet.clear();
+		resultSet.add(next);
+		return resultSet;
+	}
+
+
+	@Override
+	boolean seek(long instance)
+	{
+		long simpleInstance = Instance.maskWeekday(instance);
+		if (mStart < simpleInstance)
+		{
+			// the start instance is skipped anyway
+			mFirst = false;
+		}
+
+		long period = period(simpleInstance);
+		if (period < 0)
+		{
+			return false;
+		}
+
+		// find the first instance of the period that doesn't precede the given instance
+		long index = period * mInstancesPerPeriod;
+		for (int i = 0; i < mInstancesPerPeriod && instance(period, i) < simpleInstance; ++i)
+		{
+			++index;
+		}
+		index = Math.min(index - skippedInstances(), mLimit);
+
+		if (index > mIndex)
+		{
+			mIndex = index;
+			return true;
+		}
+		return false;
+	}
+
+
+	@Override
+	void skip(int count)
+	{
+		if (count > 0 && mFirst)
+		{
+			mFirst = false;
+			--count;
+		}
+		mIndex = Math.min(mIndex + count, mLimit);
+	}
+
+
+	@Override
+	boolean returnsValidInstances()
+	{
+		return true;
+	}
+}
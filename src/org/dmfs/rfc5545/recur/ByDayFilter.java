@@ -52,66 +52,28 @@ final class ByDayFilter extends ByFilter
 	private final boolean mHasPositions;
 
 	/**
-	 * An array of the weekdays and their positions in a packed form that allows us to find them with a simple integer comparison
+	 * A bit mask of the week days without a position. Bit <code>n</code> is set if the week day with the {@link java.util.Calendar} number <code>n</code> is
+	 * present.
 	 */
-	private final int[] mPackedDays;
+	private final long mWeekdayMask;
 
 	/**
-	 * A Helper for calendar calculations.
-	 * 
-	 * TODO: ditch this and use {@link CalendarMetrics} instead for all calculations.
-	 */
-	private final Calendar mHelper = new Calendar(Calendar.UTC, 2000, 0, 1, 0, 0, 0);
-
-	/**
-	 * The list of months if a BYMONTH part is specified in the rule. We need this to filter by month if the rule has a monthly and weekly scope.
-	 * 
-	 * TODO: replace by an array of ints
-	 */
-	private final List<Integer> mMonths;
-
-
-	/**
-	 * Get a packed representation of a {@link WeekdayNum}.
-	 * 
-	 * @param pos
-	 *            The position of the day or <code>0</code>.
-	 * @param day
-	 *            The number of the weekday.
-	 * @return An int that contains the position and the weekday.
+	 * The positive positions of the week days, indexed by the {@link java.util.Calendar} number of the week day. Bit <code>n</code> of
+	 * <code>mPositiveNthDays[day]</code> is set if the <code>n</code>th week day <code>day</code> is present.
 	 */
-	private static int packWeekday(int pos, int day)
-	{
-		return (pos << 8) + day;
-	}
-
+	private final long[] mPositiveNthDays = new long[8];
 
 	/**
-	 * Get the weekday part of a packed day.
-	 * 
-	 * @param packedDay
-	 *            The packed day int.
-	 * @return The weekday.
+	 * The negated negative positions of the week days, indexed by the {@link java.util.Calendar} number of the week day. Bit <code>n</code> of
+	 * <code>mNegativeNthDays[day]</code> is set if the <code>-n</code>th week day <code>day</code> is present.
 	 */
-	@SuppressWarnings("unused")
-	private static int unpackWeekday(int packedDay)
-	{
-		return packedDay & 0xff;
-	}
-
+	private final long[] mNegativeNthDays = new long[8];
 
 	/**
-	 * Get the positional part of a packed day.
-	 * 
-	 * @param packedDay
-	 *            The packed day int.
-	 * @return The position.
+	 * A bit mask of the months if a BYMONTH part is specified in the rule, <code>0</code> otherwise. We need this to filter by month if the rule has a monthly
+	 * and weekly scope.
 	 */
-	@SuppressWarnings("unused")
-	private static int unpackPos(int packedDay)
-	{
-		return packedDay >> 8;
-	}
+	private final long mMonthMask;
 
 
 	public ByDayFilter(RecurrenceRule rule, RuleIterator previous, CalendarMetrics calendarTools, Calendar start)
@@ -125,32 +87,36 @@ final class ByDayFilter extends ByFilter
 			: (rule.hasPart(Part.BYMONTH) || rule.getFreq() == Freq.MONTHLY ? Scope.MONTHLY : Scope.YEARLY);
 
 		boolean hasPositions = false;
-		mPackedDays = new int[mByDay.size()];
-		int count = 0;
+		long weekdayMask = 0;
 		for (WeekdayNum w : mByDay)
 		{
-			if (w.pos != 0)
+			int day = w.weekday.toCalendarDay();
+			if (w.pos > 0)
 			{
 				hasPositions = true;
+				mPositiveNthDays[day] |= 1L << w.pos;
+			}
+			else if (w.pos < 0)
+			{
+				hasPositions = true;
+				mNegativeNthDays[day] |= 1L << -w.pos;
+			}
+			else
+			{
+				weekdayMask |= 1L << day;
 			}
-			mPackedDays[count] = packWeekday(w.pos, w.weekday.toCalendarDay());
-			++count;
-
 		}
 		mHasPositions = hasPositions;
-
-		// set up helper
-		mHelper.setMinimalDaysInFirstWeek(4);
-		mHelper.setFirstDayOfWeek(rule.getWeekStart().toCalendarDay());
+		mWeekdayMask = weekdayMask;
 
 		if (mScope == Scope.WEEKLY_AND_MONTHLY && rule.hasPart(Part.BYMONTH))
 		{
 			// we have to filter by month
-			mMonths = rule.getByPart(Part.BYMONTH);
+			mMonthMask = StaticUtils.toBitmask(rule.getSortedByPart(Part.BYMONTH));
 		}
 		else
 		{
-			mMonths = null;
+			mMonthMask = 0;
 		}
 	}
 
@@ -166,8 +132,7 @@ final class ByDayFilter extends ByFilter
 
 		if (!mHasPositions)
 		{
-			// return !mSimpleDaySet.contains(mCalendarMetrics.getDayOfWeek(year, month, dayOfMonth) + 1);
-			return StaticUtils.linearSearch(mPackedDays, packWeekday(0, dayOfWeek)) < 0;
+			return !StaticUtils.isBitSet(mWeekdayMask, dayOfWeek);
 		}
 		else
 		{
@@ -177,20 +142,18 @@ final class ByDayFilter extends ByFilter
 					/*
 					 * Note: if we're in a weekly scope we shouldn't be here. So we just ignore any days with positions.
 					 */
-					return StaticUtils.linearSearch(mPackedDays, packWeekday(0, dayOfWeek)) < 0;
+					return !StaticUtils.isBitSet(mWeekdayMask, dayOfWeek);
 
 				case WEEKLY_AND_MONTHLY:
 				case MONTHLY:
 					int nthDay = (dayOfMonth - 1) / 7 + 1;
 					int lastNthDay = (dayOfMonth - mCalendarMetrics.getDaysPerMonth(year, month)) / 7 - 1;
-					return (nthDay <= 0 || StaticUtils.linearSearch(mPackedDays, packWeekday(nthDay, dayOfWeek)) < 0)
-						&& (lastNthDay >= 0 || StaticUtils.linearSearch(mPackedDays, packWeekday(lastNthDay, dayOfWeek)) < 0);
+					return !StaticUtils.isBitSet(mPositiveNthDays[dayOfWeek], nthDay) && !StaticUtils.isBitSet(mNegativeNthDays[dayOfWeek], -lastNthDay);
 				case YEARLY:
 					int yearDay = mCalendarMetrics.getDayOfYear(year, month, dayOfMonth);
 					int nthDay2 = (yearDay - 1) / 7 + 1;
 					int lastNthDay2 = (yearDay - mCalendarMetrics.getDaysPerYear(year)) / 7 - 1;
-					return (nthDay2 <= 0 || StaticUtils.linearSearch(mPackedDays, packWeekday(nthDay2, dayOfWeek)) < 0)
-						&& (lastNthDay2 >= 0 || StaticUtils.linearSearch(mPackedDays, packWeekday(lastNthDay2, dayOfWeek)) < 0);
+					return !StaticUtils.isBitSet(mPositiveNthDays[dayOfWeek], nthDay2) && !StaticUtils.isBitSet(mNegativeNthDays[dayOfWeek], -lastNthDay2);
 
 				default:
 					return false;
@@ -199,6 +162,51 @@ final class ByDayFilter extends ByFilter
 	}
 
 
+	@Override
+	boolean filtersDates()
+	{
+		return true;
+	}
+
+
+	@Override
+	float passRatio()
+	{
+		// a positional week day matches about one day per month
+		return mHasPositions ? mByDay.size() / 30f : Long.bitCount(mWeekdayMask) / 7f;
+	}
+
+
+	@Override
+	long nextCandidate(long instance)
+	{
+		if (mHasPositions && mScope != Scope.WEEKLY || mWeekdayMask == 0)
+		{
+			// positional week days are too complicated for a hint
+			return instance;
+		}
+
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int year = Instance.year(instance);
+		int yearDay = calendarMetrics.getDayOfYear(year, Instance.month(instance), Instance.dayOfMonth(instance));
+		int dayOfWeek = calendarMetrics.getDayOfWeek(year, yearDay);
+		int days = 1;
+		while (!StaticUtils.isBitSet(mWeekdayMask, (dayOfWeek + days) % 7 + 1))
+		{
+			++days;
+		}
+		return yearDayInstance(year, yearDay + days, 0, 0, 0);
+	}
+
+
+	@Override
+	boolean expandsValidInstances()
+	{
+		// the days are computed from the week, month or year of the instance
+		return true;
+	}
+
+
 	@Override
 	void expand(LongArray set, long instance, long start)
 	{
@@ -217,21 +225,18 @@ final class ByDayFilter extends ByFilter
 				case WEEKLY:
 					if (day.pos == 0 || day.pos == 1) // ignore any positional days
 					{
-						mHelper.set(year, month, dayOfMonth, hour, minute, second);
-
+						int weekYear = year;
 						if (weekOfYear == 1 && month > 0)
 						{
 							// this day of calendar week 1 belongs to the previous year
-							mHelper.set(Calendar.YEAR, year + 1);
+							weekYear = year + 1;
 						}
 						else if (weekOfYear >= 10 && month == 0)
 						{
 							// this day of the last calendar week belongs to the next year
-							mHelper.set(Calendar.YEAR, year - 1);
+							weekYear = year - 1;
 						}
-						mHelper.set(Calendar.WEEK_OF_YEAR, weekOfYear);
-						mHelper.set(Calendar.DAY_OF_WEEK, day.weekday.toCalendarDay());
-						set.add(Instance.makeFast(mHelper));
+						set.add(weekDayInstance(weekYear, weekOfYear, day.weekday.ordinal(), hour, minute, second));
 					}
 					break;
 
@@ -239,24 +244,23 @@ final class ByDayFilter extends ByFilter
 
 					if (day.pos == 0 || day.pos == 1) // ignore any positional days
 					{
-						mHelper.set(year, 1, 1, hour, minute, second);
-						mHelper.set(Calendar.WEEK_OF_YEAR, weekOfYear);
-						mHelper.set(Calendar.DAY_OF_WEEK, day.weekday.toCalendarDay());
+						long weekDayInstance = weekDayInstance(year, weekOfYear, day.weekday.ordinal(), hour, minute, second);
+						int weekDayMonth = Instance.month(weekDayInstance);
 
-						if (mMonths != null && mMonths.contains(mHelper.get(Calendar.MONTH) + 1))
+						if (mMonthMask != 0 && StaticUtils.isBitSet(mMonthMask, weekDayMonth + 1))
 						/*
 						 * the rule is WEEKLY with BYMONTH filter or MONTHLY or YEARLY with BYMONTH and BYWEEKNO filter, so filter by month because we may have
 						 * overlapping weeks
 						 */
 						{
-							set.add(Instance.makeFast(mHelper));
+							set.add(weekDayInstance);
 						}
-						else if (mMonths == null && mHelper.get(Calendar.MONTH) == month)
+						else if (mMonthMask == 0 && weekDayMonth == month)
 						/*
 						 * the rule is MONTHLY with BYWEEKNOfilter, so add only instances in the original month
 						 */
 						{
-							set.add(Instance.makeFast(mHelper));
+							set.add(weekDayInstance);
 						}
 					}
 					break;
@@ -341,4 +345,30 @@ final class ByDayFilter extends ByFilter
 		}
 		set.sort();
 	}
+
+
+	/**
+	 * Get the instance of a specific weekday in a specific week of the year. The week numbering depends on the week start and the minimal days in the first
+	 * week of the {@link CalendarMetrics}. Note that the result might be in the previous or next year.
+	 * 
+	 * @param year
+	 *            The year.
+	 * @param week
+	 *            The week of the year.
+	 * @param weekDay
+	 *            The weekday.
+	 * @param hour
+	 *            The hour of the instance.
+	 * @param minute
+	 *            The minute of the instance.
+	 * @param second
+	 *            The second of the instance.
+	 * @return The instance.
+	 */
+	private long weekDayInstance(int year, int week, int weekDay, int hour, int minute, int second)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		return yearDayInstance(year, calendarMetrics.getYearDayOfFirstWeekStart(year) + (week - 1) * 7 + (weekDay - calendarMetrics.weekStart + 7) % 7, hour,
+			minute, second);
+	}
 }
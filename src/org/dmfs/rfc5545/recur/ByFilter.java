@@ -32,7 +32,7 @@ abstract class ByFilter extends RuleIterator
 	 * Stop iterating (throwing an exception) if this number of empty sets passed in a line, i.e. sets that contain no elements because they have been filtered
 	 * or nothing was expanded.
 	 */
-	private final static int MAX_EMPTY_SETS = 1000;
+	final static int MAX_EMPTY_SETS = 1000;
 
 	/**
 	 * Stop iterating (throwing an exception) if this number of instances have been filtered in a line.
@@ -69,6 +69,38 @@ abstract class ByFilter extends RuleIterator
 
 	final CalendarMetrics mCalendarMetrics;
 
+	/**
+	 * The filters that have been fused into this filter. These are subsequent filters in limiting mode. Instead of pulling the instances from this filter they
+	 * are applied right to the results of this filter. That saves the intermediate sets and one iteration per filter.
+	 */
+	private ByFilter[] mFusedFilters = new ByFilter[0];
+
+	/**
+	 * The number of instances each of the fused filters removed in a line.
+	 */
+	private int[] mFusedFilterCounters = new int[0];
+
+	/**
+	 * The number of sets each of the fused filters emptied in a line.
+	 */
+	private int[] mFusedFilterSetCounters = new int[0];
+
+	/**
+	 * The fused filter that removed the last instance in {@link #passesFusedFilters(long)} or {@link #applyFusedFilters(LongArray, boolean)}.
+	 */
+	private ByFilter mRejectingFilter;
+
+	/**
+	 * The day of the last instance tested by {@link #filterDay(long)} with its time fields masked. This is initialized with <code>-1</code>, which is never
+	 * the value of a masked instance because its time bits are set.
+	 */
+	private long mLastDay = -1;
+
+	/**
+	 * The result of {@link #filter(long)} for the instances of {@link #mLastDay}.
+	 */
+	private boolean mLastDayFiltered;
+
 
 	/**
 	 * Create a new filter that filters the instances returned by the previous {@link RuleIterator}. The parameter <code>expand</code> determines whether the
@@ -98,22 +130,33 @@ abstract class ByFilter extends RuleIterator
 		{
 			if (mWorkingSet == null || !mWorkingSet.hasNext())
 			{
-				mWorkingSet = nextSet();
+				// the fused filters are pulled instance by instance here, so they count instances rather than sets
+				mWorkingSet = nextSet(false);
 			}
 			next = mWorkingSet.next();
 		}
 		else
 		{
-			int counter = 0;
-			do
+			while (true)
 			{
-				if (counter == MAX_EMPTY_INSTANCES)
+				int counter = 0;
+				next = mPrevious.next();
+				while (filterDay(next))
 				{
-					throw new IllegalArgumentException("too many filtered recurrence instances");
+					if (++counter == MAX_EMPTY_INSTANCES)
+					{
+						throw new IllegalArgumentException("too many filtered recurrence instances");
+					}
+					skipRejected(this, next);
+					next = mPrevious.next();
 				}
-				counter++;
-				next = mPrevious.next();
-			} while (filter(next));
+
+				if (passesFusedFilters(next))
+				{
+					break;
+				}
+				skipRejected(mRejectingFilter, next);
+			}
 		}
 		return next;
 	}
@@ -121,6 +164,20 @@ abstract class ByFilter extends RuleIterator
 
 	@Override
 	LongArray nextSet()
+	{
+		return nextSet(true);
+	}
+
+
+	/**
+	 * Returns the next non-empty set of this filter with all fused filters applied.
+	 * 
+	 * @param countSets
+	 *            <code>true</code> if the fused filters give up after too many sets they emptied in a line, <code>false</code> if they give up after too many
+	 *            instances they removed in a line. That's what they would do if they weren't fused and their sets or their instances were pulled.
+	 * @return The next set.
+	 */
+	private LongArray nextSet(boolean countSets)
 	{
 		LongArray resultSet = mResultSet;
 		resultSet.clear();
@@ -136,10 +193,13 @@ abstract class ByFilter extends RuleIterator
 				}
 				counter++;
 
-				LongArray prev = mPrevious.nextSet();
-				while (prev.hasNext())
+				expand(resultSet, mPrevious.nextSet(), mStart);
+
+				if (resultSet.hasNext() && mFusedFilters.length > 0)
 				{
-					expand(resultSet, prev.next(), mStart);
+					// this set is not empty, so the counting starts again, even if the fused filters remove all instances
+					counter = 0;
+					applyFusedFilters(resultSet, countSets);
 				}
 			} while (!resultSet.hasNext());
 		}
@@ -154,13 +214,22 @@ abstract class ByFilter extends RuleIterator
 				}
 				counter++;
 
-				LongArray prev = mPrevious.nextSet();
-				while (prev.hasNext())
+				long rejected = filter(resultSet, mPrevious.nextSet());
+
+				if (!resultSet.hasNext() && rejected != Long.MIN_VALUE)
 				{
-					long next = prev.next();
-					if (!filter(next))
+					// the entire set has been removed, skip the intervals that can't contain any instances either
+					skipRejected(this, rejected);
+				}
+
+				if (resultSet.hasNext() && mFusedFilters.length > 0)
+				{
+					// this set is not empty, so the counting starts again, even if the fused filters remove all instances
+					counter = 0;
+					long last = applyFusedFilters(resultSet, countSets);
+					if (!resultSet.hasNext())
 					{
-						resultSet.add(next);
+						skipRejected(mRejectingFilter, last);
 					}
 				}
 			} while (!resultSet.hasNext());
@@ -169,6 +238,314 @@ abstract class ByFilter extends RuleIterator
 	}
 
 
+	/**
+	 * Fuse the given filter into this filter. This works only if the given filter is in limiting mode and immediately follows this filter. After fusing, the
+	 * given filter must not be used anymore. Instead this filter applies it to its own results.
+	 * 
+	 * @param filter
+	 *            The {@link ByFilter} to fuse.
+	 * @return <code>true</code> if the filter has been fused, <code>false</code> if the filter expands instances and can't be fused.
+	 */
+	boolean fuse(ByFilter filter)
+	{
+		if (filter.mExpand)
+		{
+			return false;
+		}
+
+		/*
+		 * Limiting filters can be applied in any order, so sort them by the fraction of instances they let pass. The filters that remove most of the instances
+		 * go first, so the others see fewer instances.
+		 */
+		int count = mFusedFilters.length;
+		float passRatio = filter.passRatio();
+		int pos = count;
+		while (pos > 0 && mFusedFilters[pos - 1].passRatio() > passRatio)
+		{
+			--pos;
+		}
+		ByFilter[] fusedFilters = new ByFilter[count + 1];
+		System.arraycopy(mFusedFilters, 0, fusedFilters, 0, pos);
+		fusedFilters[pos] = filter;
+		System.arraycopy(mFusedFilters, pos, fusedFilters, pos + 1, count - pos);
+		mFusedFilters = fusedFilters;
+		mFusedFilterCounters = new int[count + 1];
+		mFusedFilterSetCounters = new int[count + 1];
+		return true;
+	}
+
+
+	/**
+	 * Checks whether the given instance passes all fused filters.
+	 * <p>
+	 * Each fused filter counts the instances it removed in a line, just like it would do if it wasn't fused. A filter that removed too many instances in a line
+	 * throws an {@link IllegalArgumentException}.
+	 * </p>
+	 * 
+	 * @param instance
+	 *            The instance to check.
+	 * @return <code>true</code> if the instance passes all fused filters, <code>false</code> if any of the fused filters removes it.
+	 */
+	private boolean passesFusedFilters(long instance)
+	{
+		ByFilter[] fusedFilters = mFusedFilters;
+		int[] counters = mFusedFilterCounters;
+		for (int i = 0, count = fusedFilters.length; i < count; ++i)
+		{
+			if (fusedFilters[i].filterDay(instance))
+			{
+				if (++counters[i] == MAX_EMPTY_INSTANCES)
+				{
+					throw new IllegalArgumentException("too many filtered recurrence instances");
+				}
+				mRejectingFilter = fusedFilters[i];
+				// the instance passed all preceding filters, so these start counting again
+				for (int j = 0; j < i; ++j)
+				{
+					counters[j] = 0;
+				}
+				return false;
+			}
+		}
+
+		for (int i = 0, count = counters.length; i < count; ++i)
+		{
+			counters[i] = 0;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Removes all instances from the given set that don't pass all fused filters. The order of the remaining instances doesn't change.
+	 * <p>
+	 * If <code>countSets</code> is <code>true</code> the fused filters are applied one after the other to the whole set. Each fused filter counts the sets it
+	 * emptied in a line, just like it would do if it wasn't fused and its sets were pulled, and throws an {@link IllegalArgumentException} if it emptied too
+	 * many sets in a line. Otherwise each instance is checked by {@link #passesFusedFilters(long)}.
+	 * </p>
+	 * 
+	 * @param set
+	 *            The non-empty {@link LongArray} to filter.
+	 * @param countSets
+	 *            <code>true</code> to count the emptied sets, <code>false</code> to count the removed instances.
+	 * @return The last instance {@link #mRejectingFilter} removed, if the set is empty now.
+	 */
+	private long applyFusedFilters(LongArray set, boolean countSets)
+	{
+		int count = set.size();
+		if (!countSets)
+		{
+			long last = set.get(count - 1);
+			int remaining = 0;
+			for (int i = 0; i < count; ++i)
+			{
+				long instance = set.get(i);
+				if (passesFusedFilters(instance))
+				{
+					set.set(remaining++, instance);
+				}
+			}
+			set.truncate(remaining);
+			return last;
+		}
+
+		ByFilter[] fusedFilters = mFusedFilters;
+		int[] counters = mFusedFilterSetCounters;
+		for (int f = 0, filters = fusedFilters.length; f < filters; ++f)
+		{
+			ByFilter filter = fusedFilters[f];
+			long last = set.get(count - 1);
+			int remaining = 0;
+			for (int i = 0; i < count; ++i)
+			{
+				long instance = set.get(i);
+				if (!filter.filterDay(instance))
+				{
+					set.set(remaining++, instance);
+				}
+			}
+			set.truncate(remaining);
+			count = remaining;
+
+			if (count == 0)
+			{
+				if (++counters[f] == MAX_EMPTY_SETS)
+				{
+					throw new IllegalArgumentException("too many empty recurrence sets");
+				}
+				mRejectingFilter = filter;
+				return last;
+			}
+			// this filter returned a non-empty set, so it starts counting again
+			counters[f] = 0;
+		}
+		return Long.MIN_VALUE;
+	}
+
+
+	@Override
+	boolean seek(long instance)
+	{
+		if (mPrevious.seek(instance))
+		{
+			// the current working set precedes the new interval, drop it
+			mWorkingSet = null;
+			return true;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Moves the previous iterator forward to the next instance that might pass the given filter. Only call this right after <code>filter</code> removed the
+	 * given instance.
+	 * 
+	 * @param filter
+	 *            The {@link ByFilter} that removed the instance, either this filter or one of the fused filters.
+	 * @param instance
+	 *            The removed instance.
+	 */
+	private void skipRejected(ByFilter filter, long instance)
+	{
+		long candidate = filter.nextCandidate(instance);
+		if (candidate <= instance && filter.filtersDates())
+		{
+			// the filter removes the entire day, so at least continue with the next day
+			candidate = nextDayInstance(instance, 0, 0, 0);
+		}
+		if (candidate > instance)
+		{
+			mPrevious.seek(candidate);
+		}
+	}
+
+
+	/**
+	 * Returns the first instance after the given instance that might pass this filter, based on the fields this filter tests. All instances in between are
+	 * guaranteed to be removed by {@link #filter(long)}, so limiting filters use this to let the {@link FreqIterator} skip the intervals that can't contain any
+	 * instances instead of pulling and filtering them one by one.
+	 * <p>
+	 * The default implementation returns the given instance, which means there is no such hint.
+	 * </p>
+	 * 
+	 * @param instance
+	 *            An instance that has been removed by {@link #filter(long)}.
+	 * @return The first instance that might pass this filter or <code>instance</code> if there is no better guess.
+	 */
+	long nextCandidate(long instance)
+	{
+		return instance;
+	}
+
+
+	/**
+	 * Returns an estimate of the fraction of instances that pass {@link #filter(long)}.
+	 * <p>
+	 * The default implementation returns <code>1</code>.
+	 * </p>
+	 * 
+	 * @return A value between <code>0</code> and <code>1</code>.
+	 */
+	float passRatio()
+	{
+		return 1f;
+	}
+
+
+	/**
+	 * Returns whether {@link #filter(long)} depends on the date of an instance only. The result of such filters is the same for all instances of a day, so
+	 * it's evaluated only once per day for sub-daily frequencies.
+	 * <p>
+	 * The default implementation returns <code>false</code>.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the filter ignores the time of the instances.
+	 */
+	boolean filtersDates()
+	{
+		return false;
+	}
+
+
+	@Override
+	boolean returnsValidInstances()
+	{
+		return mExpand ? expandsValidInstances() : super.returnsValidInstances();
+	}
+
+
+	/**
+	 * Returns whether {@link #expand(LongArray, long, long)} creates valid instances only.
+	 * <p>
+	 * The default implementation returns <code>true</code> if the previous iterator returns valid instances, since most expansions keep the date of the
+	 * expanded instance. Filters that compute the date of every new instance override this.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if the expanded instances never need to be validated.
+	 */
+	boolean expandsValidInstances()
+	{
+		return mPrevious.returnsValidInstances();
+	}
+
+
+	/**
+	 * Calls {@link #filter(long)}, but reuses the last result if this filter {@link #filtersDates()} and the instance is on the same day as the last one.
+	 * 
+	 * @param instance
+	 *            The instance to check.
+	 * @return <code>true</code> to remove the instance from the result set, <code>false</code> to include it.
+	 */
+	private boolean filterDay(long instance)
+	{
+		if (!filtersDates())
+		{
+			return filter(instance);
+		}
+
+		long day = Instance.maskTime(instance);
+		if (day != mLastDay)
+		{
+			mLastDayFiltered = filter(instance);
+			mLastDay = day;
+		}
+		return mLastDayFiltered;
+	}
+
+
+	/**
+	 * Filter a whole set of instances. This adds all remaining instances of <code>instances</code> that pass this filter to <code>set</code>, keeping their
+	 * order.
+	 * <p>
+	 * The default implementation calls {@link #filter(long)} for every instance (once per day if this filter {@link #filtersDates()}). Filters that can test
+	 * an instance with a few bit operations override this to do so in a single loop.
+	 * </p>
+	 * 
+	 * @param set
+	 *            The {@link LongArray} that gets the instances that pass.
+	 * @param instances
+	 *            The instances to filter.
+	 * @return The last instance that has been removed or {@link Long#MIN_VALUE} if all instances passed.
+	 */
+	long filter(LongArray set, LongArray instances)
+	{
+		long rejected = Long.MIN_VALUE;
+		while (instances.hasNext())
+		{
+			long next = instances.next();
+			if (!filterDay(next))
+			{
+				set.add(next);
+			}
+			else
+			{
+				rejected = next;
+			}
+		}
+		return rejected;
+	}
+
+
 	/**
 	 * Filter an instance. This method determines if a given {@link Instance} should be removed from the result set or not.
 	 * 
@@ -191,4 +568,86 @@ abstract class ByFilter extends RuleIterator
 	 *            to do so.
 	 */
 	abstract void expand(LongArray instances, long instance, long start);
+
+
+	/**
+	 * Expand a whole set of instances. This expands all remaining instances of <code>instances</code> into <code>set</code>.
+	 * <p>
+	 * The default implementation calls {@link #expand(LongArray, long, long)} for every instance.
+	 * </p>
+	 * 
+	 * @param set
+	 *            The {@link LongArray} that gets the results.
+	 * @param instances
+	 *            The instances to expand.
+	 * @param start
+	 *            The first instance of the rule.
+	 */
+	void expand(LongArray set, LongArray instances, long start)
+	{
+		while (instances.hasNext())
+		{
+			expand(set, instances.next(), start);
+		}
+	}
+
+
+	/**
+	 * Create an instance at the given time of the day after the day of the given instance.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @param hour
+	 *            The hour of the new instance.
+	 * @param minute
+	 *            The minute of the new instance.
+	 * @param second
+	 *            The second of the new instance.
+	 * @return The new instance.
+	 */
+	final long nextDayInstance(long instance, int hour, int minute, int second)
+	{
+		int year = Instance.year(instance);
+		return yearDayInstance(year, mCalendarMetrics.getDayOfYear(year, Instance.month(instance), Instance.dayOfMonth(instance)) + 1, hour, minute, second);
+	}
+
+
+	/**
+	 * Create an instance for the given day of the given year. The day may be in the previous or the next year, in which case it's moved into that year.
+	 * 
+	 * @param year
+	 *            The year.
+	 * @param yearDay
+	 *            The day of the year, may be less than 1 or larger than the number of days in that year.
+	 * @param hour
+	 *            The hour of the instance.
+	 * @param minute
+	 *            The minute of the instance.
+	 * @param second
+	 *            The second of the instance.
+	 * @return The instance.
+	 */
+	final long yearDayInstance(int year, int yearDay, int hour, int minute, int second)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		if (yearDay < 1)
+		{
+			// the day is in the previous year
+			--year;
+			yearDay += calendarMetrics.getDaysPerYear(year);
+		}
+		else
+		{
+			int yearDays = calendarMetrics.getDaysPerYear(year);
+			if (yearDay > yearDays)
+			{
+				// the day is in the next year
+				yearDay -= yearDays;
+				++year;
+			}
+		}
+
+		int monthAndDay = calendarMetrics.getMonthAndDayOfYearDay(year, yearDay);
+		return Instance.make(year, CalendarMetrics.month(monthAndDay), CalendarMetrics.dayOfMonth(monthAndDay), hour, minute, second);
+	}
 }
@@ -33,12 +33,18 @@ final class ByHourFilter extends ByFilter
 	 */
 	private final int[] mHours;
 
+	/**
+	 * A bit mask of the hours in {@link #mHours}.
+	 */
+	private final long mHourMask;
+
 
 	public ByHourFilter(RecurrenceRule rule, RuleIterator previous, CalendarMetrics calendarTools, Calendar start)
 	{
 		super(previous, calendarTools, start, rule.getFreq() == Freq.YEARLY || rule.getFreq() == Freq.MONTHLY || rule.getFreq() == Freq.WEEKLY
 			|| rule.getFreq() == Freq.DAILY);
-		mHours = StaticUtils.ListToSortedArray(rule.getByPart(Part.BYHOUR));
+		mHours = rule.getSortedByPart(Part.BYHOUR);
+		mHourMask = StaticUtils.toBitmask(mHours);
 	}
 
 
@@ -46,7 +52,50 @@ final class ByHourFilter extends ByFilter
 	boolean filter(long instance)
 	{
 		// check that the hour of the instance is in mHours
-		return StaticUtils.linearSearch(mHours, Instance.hour(instance)) < 0;
+		return !StaticUtils.isBitSet(mHourMask, Instance.hour(instance));
+	}
+
+
+	@Override
+	long filter(LongArray set, LongArray instances)
+	{
+		long hourMask = mHourMask;
+		long rejected = Long.MIN_VALUE;
+		while (instances.hasNext())
+		{
+			long next = instances.next();
+			if (StaticUtils.isBitSet(hourMask, Instance.hour(next)))
+			{
+				set.add(next);
+			}
+			else
+			{
+				rejected = next;
+			}
+		}
+		return rejected;
+	}
+
+
+	@Override
+	float passRatio()
+	{
+		return Long.bitCount(mHourMask) / 24f;
+	}
+
+
+	@Override
+	long nextCandidate(long instance)
+	{
+		int hour = StaticUtils.nextBit(mHourMask, Instance.hour(instance) + 1);
+		if (hour >= 0 && hour < 24)
+		{
+			return Instance.make(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), hour, 0, 0);
+		}
+
+		// continue with the first hour of the next day
+		hour = StaticUtils.nextBit(mHourMask, 0);
+		return hour >= 0 && hour < 24 ? nextDayInstance(instance, hour, 0, 0) : instance;
 	}
 
 
@@ -17,8 +17,6 @@
 
 package org.dmfs.rfc5545.recur;
 
-import java.util.List;
-
 import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
 import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
 
@@ -33,13 +31,19 @@ final class ByMinuteFilter extends ByFilter
 	/**
 	 * The list of minutes from the recurrence rule.
 	 */
-	private final List<Integer> mMinutes;
+	private final int[] mMinutes;
+
+	/**
+	 * A bit mask of the minutes in {@link #mMinutes}.
+	 */
+	private final long mMinuteMask;
 
 
 	public ByMinuteFilter(RecurrenceRule rule, RuleIterator previous, CalendarMetrics calendarTools, Calendar start)
 	{
 		super(previous, calendarTools, start, rule.getFreq() != Freq.SECONDLY && rule.getFreq() != Freq.MINUTELY);
-		mMinutes = rule.getByPart(Part.BYMINUTE);
+		mMinutes = rule.getSortedByPart(Part.BYMINUTE);
+		mMinuteMask = StaticUtils.toBitmask(mMinutes);
 	}
 
 
@@ -47,7 +51,58 @@ final class ByMinuteFilter extends ByFilter
 	boolean filter(long instance)
 	{
 		// filter all minutes not in the list
-		return !mMinutes.contains(Instance.minute(instance));
+		return !StaticUtils.isBitSet(mMinuteMask, Instance.minute(instance));
+	}
+
+
+	@Override
+	long filter(LongArray set, LongArray instances)
+	{
+		long minuteMask = mMinuteMask;
+		long rejected = Long.MIN_VALUE;
+		while (instances.hasNext())
+		{
+			long next = instances.next();
+			if (StaticUtils.isBitSet(minuteMask, Instance.minute(next)))
+			{
+				set.add(next);
+			}
+			else
+			{
+				rejected = next;
+			}
+		}
+		return rejected;
+	}
+
+
+	@Override
+	float passRatio()
+	{
+		return Long.bitCount(mMinuteMask) / 60f;
+	}
+
+
+	@Override
+	long nextCandidate(long instance)
+	{
+		int year = Instance.year(instance);
+		int month = Instance.month(instance);
+		int dayOfMonth = Instance.dayOfMonth(instance);
+		int hour = Instance.hour(instance);
+		int minute = StaticUtils.nextBit(mMinuteMask, Instance.minute(instance) + 1);
+		if (minute >= 0 && minute < 60)
+		{
+			return Instance.make(year, month, dayOfMonth, hour, minute, 0);
+		}
+
+		// continue with the first minute of the next hour
+		minute = StaticUtils.nextBit(mMinuteMask, 0);
+		if (minute < 0 || minute >= 60)
+		{
+			return instance;
+		}
+		return hour < 23 ? Instance.make(year, month, dayOfMonth, hour + 1, minute, 0) : nextDayInstance(instance, 0, minute, 0);
 	}
 
 
@@ -38,19 +38,21 @@ final class ByMonthDayFilter extends ByFilter
 	private final int[] mMonthDays;
 
 	/**
-	 * The scope of this filter.
+	 * The days of month to let pass by the length of the month. Bit <code>n</code> of <code>mMonthDayMasks[monthDays]</code> is set if day <code>n</code> of
+	 * a month with <code>monthDays</code> days is in {@link #mMonthDays}, so negative values are already resolved.
 	 */
-	private final Scope mScope;
+	private final long[] mMonthDayMasks = new long[64];
 
 	/**
-	 * A helper to do some calendar calculations.
+	 * The scope of this filter.
 	 */
-	private final Calendar mHelper = new Calendar(Calendar.UTC, 2000, 0, 1, 0, 0, 0);
+	private final Scope mScope;
 
 	/**
-	 * The list of months if a BYMONTH part is specified in the rule. We need this to filter by month if the rule has a monthly and weekly scope.
+	 * A bit mask of the months if a BYMONTH part is specified in the rule, <code>0</code> otherwise. We need this to filter by month if the rule has a monthly
+	 * and weekly scope.
 	 */
-	private final int[] mMonths;
+	private final long mMonthMask;
 
 	/**
 	 * Indicates that the expanded set needs to be sorted.
@@ -68,44 +70,116 @@ final class ByMonthDayFilter extends ByFilter
 			(rule.getFreq() == Freq.YEARLY || rule.getFreq() == Freq.MONTHLY || rule.getFreq() == Freq.WEEKLY /* for RFC 2445 */)
 				&& !(rule.hasPart(Part.BYYEARDAY)));
 
-		mMonthDays = StaticUtils.ListToSortedArray(rule.getByPart(Part.BYMONTHDAY));
+		mMonthDays = rule.getSortedByPart(Part.BYMONTHDAY);
 
 		mScope = rule.hasPart(Part.BYWEEKNO) || rule.getFreq() == Freq.WEEKLY ? (rule.hasPart(Part.BYMONTH) || rule.getFreq() == Freq.MONTHLY ? Scope.WEEKLY_AND_MONTHLY
 			: Scope.WEEKLY)
 			: (rule.hasPart(Part.BYMONTH) || rule.getFreq() == Freq.MONTHLY ? Scope.MONTHLY : Scope.YEARLY);
 
-		mHelper.setMinimalDaysInFirstWeek(4);
-		mHelper.setFirstDayOfWeek(rule.getWeekStart().toCalendarDay());
+		// negative days and YEARLY expansions of more than one day (which add the days of all months day by day) are out of order
+		mNeedsSorting = mMonthDays[0] < 0 || mScope == Scope.YEARLY && mMonthDays.length > 1;
 
-		mNeedsSorting = mMonthDays[0] < 0;
+		buildMonthDayMasks(mMonthDays, mMonthDayMasks);
 
 		if (mScope == Scope.WEEKLY_AND_MONTHLY && rule.hasPart(Part.BYMONTH))
 		{
 			// we have to filter by month
-			mMonths = StaticUtils.ListToSortedArray(rule.getByPart(Part.BYMONTH));
+			mMonthMask = StaticUtils.toBitmask(rule.getSortedByPart(Part.BYMONTH));
 		}
 		else
 		{
-			mMonths = null;
+			mMonthMask = 0;
 		}
 
 	}
 
 
+	/**
+	 * Fills the given array with the masks of the given days of month. Bit <code>n</code> of <code>masks[monthDays]</code> is set if day <code>n</code> of a
+	 * month with <code>monthDays</code> days is in <code>days</code>, negative values are resolved.
+	 * 
+	 * @param days
+	 *            The days of month.
+	 * @param masks
+	 *            The array to fill, no more than 64 elements.
+	 */
+	static void buildMonthDayMasks(int[] days, long[] masks)
+	{
+		for (int monthDays = 1; monthDays < masks.length; ++monthDays)
+		{
+			long mask = 0;
+			for (int day : days)
+			{
+				if (0 < day && day <= monthDays)
+				{
+					mask |= 1L << day;
+				}
+				else if (day < 0 && -day <= monthDays)
+				{
+					mask |= 1L << (monthDays + day + 1);
+				}
+			}
+			masks[monthDays] = mask;
+		}
+	}
+
+
 	@Override
 	boolean filter(long instance)
 	{
 		int monthDays = mCalendarMetrics.getDaysPerMonth(Instance.year(instance), Instance.month(instance));
-		int dayOfMonth = Instance.dayOfMonth(instance);
-		return (StaticUtils.linearSearch(mMonthDays, dayOfMonth) < 0 && StaticUtils.linearSearch(mMonthDays, dayOfMonth - 1 - monthDays) < 0)
-			|| dayOfMonth > monthDays;
+		return monthDays >= mMonthDayMasks.length || !StaticUtils.isBitSet(mMonthDayMasks[monthDays], Instance.dayOfMonth(instance));
+	}
+
+
+	@Override
+	boolean filtersDates()
+	{
+		return true;
+	}
+
+
+	@Override
+	float passRatio()
+	{
+		return Long.bitCount(mMonthDayMasks[31]) / 31f;
+	}
+
+
+	@Override
+	long nextCandidate(long instance)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int year = Instance.year(instance);
+		int month = Instance.month(instance);
+		int monthDays = calendarMetrics.getDaysPerMonth(year, month);
+		if (monthDays >= mMonthDayMasks.length)
+		{
+			return instance;
+		}
+
+		int day = StaticUtils.nextBit(mMonthDayMasks[monthDays], Instance.dayOfMonth(instance) + 1);
+		if (day > 0)
+		{
+			return Instance.make(year, month, day, 0, 0, 0);
+		}
+
+		// continue with the next month
+		return month + 1 < calendarMetrics.getMonthsPerYear(year) ? Instance.make(year, month + 1, 1, 0, 0, 0) : Instance.make(year + 1, 0, 1, 0, 0, 0);
+	}
+
+
+	@Override
+	boolean expandsValidInstances()
+	{
+		// days that don't exist in a month are not expanded
+		return true;
 	}
 
 
 	@Override
 	void expand(LongArray set, long instance, long start)
 	{
-		Calendar helper = mHelper;
 		CalendarMetrics calendarMetrics = mCalendarMetrics;
 
 		int year = Instance.year(instance);
@@ -119,13 +193,16 @@ final class ByMonthDayFilter extends ByFilter
 			return;
 		}
 
-		int dayOfMonth = Instance.dayOfMonth(instance);
 		int hour = Instance.hour(instance);
 		int minute = Instance.minute(instance);
 		int second = Instance.second(instance);
 
+		int monthDays = calendarMetrics.getDaysPerMonth(year, month);
+
 		int prevMonthDays = 0;
 		int nextMonthDays = 0;
+		int monthStart = 0;
+		int weekStart = 0;
 		if (mScope == Scope.WEEKLY || mScope == Scope.WEEKLY_AND_MONTHLY)
 		{
 			if (month == 0)
@@ -145,9 +222,13 @@ final class ByMonthDayFilter extends ByFilter
 			{
 				nextMonthDays = calendarMetrics.getDaysPerMonth(year, month + 1);
 			}
+
+			// the day of year of the day before the first day of the month and the day of year of the first day of the week
+			monthStart = calendarMetrics.getYearDaysForMonth(year, month);
+			int dayOfYear = monthStart + Instance.dayOfMonth(instance);
+			weekStart = dayOfYear - (calendarMetrics.getDayOfWeek(year, dayOfYear) - calendarMetrics.weekStart + 7) % 7;
 		}
 
-		int monthDays = calendarMetrics.getDaysPerMonth(year, month);
 		for (int day : mMonthDays)
 		{
 			int newDay = day;
@@ -159,10 +240,13 @@ final class ByMonthDayFilter extends ByFilter
 			switch (mScope)
 			{
 				case WEEKLY:
+				case WEEKLY_AND_MONTHLY:
 					/*
-					 * Expand a WEEKLY rule by day of month. This is not supported by RFC 5545, but it's valid in RFC 2445.
+					 * Expand a WEEKLY rule by day of month. This is not supported by RFC 5545, but it's valid in RFC 2445. Also expand a MONTHLY rule by day
+					 * of month with respect to the current week or a WEEKLY rule with respect to the current month.
 					 * 
-					 * We handle this case just like expanding a MONTHLY rule. The difficult part is that a week can overlap two months.
+					 * We handle this case just like expanding a MONTHLY rule. The difficult part is that a week can overlap two months, so the day might belong
+					 * to the previous or the next month. All year days are relative to the current year.
 					 */
 
 					int prevMonthDay = day;
@@ -173,152 +257,34 @@ final class ByMonthDayFilter extends ByFilter
 						nextMonthDay = day + nextMonthDays + 1;
 					}
 
-					int oldWeek = calendarMetrics.getWeekOfYear(year, month, dayOfMonth);// helper.get(Calendar.WEEK_OF_YEAR);
-					/*
-					 * Add instance only if the week didn't change.
-					 */
-					int newWeek = calendarMetrics.getWeekOfYear(year, month, newDay);
-					if (0 < newDay && newDay <= monthDays && newWeek == oldWeek)
+					int newYearDay;
+					if (0 < newDay && newDay <= monthDays && weekStart <= monthStart + newDay && monthStart + newDay < weekStart + 7)
 					{
-						set.add(Instance.make(helper));
+						newYearDay = monthStart + newDay;
 					}
-					else if (0 < nextMonthDay && nextMonthDay <= nextMonthDays && nextMonthDay < 7)
+					else if (0 < nextMonthDay && nextMonthDay <= nextMonthDays && monthStart + monthDays + nextMonthDay < weekStart + 7)
 					{
-						/*
-						 * The day might belong to the next month.
-						 * 
-						 * FIXME: this won't work if the next month is shorter than 7 days (are there any calendars with months shorter than 7 days?).
-						 */
-						helper.set(year, month + 1, nextMonthDay, hour, minute, second);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek = helper.get(Calendar.WEEK_OF_YEAR);
-						if (newWeek == oldWeek)
-						{
-							set.add(Instance.make(helper));
-						}
+						newYearDay = monthStart + monthDays + nextMonthDay;
 					}
-					else if (0 < prevMonthDay && prevMonthDay <= prevMonthDays && prevMonthDay > prevMonthDays - 7)
+					else if (0 < prevMonthDay && prevMonthDay <= prevMonthDays && weekStart <= monthStart + prevMonthDay - prevMonthDays)
 					{
-						/*
-						 * The day might belong to the previous month.
-						 * 
-						 * FIXME: this won't work if the previous month is shorter than 7 days (are there any calendars with months shorter than 7 days?).
-						 */
-						helper.set(year, month - 1, prevMonthDay, hour, minute, second);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek = helper.get(Calendar.WEEK_OF_YEAR);
-						if (newWeek == oldWeek)
-						{
-							set.add(Instance.make(helper));
-						}
-
+						newYearDay = monthStart + prevMonthDay - prevMonthDays;
 					}
-					break;
-
-				case WEEKLY_AND_MONTHLY:
-					/*
-					 * Expand a MONTHLY rule by day of month with respect to the current week or expand a WEEKLY rule with respect to the current month.
-					 * 
-					 * This case is handled like the WEEKLY case, just with an additional check for the correct month.
-					 */
-
-					int prevMonthDay2 = day;
-					int nextMonthDay2 = day;
-					if (day < 0)
+					else
 					{
-						prevMonthDay2 = day + prevMonthDays + 1;
-						nextMonthDay2 = day + nextMonthDays + 1;
+						// not in this week
+						break;
 					}
 
-					int oldWeek2 = calendarMetrics.getWeekOfYear(year, month, dayOfMonth);// helper.get(Calendar.WEEK_OF_YEAR);
-					helper.set(year, month, newDay);
-					/*
-					 * Add instance only if the week didn't change.
-					 */
-					int newWeek2 = calendarMetrics.getWeekOfYear(year, month, newDay);
-					if (0 < newDay && newDay <= monthDays && newWeek2 == oldWeek2)
-					{
-						if (mMonths != null && StaticUtils.linearSearch(mMonths, month + 1) >= 0)
-						/*
-						 * the rule is WEEKLY with BYMONTH filter or MONTHLY or YEARLY with BYMONTH and BYWEEKNO filter, so filter by month because we may have
-						 * overlapping weeks
-						 */
-						{
-							set.add(Instance.make(year, month, newDay, hour, minute, second, calendarMetrics.getDayOfWeek(year, month, newDay)));
-						}
-						else if (mMonths == null && helper.get(Calendar.MONTH) == month)
-						/*
-						 * the rule is MONTHLY with BYWEEKNOfilter, so add only instances in the original month
-						 */
-						{
-							set.add(Instance.make(year, month, newDay, hour, minute, second, calendarMetrics.getDayOfWeek(year, month, newDay)));
-						}
-					}
-					else if (0 < nextMonthDay2 && nextMonthDay2 <= nextMonthDays && nextMonthDay2 < 7)
+					long newInstance = yearDayInstance(year, newYearDay, hour, minute, second);
+					if (mScope == Scope.WEEKLY || mMonthMask != 0 && StaticUtils.isBitSet(mMonthMask, Instance.month(newInstance) + 1)
+						|| mMonthMask == 0 && Instance.month(newInstance) == month)
 					{
 						/*
-						 * The day might belong to the next month.
-						 * 
-						 * FIXME: this won't work if the next month is shorter than 7 days (are there any calendars with months shorter than 7 days?).
+						 * In WEEKLY_AND_MONTHLY scope the rule is WEEKLY with BYMONTH filter or MONTHLY or YEARLY with BYMONTH and BYWEEKNO filter, so filter by
+						 * month because we may have overlapping weeks. If the rule is MONTHLY with BYWEEKNO filter add only instances in the original month.
 						 */
-						helper.set(year, month + 1, nextMonthDay2, hour, minute, second);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek2 = helper.get(Calendar.WEEK_OF_YEAR);
-						if (newWeek2 == oldWeek2)
-						{
-							if (mMonths != null && StaticUtils.linearSearch(mMonths, mHelper.get(Calendar.MONTH) + 1) >= 0)
-							/*
-							 * the rule is WEEKLY with BYMONTH filter or MONTHLY or YEARLY with BYMONTH and BYWEEKNO filter, so filter by month because we may
-							 * have overlapping weeks
-							 */
-							{
-								set.add(Instance.make(helper));
-							}
-							else if (mMonths == null && helper.get(Calendar.MONTH) == month)
-							/*
-							 * the rule is MONTHLY with BYWEEKNOfilter, so add only instances in the original month
-							 */
-							{
-								set.add(Instance.make(helper));
-							}
-						}
-					}
-					else if (0 < prevMonthDay2 && prevMonthDay2 <= prevMonthDays && prevMonthDay2 > prevMonthDays - 7)
-					{
-						/*
-						 * The day might belong to the previous month.
-						 * 
-						 * FIXME: this won't work if the previous month is shorter than 7 days (are there any calendars with months shorter than 7 days?).
-						 */
-						helper.set(year, month - 1, prevMonthDay2, hour, minute, second);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek2 = helper.get(Calendar.WEEK_OF_YEAR);
-						if (newWeek2 == oldWeek2)
-						{
-							if (mMonths != null && StaticUtils.linearSearch(mMonths, mHelper.get(Calendar.MONTH) + 1) >= 0)
-							/*
-							 * the rule is WEEKLY with BYMONTH filter or MONTHLY or YEARLY with BYMONTH and BYWEEKNO filter, so filter by month because we may
-							 * have overlapping weeks
-							 */
-							{
-								set.add(Instance.make(helper));
-							}
-							else if (mMonths == null && helper.get(Calendar.MONTH) == month)
-							/*
-							 * the rule is MONTHLY with BYWEEKNOfilter, so add only instances in the original month
-							 */
-							{
-								set.add(Instance.make(helper));
-							}
-						}
+						set.add(newInstance);
 					}
 					break;
 
@@ -326,7 +292,7 @@ final class ByMonthDayFilter extends ByFilter
 					/*
 					 * Expand all days in the current month.
 					 */
-					if (0 < newDay && newDay <= monthDays)// && !(newDay < Instance.dayOfMonth(start) && month == startMonth && year == startYear))
+					if (0 < newDay && newDay <= monthDays)
 					{
 						set.add(Instance.setDayOfMonth(instance, newDay));
 					}
@@ -346,7 +312,6 @@ final class ByMonthDayFilter extends ByFilter
 
 					for (int i = 0; i < 12; ++i)
 					{
-						helper.set(year, i, 1);
 						int monthDays2 = calendarMetrics.getDaysPerMonth(year, i);
 
 						if (day < 0)
@@ -39,26 +39,22 @@ final class ByMonthFilter extends ByFilter
 	private final int[] mMonths;
 
 	/**
-	 * Whether to allow weeks that overlap one of the months in {@link #mMonths} to pass. This is important if the rule is weekly and a BY*DAY filter is
-	 * present.
+	 * A bit mask of the months in {@link #mMonths}.
 	 */
-	private final boolean mAllowOverlappingWeeks;
+	private final long mMonthMask;
 
 	/**
-	 * The start of the week as defined by the rule.
-	 */
-	private final int mWeekStart;
-
-	/**
-	 * A helper for calendar calculations.
+	 * Whether to allow weeks that overlap one of the months in {@link #mMonths} to pass. This is important if the rule is weekly and a BY*DAY filter is
+	 * present.
 	 */
-	private final Calendar mHelper;
+	private final boolean mAllowOverlappingWeeks;
 
 
 	public ByMonthFilter(RecurrenceRule rule, RuleIterator previous, CalendarMetrics calendarTools, Calendar start)
 	{
 		super(previous, calendarTools, start, rule.getFreq() == Freq.YEARLY);
-		mMonths = StaticUtils.ListToSortedArray(rule.getByPart(Part.BYMONTH));
+		mMonths = rule.getSortedByPart(Part.BYMONTH);
+		mMonthMask = StaticUtils.toBitmask(mMonths);
 
 		/*
 		 * If we expand day-wise in a weekly interval we'll have to keep overlapping weeks, otherwise we may loose instances.
@@ -66,20 +62,6 @@ final class ByMonthFilter extends ByFilter
 		 * The day filters will remove the invalid instances later.
 		 */
 		mAllowOverlappingWeeks = rule.getFreq() == Freq.WEEKLY && (rule.hasPart(Part.BYDAY) || rule.hasPart(Part.BYMONTHDAY) || rule.hasPart(Part.BYYEARDAY));
-
-		if (mAllowOverlappingWeeks)
-		{
-			mWeekStart = rule.getWeekStart().toCalendarDay();
-
-			mHelper = new Calendar(Calendar.UTC, 2000, 0, 1, 0, 0, 0);
-			mHelper.setMinimalDaysInFirstWeek(4);
-			mHelper.setFirstDayOfWeek(mWeekStart);
-		}
-		else
-		{
-			mWeekStart = 0;
-			mHelper = null;
-		}
 	}
 
 
@@ -89,36 +71,93 @@ final class ByMonthFilter extends ByFilter
 		final int month = Instance.month(instance);
 		if (!mAllowOverlappingWeeks)
 		{
-			return StaticUtils.linearSearch(mMonths, month + 1) < 0;
+			return !StaticUtils.isBitSet(mMonthMask, month + 1);
 		}
 		else
 		{
-			if (StaticUtils.linearSearch(mMonths, month + 1) >= 0)
+			if (StaticUtils.isBitSet(mMonthMask, month + 1))
 			{
 				return false;
 			}
+			CalendarMetrics calendarMetrics = mCalendarMetrics;
 			int year = Instance.year(instance);
-			int dayOfMonth = Instance.dayOfMonth(instance);
-			int hour = Instance.hour(instance);
-			int minute = Instance.minute(instance);
-			int second = Instance.second(instance);
-
-			mHelper.set(year, month, dayOfMonth, hour, minute, second);
-			// force calculation of the WEEK_OF_YEAR and DAY_OF_WEEK fields.
-			mHelper.get(Calendar.WEEK_OF_YEAR);
+			int dayOfYear = calendarMetrics.getDayOfYear(year, month, Instance.dayOfMonth(instance));
 
 			/*
 			 * Check if the current week overlaps any of the months in mMonths, i.e. if the month of the end or the start of the week is in mMonths.
 			 */
-			mHelper.set(Calendar.DAY_OF_WEEK, mWeekStart); // set to first day of the week
-			if (StaticUtils.linearSearch(mMonths, mHelper.get(Calendar.MONTH) + 1) >= 0)
+			int weekStart = dayOfYear - (calendarMetrics.getDayOfWeek(year, dayOfYear) - calendarMetrics.weekStart + 7) % 7;
+			if (StaticUtils.isBitSet(mMonthMask, Instance.month(yearDayInstance(year, weekStart, 0, 0, 0)) + 1))
 			{
 				return false;
 			}
 
-			mHelper.add(Calendar.DAY_OF_MONTH, 6); // set to last day of the week
-			return StaticUtils.linearSearch(mMonths, mHelper.get(Calendar.MONTH) + 1) < 0;
+			return !StaticUtils.isBitSet(mMonthMask, Instance.month(yearDayInstance(year, weekStart + 6, 0, 0, 0)) + 1);
+		}
+	}
+
+
+	@Override
+	long filter(LongArray set, LongArray instances)
+	{
+		if (mAllowOverlappingWeeks)
+		{
+			return super.filter(set, instances);
 		}
+
+		// the month mask is 1-based, instances are 0-based
+		long monthMask = mMonthMask;
+		long rejected = Long.MIN_VALUE;
+		while (instances.hasNext())
+		{
+			long next = instances.next();
+			if (StaticUtils.isBitSet(monthMask, Instance.month(next) + 1))
+			{
+				set.add(next);
+			}
+			else
+			{
+				rejected = next;
+			}
+		}
+		return rejected;
+	}
+
+
+	@Override
+	boolean filtersDates()
+	{
+		return true;
+	}
+
+
+	@Override
+	float passRatio()
+	{
+		return Long.bitCount(mMonthMask) / 12f;
+	}
+
+
+	@Override
+	long nextCandidate(long instance)
+	{
+		if (mAllowOverlappingWeeks)
+		{
+			// weeks that overlap a month pass too, don't bother
+			return instance;
+		}
+
+		// the month mask is 1-based, instances are 0-based
+		int year = Instance.year(instance);
+		int month = StaticUtils.nextBit(mMonthMask, Instance.month(instance) + 2);
+		if (month > 0 && month <= mCalendarMetrics.getMonthsPerYear(year))
+		{
+			return Instance.make(year, month - 1, 1, 0, 0, 0);
+		}
+
+		// continue with the first month of the next year
+		month = StaticUtils.nextBit(mMonthMask, 1);
+		return month > 0 && month <= mCalendarMetrics.getMonthsPerYear(year + 1) ? Instance.make(year + 1, month - 1, 1, 0, 0, 0) : instance;
 	}
 
 
@@ -17,8 +17,6 @@
 
 package org.dmfs.rfc5545.recur;
 
-import java.util.List;
-
 import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
 import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
 
@@ -33,13 +31,19 @@ class BySecondFilter extends ByFilter
 	/**
 	 * The list of minutes from the recurrence rule.
 	 */
-	private final List<Integer> mSeconds;
+	private final int[] mSeconds;
+
+	/**
+	 * A bit mask of the seconds in {@link #mSeconds}.
+	 */
+	private final long mSecondMask;
 
 
 	public BySecondFilter(RecurrenceRule rule, RuleIterator previous, CalendarMetrics calendarTools, Calendar start)
 	{
 		super(previous, calendarTools, start, rule.getFreq() != Freq.SECONDLY);
-		mSeconds = rule.getByPart(Part.BYSECOND);
+		mSeconds = rule.getSortedByPart(Part.BYSECOND);
+		mSecondMask = StaticUtils.toBitmask(mSeconds);
 	}
 
 
@@ -47,7 +51,71 @@ class BySecondFilter extends ByFilter
 	boolean filter(long instance)
 	{
 		// filter all minutes not in the list
-		return !mSeconds.contains(Instance.second(instance));
+		return !StaticUtils.isBitSet(mSecondMask, Instance.second(instance));
+	}
+
+
+	@Override
+	long filter(LongArray set, LongArray instances)
+	{
+		long secondMask = mSecondMask;
+		long rejected = Long.MIN_VALUE;
+		while (instances.hasNext())
+		{
+			long next = instances.next();
+			if (StaticUtils.isBitSet(secondMask, Instance.second(next)))
+			{
+				set.add(next);
+			}
+			else
+			{
+				rejected = next;
+			}
+		}
+		return rejected;
+	}
+
+
+	@Override
+	float passRatio()
+	{
+		return Long.bitCount(mSecondMask) / 60f;
+	}
+
+
+	@Override
+	long nextCandidate(long instance)
+	{
+		int year = Instance.year(instance);
+		int month = Instance.month(instance);
+		int dayOfMonth = Instance.dayOfMonth(instance);
+		int hour = Instance.hour(instance);
+		int minute = Instance.minute(instance);
+		int second = StaticUtils.nextBit(mSecondMask, Instance.second(instance) + 1);
+		if (second >= 0 && second < 60)
+		{
+			return Instance.make(year, month, dayOfMonth, hour, minute, second);
+		}
+
+		// continue with the first second of the next minute
+		second = StaticUtils.nextBit(mSecondMask, 0);
+		if (second < 0 || second >= 60)
+		{
+			return instance;
+		}
+		if (minute < 59)
+		{
+			return Instance.make(year, month, dayOfMonth, hour, minute + 1, second);
+		}
+		return hour < 23 ? Instance.make(year, month, dayOfMonth, hour + 1, 0, second) : nextDayInstance(instance, 0, 0, second);
+	}
+
+
+	@Override
+	boolean expandsValidInstances()
+	{
+		// leap seconds are expanded but never valid
+		return mSeconds[mSeconds.length - 1] < 60 && super.expandsValidInstances();
 	}
 
 
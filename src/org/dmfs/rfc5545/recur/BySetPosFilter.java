@@ -35,9 +35,26 @@ final class BySetPosFilter extends RuleIterator
 	private final static int MAX_EMPTY_SETS = 1000;
 
 	/**
-	 * The positions in the set to filter by.
+	 * The maximum number of instances to select without sorting the set. If a rule refers to more positions we just sort the set.
 	 */
-	private final int[] mSetPositions;
+	private final static int MAX_SELECTION_SIZE = 8;
+
+	/**
+	 * A bit set of the positive positions in the set to filter by.
+	 */
+	private final long[] mPositivePositions;
+
+	/**
+	 * A bit set of the negated negative positions in the set to filter by.
+	 */
+	private final long[] mNegativePositions;
+
+	/**
+	 * Buffers for the lowest and the highest instances of a set if we select them without sorting the set, <code>null</code> if we always sort. The lengths
+	 * are the largest positive position and the largest negated negative position respectively.
+	 */
+	private final long[] mLowest;
+	private final long[] mHighest;
 
 	/**
 	 * An {@link Iterator} to iterate over the elements in the resulting set. This is used by {@link #next()}.
@@ -60,7 +77,23 @@ final class BySetPosFilter extends RuleIterator
 	public BySetPosFilter(RecurrenceRule rule, RuleIterator previous, Calendar start)
 	{
 		super(previous);
-		mSetPositions = StaticUtils.ListToSortedArray(rule.getByPart(Part.BYSETPOS));
+		int[] setPositions = rule.getSortedByPart(Part.BYSETPOS);
+		int maxPosition = Math.max(-setPositions[0], setPositions[setPositions.length - 1]);
+		mPositivePositions = StaticUtils.toBitSet(setPositions, maxPosition, false);
+		mNegativePositions = StaticUtils.toBitSet(setPositions, maxPosition, true);
+
+		int maxPositive = Math.max(setPositions[setPositions.length - 1], 0);
+		int maxNegative = Math.max(-setPositions[0], 0);
+		if (maxPositive + maxNegative <= MAX_SELECTION_SIZE)
+		{
+			mLowest = new long[maxPositive];
+			mHighest = new long[maxNegative];
+		}
+		else
+		{
+			mLowest = null;
+			mHighest = null;
+		}
 		mStart = Instance.makeFast(start);
 	}
 
@@ -97,24 +130,124 @@ final class BySetPosFilter extends RuleIterator
 			}
 
 			LongArray nextSet = mPrevious.nextSet();
+			if (mLowest != null && nextSet.size() > mLowest.length + mHighest.length)
+			{
+				// the positions we're interested in don't overlap, just pick the instances at the start and the end of the set
+				select(nextSet, resultSet);
+				continue;
+			}
+
 			nextSet.sort();
 			int limit = nextSet.size() + 1;
 			int pos = 1;
 
-			// iterate over all instances and check if their position is in mSetPositions
+			// iterate over all instances and check if their position is in the set positions
 			while (nextSet.hasNext())
 			{
 				long d = nextSet.next();
 
-				if ((StaticUtils.linearSearch(mSetPositions, pos) >= 0 || pos < limit && StaticUtils.linearSearch(mSetPositions, pos - limit) >= 0)
-					&& mStart < Instance.maskWeekday(d))
+				if ((StaticUtils.isBitSet(mPositivePositions, pos) || StaticUtils.isBitSet(mNegativePositions, limit - pos)) && mStart < Instance.maskWeekday(d))
 				{
 					resultSet.add(d);
 				}
 				++pos;
-				mFirst = false;
 			}
 		} while (!resultSet.hasNext());
 		return resultSet;
 	}
+
+
+	/**
+	 * Adds the instances at the requested positions of the given set to the result set without sorting the set. The set must contain more instances than
+	 * {@link #mLowest} and {@link #mHighest} can take together.
+	 * 
+	 * @param set
+	 *            The set to select from.
+	 * @param resultSet
+	 *            The {@link LongArray} to add the selected instances to in ascending order.
+	 */
+	private void select(LongArray set, LongArray resultSet)
+	{
+		long[] lowest = mLowest;
+		long[] highest = mHighest;
+		int lowestLength = lowest.length;
+		int highestLength = highest.length;
+		int lowestCount = 0;
+		int highestCount = 0;
+
+		// keep the lowest and the highest instances in ascending order
+		while (set.hasNext())
+		{
+			long d = set.next();
+
+			if (lowestCount < lowestLength || lowestLength > 0 && d < lowest[lowestLength - 1])
+			{
+				int i = lowestCount < lowestLength ? lowestCount++ : lowestLength - 1;
+				while (i > 0 && lowest[i - 1] > d)
+				{
+					lowest[i] = lowest[i - 1];
+					--i;
+				}
+				lowest[i] = d;
+			}
+
+			if (highestCount < highestLength)
+			{
+				int i = highestCount++;
+				while (i > 0 && highest[i - 1] > d)
+				{
+					highest[i] = highest[i - 1];
+					--i;
+				}
+				highest[i] = d;
+			}
+			else if (highestLength > 0 && d > highest[0])
+			{
+				int i = 0;
+				while (i < highestLength - 1 && highest[i + 1] < d)
+				{
+					highest[i] = highest[i + 1];
+					++i;
+				}
+				highest[i] = d;
+			}
+		}
+
+		long start = mStart;
+		for (int i = 0; i < lowestLength; ++i)
+		{
+			long d = lowest[i];
+			if (StaticUtils.isBitSet(mPositivePositions, i + 1) && start < Instance.maskWeekday(d))
+			{
+				resultSet.add(d);
+			}
+		}
+		for (int i = 0; i < highestLength; ++i)
+		{
+			long d = highest[i];
+			if (StaticUtils.isBitSet(mNegativePositions, highestLength - i) && start < Instance.maskWeekday(d))
+			{
+				resultSet.add(d);
+			}
+		}
+	}
+
+
+	@Override
+	boolean seek(long instance)
+	{
+		if (mStart < Instance.maskWeekday(instance))
+		{
+			// the start instance is skipped anyway
+			mFirst = false;
+		}
+
+		if (mPrevious.seek(instance))
+		{
+			// the current set precedes the new interval, drop it
+			mSetIterator = null;
+			return true;
+		}
+		return false;
+	}
 }
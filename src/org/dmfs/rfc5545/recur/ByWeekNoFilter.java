@@ -41,13 +41,6 @@ final class ByWeekNoFilter extends ByFilter
 	 */
 	private final Scope mScope;
 
-	/**
-	 * A helper for calendar calculations.
-	 * 
-	 * TODO: get rid of it.
-	 */
-	private final Calendar mHelper = new Calendar(Calendar.UTC, 2000, 0, 1, 0, 0, 0);
-
 	/**
 	 * A flag that indicates that we have to expand weeks that overlap a month.
 	 */
@@ -58,16 +51,12 @@ final class ByWeekNoFilter extends ByFilter
 	{
 		super(previous, calendarTools, start, true /* always expand */);
 
-		mByWeekNo = StaticUtils.ListToSortedArray(rule.getByPart(Part.BYWEEKNO));
+		mByWeekNo = rule.getSortedByPart(Part.BYWEEKNO);
 
 		mScope = rule.hasPart(Part.BYMONTH) ? Scope.MONTHLY : Scope.YEARLY;
 
 		// allow overlapping weeks in MONTHLY scope and if any BY*DAY rule is present
 		mAllowOverlappingWeeks = mScope == Scope.MONTHLY && (rule.hasPart(Part.BYDAY) || rule.hasPart(Part.BYMONTHDAY) || rule.hasPart(Part.BYYEARDAY));
-
-		// initialize helper
-		mHelper.setFirstDayOfWeek(rule.getWeekStart().toCalendarDay());
-		mHelper.setMinimalDaysInFirstWeek(4);
 	}
 
 
@@ -78,19 +67,33 @@ final class ByWeekNoFilter extends ByFilter
 	}
 
 
+	@Override
+	boolean expandsValidInstances()
+	{
+		// overlapping weeks keep the day of week, even if that moves the instance beyond the start or end of the month
+		return !mAllowOverlappingWeeks;
+	}
+
+
 	@Override
 	void expand(LongArray set, long instance, long notBefore)
 	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+
 		int year = Instance.year(instance);
 		int month = Instance.month(instance);
-		int dayOfMonth = Instance.dayOfMonth(instance);
 		int hour = Instance.hour(instance);
 		int minute = Instance.minute(instance);
 		int second = Instance.second(instance);
 		int dayOfWeek = Instance.dayOfWeek(instance);
 
 		// get the number of weeks in that year
-		int yearWeeks = mCalendarMetrics.getWeeksPerYear(year);
+		int yearWeeks = calendarMetrics.getWeeksPerYear(year);
+
+		// the year day of the start of the first week and the offset of the original day of week within a week
+		int firstWeekStart = calendarMetrics.getYearDayOfFirstWeekStart(year);
+		int weekDayOffset = (dayOfWeek - 1 - calendarMetrics.weekStart + 7) % 7;
+		int newDayOfWeek = (calendarMetrics.weekStart + weekDayOffset) % 7 + 1;
 
 		for (int weekOfYear : mByWeekNo)
 		{
@@ -105,42 +108,38 @@ final class ByWeekNoFilter extends ByFilter
 				continue;
 			}
 
+			// the year day of the start of the week, this might be in the previous year
+			int weekStart = firstWeekStart + (actualWeek - 1) * 7;
+
+			// maintain original day of week
+			long newInstance = Instance.setDayOfWeek(yearDayInstance(year, weekStart + weekDayOffset, hour, minute, second), newDayOfWeek);
+
 			if (mScope == Scope.MONTHLY && mAllowOverlappingWeeks)
 			{
 				/*
 				 * Expand instances if the week intersects instance.month. The by-day expansion will filter any instances not in that month.
 				 */
-				mHelper.set(year, month, dayOfMonth, hour, minute, second);
-				mHelper.set(Calendar.WEEK_OF_YEAR, actualWeek);
-				// maintain original day of week
-				mHelper.set(Calendar.DAY_OF_WEEK, dayOfWeek);
-				if (mHelper.get(Calendar.MONTH) == month)
+				if (Instance.month(newInstance) == month)
 				{
-					set.add(Instance.make(mHelper));
+					set.add(newInstance);
 				}
 				else
 				{
-					int firstDayOfWeek = mHelper.getFirstDayOfWeek();
-
 					// check if the first day of this week is still in this month
-					mHelper.set(Calendar.DAY_OF_WEEK, firstDayOfWeek);
-					if (mHelper.get(Calendar.MONTH) == month)
+					long weekStartInstance = Instance.setDayOfWeek(yearDayInstance(year, weekStart, hour, minute, second), dayOfWeek);
+					if (Instance.month(weekStartInstance) == month)
 					{
-						// create a new instance and adjust day values
-						int offset = (dayOfWeek - firstDayOfWeek + 7) % 7;
-						set.add(Instance.make(mHelper.get(Calendar.YEAR), mHelper.get(Calendar.MONTH), mHelper.get(Calendar.DAY_OF_MONTH) + offset, hour,
-							minute, second, dayOfWeek));
+						// move the day to the original day of week, even if that's beyond the end of the month
+						set.add(Instance.setDayOfMonth(weekStartInstance, Instance.dayOfMonth(weekStartInstance) + weekDayOffset));
 					}
 					else
 					{
 						// check if the last day of this week is still in this month
-						mHelper.add(Calendar.DAY_OF_YEAR, 6);
-						if (mHelper.get(Calendar.MONTH) == month)
+						long weekEndInstance = Instance.setDayOfWeek(yearDayInstance(year, weekStart + 6, hour, minute, second), dayOfWeek);
+						if (Instance.month(weekEndInstance) == month)
 						{
-							// create a new instance and adjust day values
-							int offset = (dayOfWeek - firstDayOfWeek - 6) % 7;
-							set.add(Instance.make(mHelper.get(Calendar.YEAR), mHelper.get(Calendar.MONTH), mHelper.get(Calendar.DAY_OF_MONTH) + offset, hour,
-								minute, second, dayOfWeek));
+							// move the day to the original day of week, even if that's before the start of the month
+							set.add(Instance.setDayOfMonth(weekEndInstance, Instance.dayOfMonth(weekEndInstance) + weekDayOffset - 6));
 						}
 					}
 				}
@@ -150,21 +149,15 @@ final class ByWeekNoFilter extends ByFilter
 				/*
 				 * Expand instances that are in instance.month.
 				 */
-				mHelper.set(year, month, dayOfMonth, hour, minute, second);
-				mHelper.set(Calendar.WEEK_OF_YEAR, actualWeek);
-				mHelper.set(Calendar.DAY_OF_WEEK, dayOfWeek);
-				if (mHelper.get(Calendar.MONTH) == month)
+				if (Instance.month(newInstance) == month)
 				{
-					set.add(Instance.make(mHelper));
+					set.add(newInstance);
 				}
 			}
 			else
 			{
 				// mScope == Scope.YEARLY
-				mHelper.set(year, month, dayOfMonth, hour, minute, second);
-				mHelper.set(Calendar.WEEK_OF_YEAR, actualWeek);
-				mHelper.set(Calendar.DAY_OF_WEEK, dayOfWeek);
-				set.add(Instance.make(mHelper));
+				set.add(newInstance);
 			}
 		}
 	}
@@ -17,8 +17,6 @@
 
 package org.dmfs.rfc5545.recur;
 
-import java.util.List;
-
 import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
 import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
 
@@ -36,49 +34,64 @@ import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
  */
 final class ByYearDayFilter extends ByFilter
 {
+	/**
+	 * The largest absolute value of a year day.
+	 */
+	private final static int MAX_YEAR_DAY = 366;
+
 	/**
 	 * The year days to let pass or to expand.
 	 */
 	private final int[] mYearDays;
 
+	/**
+	 * A bit set of the positive values in {@link #mYearDays}.
+	 */
+	private final long[] mPositiveYearDays;
+
+	/**
+	 * A bit set of the negated negative values in {@link #mYearDays}.
+	 */
+	private final long[] mNegativeYearDays;
+
 	/**
 	 * The scope of this rule.
 	 */
 	private final Scope mScope;
 
 	/**
-	 * A helper for calendar calculations.
-	 * 
-	 * TODO: get rid of it.
+	 * A bit mask of the months if a BYMONTH part is specified in the rule. We need this to filter by month if the rule has a monthly and weekly scope.
 	 */
-	private final Calendar mHelper = new Calendar(Calendar.UTC, 2000, 0, 1, 0, 0, 0);
+	private final long mMonthMask;
 
 	/**
-	 * The list of months if a BYMONTH part is specified in the rule. We need this to filter by month if the rule has a monthly and weekly scope.
+	 * Indicates that the expanded set needs to be sorted.
 	 */
-	private final List<Integer> mMonths;
+	private final boolean mNeedsSorting;
 
 
 	public ByYearDayFilter(RecurrenceRule rule, RuleIterator previous, CalendarMetrics calendarTools, Calendar start)
 	{
 		super(previous, calendarTools, start, rule.getFreq() == Freq.YEARLY || rule.getFreq() == Freq.MONTHLY || rule.getFreq() == Freq.WEEKLY);
 
-		mYearDays = StaticUtils.ListToSortedArray(rule.getByPart(Part.BYYEARDAY));
+		mYearDays = rule.getSortedByPart(Part.BYYEARDAY);
+
+		mNeedsSorting = mYearDays[0] < 0;
+
+		mPositiveYearDays = StaticUtils.toBitSet(mYearDays, MAX_YEAR_DAY, false);
+		mNegativeYearDays = StaticUtils.toBitSet(mYearDays, MAX_YEAR_DAY, true);
 
 		mScope = rule.getFreq() == Freq.WEEKLY || rule.hasPart(Part.BYWEEKNO) ? rule.hasPart(Part.BYMONTH) ? Scope.WEEKLY_AND_MONTHLY : Scope.WEEKLY : rule
 			.getFreq() == Freq.YEARLY && !rule.hasPart(Part.BYMONTH) ? Scope.YEARLY : Scope.MONTHLY;
 
-		mHelper.setMinimalDaysInFirstWeek(4);
-		mHelper.setFirstDayOfWeek(rule.getWeekStart().ordinal());
-
 		if (mScope == Scope.WEEKLY_AND_MONTHLY && rule.hasPart(Part.BYMONTH))
 		{
 			// we have to filter by month
-			mMonths = rule.getByPart(Part.BYMONTH);
+			mMonthMask = StaticUtils.toBitmask(rule.getSortedByPart(Part.BYMONTH));
 		}
 		else
 		{
-			mMonths = null;
+			mMonthMask = 0;
 		}
 	}
 
@@ -88,21 +101,77 @@ final class ByYearDayFilter extends ByFilter
 	{
 		int yearDays = mCalendarMetrics.getDaysPerYear(Instance.year(instance));
 		int dayOfYear = mCalendarMetrics.getDayOfYear(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance));
-		return StaticUtils.linearSearch(mYearDays, dayOfYear) < 0 && StaticUtils.linearSearch(mYearDays, dayOfYear - yearDays) < 0 || dayOfYear > yearDays;
+		return dayOfYear > yearDays || !StaticUtils.isBitSet(mPositiveYearDays, dayOfYear)
+			&& !StaticUtils.isBitSet(mNegativeYearDays, yearDays - dayOfYear + 1);
+	}
+
+
+	@Override
+	boolean filtersDates()
+	{
+		return true;
+	}
+
+
+	@Override
+	float passRatio()
+	{
+		return mYearDays.length / 365f;
+	}
+
+
+	@Override
+	long nextCandidate(long instance)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int year = Instance.year(instance);
+		int yearDays = calendarMetrics.getDaysPerYear(year);
+		for (int dayOfYear = calendarMetrics.getDayOfYear(year, Instance.month(instance), Instance.dayOfMonth(instance)) + 1; dayOfYear <= yearDays; ++dayOfYear)
+		{
+			if (StaticUtils.isBitSet(mPositiveYearDays, dayOfYear) || StaticUtils.isBitSet(mNegativeYearDays, yearDays - dayOfYear + 1))
+			{
+				return yearDayInstance(year, dayOfYear, 0, 0, 0);
+			}
+		}
+
+		// continue with the first day of the next year
+		return Instance.make(year + 1, 0, 1, 0, 0, 0);
+	}
+
+
+	@Override
+	boolean expandsValidInstances()
+	{
+		// all instances are created from a day of the year
+		return true;
 	}
 
 
 	@Override
 	void expand(LongArray set, long instance, long start)
 	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+
 		int year = Instance.year(instance);
 		int month = Instance.month(instance);
-		int dayOfMonth = Instance.dayOfMonth(instance);
 		int hour = Instance.hour(instance);
 		int minute = Instance.minute(instance);
 		int second = Instance.second(instance);
-		int yearDays = mCalendarMetrics.getDaysPerYear(year);
-		int startDayOfYear = mCalendarMetrics.getDayOfYear(Instance.year(start), Instance.month(start), Instance.dayOfMonth(start));
+		int yearDays = calendarMetrics.getDaysPerYear(year);
+		int dayOfYear = calendarMetrics.getDayOfYear(year, month, Instance.dayOfMonth(instance));
+		int startDayOfYear = calendarMetrics.getDayOfYear(Instance.year(start), Instance.month(start), Instance.dayOfMonth(start));
+
+		int weekStart = 0;
+		int prevYearDays = 0;
+		int nextYearDays = 0;
+		if (mScope == Scope.WEEKLY || mScope == Scope.WEEKLY_AND_MONTHLY)
+		{
+			// the day of year of the first day of the week, this might be in the previous year
+			weekStart = dayOfYear - (calendarMetrics.getDayOfWeek(year, dayOfYear) - calendarMetrics.weekStart + 7) % 7;
+			prevYearDays = calendarMetrics.getDaysPerYear(year - 1);
+			nextYearDays = calendarMetrics.getDaysPerYear(year + 1);
+		}
+
 		for (int day : mYearDays)
 		{
 			int actualDay = day;
@@ -114,9 +183,7 @@ final class ByYearDayFilter extends ByFilter
 			switch (mScope)
 			{
 				case WEEKLY:
-					int prevYearDays = mCalendarMetrics.getDaysPerYear(year - 1);
-					int nextYearDays = mCalendarMetrics.getDaysPerYear(year + 1);
-
+				case WEEKLY_AND_MONTHLY:
 					int prevYearDay = day;
 					int nextYearDay = day;
 					if (day < 0)
@@ -125,128 +192,43 @@ final class ByYearDayFilter extends ByFilter
 						nextYearDay = day + nextYearDays + 1;
 					}
 
-					mHelper.set(year, month, dayOfMonth, hour, minute, second);
-					int oldWeek = mHelper.get(Calendar.WEEK_OF_YEAR);
-					mHelper.set(Calendar.DAY_OF_YEAR, actualDay);
 					/*
-					 * Add instance only if the week didn't change.
+					 * Find the day in the current week. It might belong to the previous or the next year, so we check these too. All values are relative to
+					 * the current year.
 					 */
-					int newWeek = mHelper.get(Calendar.WEEK_OF_YEAR);
-					if (0 < actualDay && actualDay <= yearDays && newWeek == oldWeek)
+					int newDay;
+					if (0 < actualDay && actualDay <= yearDays && weekStart <= actualDay && actualDay < weekStart + 7)
 					{
-						set.add(Instance.make(mHelper));
+						newDay = actualDay;
 					}
-					else if (0 < nextYearDay && nextYearDay <= nextYearDays && nextYearDay < 7)
+					else if (0 < nextYearDay && nextYearDay <= nextYearDays && nextYearDay + yearDays < weekStart + 7)
 					{
-						/*
-						 * The day might belong to the next year.
-						 */
-						mHelper.set(year + 1, 0, 1, hour, minute, second);
-						mHelper.set(Calendar.DAY_OF_YEAR, nextYearDay);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek = mHelper.get(Calendar.WEEK_OF_YEAR);
-						if (newWeek == oldWeek)
-						{
-							set.add(Instance.make(mHelper));
-						}
+						newDay = nextYearDay + yearDays;
 					}
-					else if (0 < prevYearDay && prevYearDay <= prevYearDays && prevYearDay > prevYearDays - 7)
+					else if (0 < prevYearDay && prevYearDay <= prevYearDays && weekStart <= prevYearDay - prevYearDays)
 					{
-						/*
-						 * The day might belong to the previous year.
-						 */
-						mHelper.set(year - 1, 0, 1, hour, minute, second);
-						mHelper.set(Calendar.DAY_OF_YEAR, prevYearDay);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek = mHelper.get(Calendar.WEEK_OF_YEAR);
-						if (newWeek == oldWeek)
-						{
-							set.add(Instance.make(mHelper));
-						}
-
+						newDay = prevYearDay - prevYearDays;
 					}
-					break;
-
-				case WEEKLY_AND_MONTHLY:
-					/*
-					 * This case is handled almost like WEEKLY scope, just with additional month check
-					 */
-					int prevYearDays2 = mCalendarMetrics.getDaysPerYear(year - 1);
-					int nextYearDays2 = mCalendarMetrics.getDaysPerYear(year + 1);
-
-					int prevYearDay2 = day;
-					int nextYearDay2 = day;
-					if (day < 0)
+					else
 					{
-						prevYearDay2 = day + prevYearDays2 + 1;
-						nextYearDay2 = day + nextYearDays2 + 1;
+						// not in this week
+						break;
 					}
 
-					mHelper.set(year, month, dayOfMonth, hour, minute, second);
-					int oldWeek2 = mHelper.get(Calendar.WEEK_OF_YEAR);
-					mHelper.set(Calendar.DAY_OF_YEAR, actualDay);
-					/*
-					 * Add instance only if the week didn't change.
-					 */
-					int newWeek2 = mHelper.get(Calendar.WEEK_OF_YEAR);
-					if (0 < actualDay && actualDay <= yearDays && newWeek2 == oldWeek2)
-					{
-						long newInstance = Instance.make(mHelper);
-						int newMonth = mHelper.get(Calendar.MONTH);
-						if (mMonths != null && mMonths.contains(newMonth) || mMonths == null && newMonth == month)
-						{
-							set.add(newInstance);
-						}
-					}
-					else if (0 < nextYearDay2 && nextYearDay2 <= nextYearDays2 && nextYearDay2 < 7)
+					long newInstance = yearDayInstance(year, newDay, hour, minute, second);
+					if (mScope == Scope.WEEKLY || StaticUtils.isBitSet(mMonthMask, Instance.month(newInstance) + 1))
 					{
-						/*
-						 * The day might belong to the next year.
-						 */
-						mHelper.set(year + 1, 0, 1, hour, minute, second);
-						mHelper.set(Calendar.DAY_OF_YEAR, nextYearDay2);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek2 = mHelper.get(Calendar.WEEK_OF_YEAR);
-						int newMonth = mHelper.get(Calendar.MONTH);
-						if (newWeek2 == oldWeek2 && mMonths != null && mMonths.contains(newMonth) || mMonths == null && newMonth == month)
-						{
-							set.add(Instance.make(mHelper));
-						}
-					}
-					else if (0 < prevYearDay2 && prevYearDay2 <= prevYearDays2 && prevYearDay2 > prevYearDays2 - 7)
-					{
-						/*
-						 * The day might belong to the previous year.
-						 */
-						mHelper.set(year - 1, 0, 1, hour, minute, second);
-						mHelper.set(Calendar.DAY_OF_YEAR, prevYearDay2);
-						/*
-						 * Add instance only if the week didn't change.
-						 */
-						newWeek2 = mHelper.get(Calendar.WEEK_OF_YEAR);
-						int newMonth = mHelper.get(Calendar.MONTH);
-						if (newWeek2 == oldWeek2 && mMonths != null && mMonths.contains(newMonth) || mMonths == null && newMonth == month)
-						{
-							set.add(Instance.make(mHelper));
-						}
-
+						set.add(newInstance);
 					}
 					break;
 
 				case MONTHLY:
 					if (0 < actualDay && actualDay <= yearDays && !(actualDay < startDayOfYear && year == Instance.year(start)))
 					{
-						mHelper.set(year, month, dayOfMonth, hour, minute, second);
-						mHelper.set(Calendar.DAY_OF_YEAR, actualDay);
-						if (mHelper.get(Calendar.MONTH) == month)
+						int monthAndDay = calendarMetrics.getMonthAndDayOfYearDay(year, actualDay);
+						if (CalendarMetrics.month(monthAndDay) == month)
 						{
-							set.add(Instance.make(mHelper));
+							set.add(Instance.setDayOfMonth(instance, CalendarMetrics.dayOfMonth(monthAndDay)));
 						}
 					}
 					break;
@@ -254,12 +236,14 @@ final class ByYearDayFilter extends ByFilter
 				case YEARLY:
 					if (0 < actualDay && actualDay <= yearDays && !(actualDay < startDayOfYear && year == Instance.year(start)))
 					{
-						mHelper.set(year, month, dayOfMonth, hour, minute, second);
-						mHelper.set(Calendar.DAY_OF_YEAR, actualDay);
-						set.add(Instance.make(mHelper));
+						set.add(yearDayInstance(year, actualDay, hour, minute, second));
 					}
 					break;
 			}
 		}
+		if (mNeedsSorting)
+		{
+			set.sort();
+		}
 	}
 }
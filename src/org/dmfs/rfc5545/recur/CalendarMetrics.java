@@ -188,4 +188,31 @@ public abstract class CalendarMetrics
 	 */
 	public abstract int getYearDayOfFirstWeekStart(int year);
 
+
+	/**
+	 * Get the number of days between January the 1st 1970 and the given day. The result is negative for days preceding that date.
+	 * 
+	 * @param year
+	 *            The year.
+	 * @param yearDay
+	 *            The day of the year.
+	 * @return The number of days since the epoch.
+	 */
+	public abstract long getEpochDay(int year, int yearDay);
+
+
+	/**
+	 * Get the time stamp of the given instance, treating the instance as a UTC time. This doesn't involve any {@link java.util.Calendar}.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @return The time stamp in milliseconds since the epoch.
+	 */
+	public long toMillis(long instance)
+	{
+		int year = Instance.year(instance);
+		long epochDay = getEpochDay(year, getDayOfYear(year, Instance.month(instance), Instance.dayOfMonth(instance)));
+		return (((epochDay * 24 + Instance.hour(instance)) * 60 + Instance.minute(instance)) * 60 + Instance.second(instance)) * 1000;
+	}
+
 }
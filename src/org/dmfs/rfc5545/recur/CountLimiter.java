@@ -57,4 +57,12 @@ class CountLimiter extends Limiter
 		return ++mCounter > mLimit;
 	}
 
+
+	@Override
+	boolean seek(long instance)
+	{
+		// we have to count every single instance, so we can't skip anything
+		return false;
+	}
+
 }
@@ -0,0 +1,1169 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
+import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
+import org.dmfs.rfc5545.recur.RecurrenceRule.WeekdayNum;
+
+
+/**
+ * An iterator that expands YEARLY and MONTHLY rules using bit masks of the days of a year. It replaces the {@link FreqIterator}, all BYxxx filters and the
+ * {@link BySetPosFilter} of a rule.
+ * <p>
+ * For every year it builds a mask of the days that pass the BYMONTH, BYYEARDAY, BYMONTHDAY and BYDAY parts. Most of the work is done month by month with
+ * masks that have been prepared in the constructor, so building the mask of a year takes just a couple of AND and OR operations. BYSETPOS is applied by
+ * counting and selecting the bits of an interval. Finally the days are combined with the times of day given by BYHOUR, BYMINUTE and BYSECOND.
+ * That way no intermediate sets are built and every day of the year is touched at most once.
+ * </p>
+ * <p>
+ * The results are the same as the results of the filter chain, including the instances that precede the start (which are removed by the
+ * {@link SanityFilter}). Use {@link #supports(RecurrenceRule, CalendarMetrics)} to check whether a rule can be iterated by this class. WEEKLY and more
+ * frequent rules and rules with a BYWEEKNO part are not supported, because their intervals don't fit into a single calendar year.
+ * {@link #isEfficient(RecurrenceRule)} tells whether it's worth to do so, {@link #needsCycleCheck(RecurrenceRule)} whether it's required to detect
+ * exhausted rules.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class DayMaskIterator extends RuleIterator
+{
+	/**
+	 * The number of months after which the Gregorian calendar repeats. 400 years have a whole number of weeks, so the days of a year are the same as the days
+	 * of the year 400 years later.
+	 */
+	private final static int CYCLE_MONTHS = 400 * 12;
+
+	/**
+	 * The number of years the filters may iterate without any instance before a rule has to be iterated by this class to detect that it's exhausted. The
+	 * years of RFC 5545 dates have four digits, so that's far beyond any valid instance, but well within the years an {@link Instance} can hold.
+	 */
+	private final static int MAX_EMPTY_YEARS = 10000;
+
+	/**
+	 * The number of <code>long</code>s of a mask. Bit <code>n</code> of a mask represents day <code>n</code> of the year, so we need 367 bits.
+	 */
+	private final static int MASK_SIZE = 6;
+
+	/**
+	 * The number of distinct year shapes. In the Gregorian calendar the days of a year depend only on whether it's a leap year and on the week day of the
+	 * first day of the year.
+	 */
+	private final static int YEAR_SHAPES = 14;
+
+	/**
+	 * The days of a specific year shape. Instances are immutable, so they can be shared by all iterators of a {@link RuleTemplate}.
+	 */
+	static final class YearShape
+	{
+		/**
+		 * The mask of all days of the year.
+		 */
+		final long[] days;
+
+		/**
+		 * The months that contain at least one day. Bit <code>n</code> represents month <code>n</code>.
+		 */
+		final int months;
+
+
+		YearShape(long[] days, int months)
+		{
+			this.days = days;
+			this.months = months;
+		}
+	}
+
+	private final CalendarMetrics mCalendarMetrics;
+
+	/**
+	 * The frequency of the rule, this is either {@link Freq#YEARLY} or {@link Freq#MONTHLY}.
+	 */
+	private final Freq mFreq;
+
+	/**
+	 * The interval of the rule.
+	 */
+	private final int mInterval;
+
+	/**
+	 * The number of intervals after which the intervals repeat. If that many intervals in a line don't contain any instance, the rule won't return any more
+	 * instances.
+	 */
+	private final int mCycleIntervals;
+
+	/**
+	 * The first instance.
+	 */
+	private final long mStart;
+
+	private final int mStartYear;
+	private final int mStartMonth;
+	private final int mStartDayOfMonth;
+
+	/**
+	 * The days of the start year that precede this day are dropped. This mimics the filters that don't expand instances before the start.
+	 */
+	private final int mFirstDayOfStartYear;
+
+	/**
+	 * A bit mask of the months to include. Bit <code>n</code> represents month <code>n - 1</code>.
+	 */
+	private final long mMonthMask;
+
+	/**
+	 * The days to include by the length of the month. Bit <code>n</code> of <code>mMonthDayMasks[monthDays]</code> is set if day <code>n</code> of a month
+	 * with <code>monthDays</code> days passes the BYMONTHDAY part (or is the day of the start if the rule doesn't contain any day parts).
+	 */
+	private final long[] mMonthDayMasks = new long[32];
+
+	/**
+	 * The masks of the days that pass the BYYEARDAY part in a year with 365 and 366 days or <code>null</code> if the rule doesn't contain a BYYEARDAY part.
+	 */
+	private final long[][] mYearDayMasks;
+
+	/**
+	 * The week days of the BYDAY part (with Sunday being <code>0</code>) and their positions or <code>null</code> if the rule doesn't contain a BYDAY part.
+	 */
+	private final int[] mWeekdays;
+	private final int[] mWeekdayPositions;
+
+	/**
+	 * The days of month that fall on one of the week days without a position by the week day of the first day of the month.
+	 */
+	private final long[] mPlainWeekdayMasks = new long[7];
+
+	/**
+	 * Whether the BYDAY part is applied month by month. That's the case unless the positions of the week days refer to the year.
+	 */
+	private final boolean mMonthlyWeekdays;
+
+	/**
+	 * Whether week days without a position are ignored. The {@link ByDayFilter} ignores them when it filters instances and at least one week day has a
+	 * position.
+	 */
+	private final boolean mIgnorePlainWeekdays;
+
+	/**
+	 * The sorted times of day. Each element contains the hour, the minute and the second as returned by {@link #packTime(int, int, int)}.
+	 */
+	private final int[] mTimes;
+
+	/**
+	 * The sorted values of the BYSETPOS part or <code>null</code> if the rule doesn't contain a BYSETPOS part.
+	 */
+	private final int[] mSetPositions;
+
+	/**
+	 * The indices of the instances at the positions in {@link #mSetPositions} in the current interval.
+	 */
+	private final int[] mSetIndices;
+
+	/**
+	 * The days of all year shapes, see {@link #yearShape(int, int)}. The shapes are built on demand, so the days of every year shape are computed only once. The
+	 * masks of the start year are not cached, because days before the start may have been dropped.
+	 */
+	private final YearShape[] mYearShapes;
+
+	/**
+	 * The mask of the start year.
+	 */
+	private final long[] mStartYearDays = new long[MASK_SIZE];
+
+	/**
+	 * The days of {@link #mMaskYear}. This is either the mask of an element of {@link #mYearShapes} or {@link #mStartYearDays}.
+	 */
+	private long[] mDays;
+
+	/**
+	 * A mask to build the mask of a specific part.
+	 */
+	private final long[] mPartDays = new long[MASK_SIZE];
+
+	/**
+	 * The year of {@link #mDays}.
+	 */
+	private int mMaskYear = Integer.MIN_VALUE;
+
+	/**
+	 * The months of {@link #mMaskYear} that contain at least one day. Bit <code>n</code> represents month <code>n</code>.
+	 */
+	private int mMonthsWithDays;
+
+	/**
+	 * The next interval.
+	 */
+	private int mNextYear;
+	private int mNextMonth;
+
+	/**
+	 * The current interval. {@link #mDay} is the day of the year of the next instance to return or <code>-1</code> if all instances of the interval have been
+	 * returned. {@link #mTimeIndex} is the index of the time of that instance in {@link #mTimes}.
+	 */
+	private int mYear;
+	private int mLastDay;
+	private int mDay = -1;
+	private int mTimeIndex;
+
+	/**
+	 * The month of the last instance returned by {@link #dayInstance(int, int)} and the range of days of the year it covers.
+	 */
+	private int mMonth;
+	private int mMonthStart;
+	private int mMonthEnd;
+
+	/**
+	 * This indicates that the next instance to return is the first instance. This is only used with BYSETPOS.
+	 */
+	private boolean mFirst = true;
+
+	/**
+	 * The set we return.
+	 */
+	private final LongArray mResultSet = new LongArray();
+
+	/**
+	 * The set to iterate by {@link #next()} if the rule contains a BYSETPOS part.
+	 */
+	private LongArray mSetIterator;
+
+
+	/**
+	 * Returns whether the given rule can be iterated by a {@link DayMaskIterator}.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} to use.
+	 * @return <code>true</code> if the rule is supported, <code>false</code> otherwise.
+	 */
+	static boolean supports(RecurrenceRule rule, CalendarMetrics calendarMetrics)
+	{
+		Freq freq = rule.getFreq();
+		return calendarMetrics instanceof GregorianCalendarMetrics && (freq == Freq.YEARLY || freq == Freq.MONTHLY && !rule.hasPart(Part.BYYEARDAY))
+			&& !rule.hasPart(Part.BYWEEKNO);
+	}
+
+
+	/**
+	 * Returns whether a {@link DayMaskIterator} is expected to be faster than the chain of filters for the given rule. That's the case if the filters have to
+	 * build and drop lots of instances, i.e. if the rule contains a BYSETPOS part or if the BYDAY part filters the days of a BYMONTHDAY or BYYEARDAY part. It's
+	 * also the case for week days with a position, since their days are computed only once per year shape, and for MONTHLY rules with a BYMONTH part, since
+	 * the empty months are skipped without building any sets. Rules that just expand a few days of month or year per interval are iterated just as fast by the
+	 * filters.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @return <code>true</code> if a {@link DayMaskIterator} should be used to iterate the rule.
+	 */
+	static boolean isEfficient(RecurrenceRule rule)
+	{
+		if (rule.hasPart(Part.BYSETPOS) || rule.getFreq() == Freq.MONTHLY && rule.hasPart(Part.BYMONTH))
+		{
+			return true;
+		}
+
+		List<WeekdayNum> byDay = rule.getByDayPart();
+		if (byDay == null)
+		{
+			return false;
+		}
+
+		if (rule.hasPart(Part.BYMONTHDAY) || rule.hasPart(Part.BYYEARDAY))
+		{
+			return true;
+		}
+
+		for (WeekdayNum day : byDay)
+		{
+			if (day.pos != 0)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns whether a supported rule has to be iterated by a {@link DayMaskIterator} to detect that it's exhausted. The filters give up after
+	 * {@link ByFilter#MAX_EMPTY_SETS} empty intervals, while this class gives up after a single cycle of the calendar. With a large INTERVAL the filters run
+	 * far beyond any valid year before they give up and the years of the {@link Instance}s they build overflow. Only rules with BYMONTH, BYMONTHDAY or
+	 * BYYEARDAY parts can leave all intervals of a cycle empty, rules with positional week days or BYSETPOS parts are iterated by this class anyway.
+	 *
+	 * @param rule
+	 *            A {@link RecurrenceRule} that's supported by this class.
+	 * @return <code>true</code> if the filters might not detect that the rule is exhausted.
+	 */
+	static boolean needsCycleCheck(RecurrenceRule rule)
+	{
+		long intervalMonths = rule.getFreq() == Freq.YEARLY ? 12L * rule.getInterval() : rule.getInterval();
+		return intervalMonths * ByFilter.MAX_EMPTY_SETS > MAX_EMPTY_YEARS * 12L
+			&& (rule.hasPart(Part.BYMONTH) || rule.hasPart(Part.BYMONTHDAY) || rule.hasPart(Part.BYYEARDAY));
+	}
+
+
+	/**
+	 * Returns whether a {@link DayMaskIterator} returns exactly the same instances as the chain of filters for the given supported rule, even if it's not used
+	 * by default. That's not the case for rules with duplicate values, which are returned only once, YEARLY rules with a BYMONTHDAY part but no other day or
+	 * month parts, which the {@link ByMonthDayFilter} expands differently, and rules with leap seconds, which may leave us without any valid times.
+	 *
+	 * @param rule
+	 *            A {@link RecurrenceRule} that's supported by this class.
+	 * @return <code>true</code> if the results are the same as the results of the filter chain.
+	 */
+	static boolean matchesFilters(RecurrenceRule rule)
+	{
+		if (rule.getFreq() == Freq.YEARLY && rule.hasPart(Part.BYMONTHDAY) && !rule.hasPart(Part.BYMONTH) && !rule.hasPart(Part.BYYEARDAY)
+			&& !rule.hasPart(Part.BYDAY))
+		{
+			return false;
+		}
+		return (!rule.hasPart(Part.BYSECOND) || !rule.getByPart(Part.BYSECOND).contains(60)) && RuleOptimizer.isUnique(rule);
+	}
+
+
+	/**
+	 * Returns whether the iterators of the given rule can share their year shapes. That's the case if the rule contains any day parts, otherwise the days
+	 * depend on the start.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @return <code>true</code> if a cache of year shapes can be shared by all iterators of the rule.
+	 */
+	static boolean sharesYearShapes(RecurrenceRule rule)
+	{
+		return rule.hasPart(Part.BYYEARDAY) || rule.hasPart(Part.BYMONTHDAY) || rule.hasPart(Part.BYDAY);
+	}
+
+
+	/**
+	 * Returns a new cache of year shapes to share among the iterators of a rule, see {@link #DayMaskIterator(RecurrenceRule, CalendarMetrics, Calendar, YearShape[])}.
+	 *
+	 * @return An empty array of {@link YearShape}s.
+	 */
+	static YearShape[] newYearShapeCache()
+	{
+		return new YearShape[YEAR_SHAPES];
+	}
+
+
+	public DayMaskIterator(RecurrenceRule rule, CalendarMetrics calendarTools, Calendar start)
+	{
+		this(rule, calendarTools, start, null);
+	}
+
+
+	/**
+	 * Creates a {@link DayMaskIterator} that takes the days of the year shapes from the given cache. The days of a year shape depend on the start only if the
+	 * rule doesn't contain any day parts, so the cache is shared only by rules that do. All other iterators use a cache of their own.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate.
+	 * @param calendarTools
+	 *            The {@link CalendarMetrics} to use.
+	 * @param start
+	 *            The first instance.
+	 * @param yearShapes
+	 *            A cache returned by {@link #newYearShapeCache()} that's shared by all iterators of the same rule and the same {@link CalendarMetrics} or
+	 *            <code>null</code>.
+	 */
+	DayMaskIterator(RecurrenceRule rule, CalendarMetrics calendarTools, Calendar start, YearShape[] yearShapes)
+	{
+		super(null);
+		mCalendarMetrics = calendarTools;
+		mFreq = rule.getFreq();
+		mInterval = rule.getInterval();
+		int cycle = mFreq == Freq.YEARLY ? CYCLE_MONTHS / 12 : CYCLE_MONTHS;
+		mCycleIntervals = cycle / gcd(cycle, mInterval);
+		mStart = Instance.makeFast(start);
+
+		mStartYear = start.get(Calendar.YEAR);
+		mStartMonth = start.get(Calendar.MONTH);
+		mStartDayOfMonth = start.get(Calendar.DAY_OF_MONTH);
+		mNextYear = mStartYear;
+		mNextMonth = mStartMonth;
+
+		boolean hasMonths = rule.hasPart(Part.BYMONTH);
+		boolean hasYearDays = rule.hasPart(Part.BYYEARDAY);
+		boolean hasMonthDays = rule.hasPart(Part.BYMONTHDAY);
+		boolean hasDayParts = hasYearDays || hasMonthDays || rule.hasPart(Part.BYDAY);
+		mYearShapes = yearShapes != null && sharesYearShapes(rule) ? yearShapes : newYearShapeCache();
+
+		if (hasMonths)
+		{
+			mMonthMask = StaticUtils.toBitmask(rule.getSortedByPart(Part.BYMONTH));
+		}
+		else if (mFreq == Freq.YEARLY && !hasDayParts)
+		{
+			// without any day parts a yearly rule recurs in the month of the start only
+			mMonthMask = 1L << (mStartMonth + 1);
+		}
+		else
+		{
+			mMonthMask = -1L;
+		}
+
+		if (hasMonthDays)
+		{
+			ByMonthDayFilter.buildMonthDayMasks(rule.getSortedByPart(Part.BYMONTHDAY), mMonthDayMasks);
+		}
+		else
+		{
+			for (int monthDays = 1; monthDays < mMonthDayMasks.length; ++monthDays)
+			{
+				mMonthDayMasks[monthDays] = hasDayParts ? -1L >>> (63 - monthDays) & ~1L : mStartDayOfMonth <= monthDays ? 1L << mStartDayOfMonth : 0;
+			}
+		}
+
+		if (hasYearDays)
+		{
+			int[] yearDays = rule.getSortedByPart(Part.BYYEARDAY);
+			mYearDayMasks = new long[2][MASK_SIZE];
+			for (int i = 0; i < 2; ++i)
+			{
+				int daysPerYear = 365 + i;
+				for (int yearDay : yearDays)
+				{
+					int day = yearDay > 0 ? yearDay : daysPerYear + yearDay + 1;
+					if (0 < day && day <= daysPerYear)
+					{
+						setBit(mYearDayMasks[i], day);
+					}
+				}
+			}
+		}
+		else
+		{
+			mYearDayMasks = null;
+		}
+
+		mSetPositions = rule.getSortedByPart(Part.BYSETPOS);
+		mSetIndices = mSetPositions == null ? null : new int[mSetPositions.length];
+
+		List<WeekdayNum> byDay = rule.getByDayPart();
+		boolean hasPositions = false;
+		if (byDay != null)
+		{
+			int count = byDay.size();
+			mWeekdays = new int[count];
+			mWeekdayPositions = new int[count];
+			for (int i = 0; i < count; ++i)
+			{
+				WeekdayNum day = byDay.get(i);
+				mWeekdays[i] = day.weekday.ordinal();
+				mWeekdayPositions[i] = day.pos;
+				hasPositions |= day.pos != 0;
+			}
+		}
+		else
+		{
+			mWeekdays = null;
+			mWeekdayPositions = null;
+		}
+		mMonthlyWeekdays = !hasPositions || mFreq == Freq.MONTHLY || hasMonths;
+		mIgnorePlainWeekdays = hasPositions && (hasYearDays || hasMonthDays);
+
+		if (mWeekdays != null && !mIgnorePlainWeekdays)
+		{
+			for (int i = 0, count = mWeekdays.length; i < count; ++i)
+			{
+				if (mWeekdayPositions[i] == 0)
+				{
+					for (int firstWeekDay = 0; firstWeekDay < 7; ++firstWeekDay)
+					{
+						for (int day = (mWeekdays[i] - firstWeekDay + 7) % 7 + 1; day < 32; day += 7)
+						{
+							mPlainWeekdayMasks[firstWeekDay] |= 1L << day;
+						}
+					}
+				}
+			}
+		}
+
+		if (mFreq == Freq.YEARLY && hasYearDays)
+		{
+			mFirstDayOfStartYear = calendarTools.getDayOfYear(mStartYear, mStartMonth, mStartDayOfMonth);
+		}
+		else if (mFreq == Freq.YEARLY && (hasMonths || hasMonthDays))
+		{
+			mFirstDayOfStartYear = calendarTools.getYearDaysForMonth(mStartYear, mStartMonth) + 1;
+		}
+		else
+		{
+			mFirstDayOfStartYear = 0;
+		}
+
+		int[] hours = rule.hasPart(Part.BYHOUR) ? rule.getSortedByPart(Part.BYHOUR) : new int[] { start.get(Calendar.HOUR_OF_DAY) };
+		int[] minutes = rule.hasPart(Part.BYMINUTE) ? rule.getSortedByPart(Part.BYMINUTE) : new int[] { start.get(Calendar.MINUTE) };
+		int[] seconds = rule.hasPart(Part.BYSECOND) ? rule.getSortedByPart(Part.BYSECOND) : new int[] { start.get(Calendar.SECOND) };
+
+		// combine all times, skipping duplicates and leap seconds (the SanityFilter would remove them anyway)
+		LongArray times = new LongArray(hours.length * minutes.length * seconds.length);
+		long lastTime = -1;
+		for (int hour : hours)
+		{
+			for (int minute : minutes)
+			{
+				for (int second : seconds)
+				{
+					int time = packTime(hour, minute, second);
+					if (time != lastTime && second < 60)
+					{
+						times.add(time);
+						lastTime = time;
+					}
+				}
+			}
+		}
+		mTimes = new int[times.size()];
+		for (int i = 0; i < mTimes.length; ++i)
+		{
+			mTimes[i] = (int) times.next();
+		}
+	}
+
+
+	@Override
+	public long next()
+	{
+		if (mSetPositions != null)
+		{
+			if (mSetIterator == null || !mSetIterator.hasNext())
+			{
+				mSetIterator = nextSet();
+			}
+			return mSetIterator.next();
+		}
+
+		if (mDay < 0)
+		{
+			nextInterval();
+		}
+
+		int time = mTimes[mTimeIndex];
+		long result = dayInstance(mDay, time);
+
+		if (++mTimeIndex == mTimes.length)
+		{
+			// move on to the next day of the interval
+			mTimeIndex = 0;
+			mDay = nextDay(mDay + 1);
+		}
+		return result;
+	}
+
+
+	@Override
+	LongArray nextSet()
+	{
+		LongArray resultSet = mResultSet;
+		resultSet.clear();
+
+		if (mSetPositions == null)
+		{
+			// return all remaining instances of the current interval
+			do
+			{
+				resultSet.add(next());
+			} while (mDay >= 0);
+			return resultSet;
+		}
+
+		if (mFirst)
+		{
+			// mStart is always the first result
+			resultSet.add(mStart);
+		}
+
+		int emptySets = 0;
+		do
+		{
+			nextInterval();
+			addSetPositions(resultSet);
+			mFirst = false;
+
+			// the sets of the start year are not representative, since days before the start may have been dropped
+			if (mYear != mStartYear && ++emptySets > mCycleIntervals)
+			{
+				throw new IllegalArgumentException("too many empty recurrence sets");
+			}
+		} while (!resultSet.hasNext());
+		return resultSet;
+	}
+
+
+	@Override
+	boolean returnsValidInstances()
+	{
+		// the masks contain existing days only and leap seconds have been removed from the times
+		return true;
+	}
+
+
+	@Override
+	boolean seek(long instance)
+	{
+		if (mStart < Instance.maskWeekday(instance))
+		{
+			// the start instance is skipped anyway
+			mFirst = false;
+		}
+
+		int year = Instance.year(instance);
+		int interval = mInterval;
+
+		if (mFreq == Freq.YEARLY)
+		{
+			int years = (year - mNextYear) / interval - 1;
+			if (years > 0)
+			{
+				mNextYear += years * interval;
+				mDay = -1;
+				mSetIterator = null;
+				return true;
+			}
+		}
+		else
+		{
+			int months = ((year - mNextYear) * 12 + Instance.month(instance) - mNextMonth) / interval - 1;
+			if (months > 0)
+			{
+				mNextMonth += months * interval;
+				mNextYear += mNextMonth / 12;
+				mNextMonth %= 12;
+				mDay = -1;
+				mSetIterator = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Moves on to the next interval that contains at least one day. On return {@link #mDay} contains the first day of the interval.
+	 * <p>
+	 * Intervals without any days are skipped by testing a single bit. Since the intervals repeat after {@link #mCycleIntervals} intervals, the rule is known to
+	 * be exhausted once that many empty intervals have been skipped in a line.
+	 * </p>
+	 */
+	private void nextInterval()
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int interval = mInterval;
+		int emptyIntervals = 0;
+		while (true)
+		{
+			int year = mNextYear;
+			if (year != mMaskYear)
+			{
+				loadMask(year);
+			}
+
+			int monthsWithDays = mMonthsWithDays;
+			int firstDay;
+			if (mFreq == Freq.YEARLY)
+			{
+				mNextYear += interval;
+				if (monthsWithDays == 0)
+				{
+					emptyIntervals += year != mStartYear ? 1 : 0;
+					if (emptyIntervals >= mCycleIntervals)
+					{
+						throw new IllegalArgumentException("too many empty recurrence sets");
+					}
+					continue;
+				}
+				firstDay = 1;
+				mLastDay = calendarMetrics.getDaysPerYear(year);
+			}
+			else
+			{
+				// skip all months of this year that don't contain any days
+				int month = mNextMonth;
+				int skipped = 0;
+				while (month < 12 && (monthsWithDays & (1 << month)) == 0)
+				{
+					month += interval;
+					++skipped;
+				}
+
+				emptyIntervals += year != mStartYear ? skipped : 0;
+				if (emptyIntervals >= mCycleIntervals)
+				{
+					throw new IllegalArgumentException("too many empty recurrence sets");
+				}
+
+				if (month >= 12)
+				{
+					// no more days in this year
+					mNextYear += month / 12;
+					mNextMonth = month % 12;
+					continue;
+				}
+
+				mNextMonth = month + interval;
+				mNextYear += mNextMonth / 12;
+				mNextMonth %= 12;
+
+				firstDay = calendarMetrics.getYearDaysForMonth(year, month) + 1;
+				mLastDay = firstDay + calendarMetrics.getDaysPerMonth(year, month) - 1;
+			}
+
+			if (year != mYear)
+			{
+				mYear = year;
+				// invalidate the month of dayInstance
+				mMonthEnd = 0;
+			}
+			mTimeIndex = 0;
+			mDay = nextDay(firstDay);
+			return;
+		}
+	}
+
+
+	/**
+	 * Returns the next day in the current interval.
+	 *
+	 * @param day
+	 *            The day of the year to start with.
+	 * @return The first day of the year in the current interval that's not before <code>day</code> or <code>-1</code> if there is no such day.
+	 */
+	private int nextDay(int day)
+	{
+		int next = nextSetBit(mDays, day);
+		return next > mLastDay ? -1 : next;
+	}
+
+
+	/**
+	 * Adds the instances at the positions given by BYSETPOS of the current interval to the given set. Instances that don't succeed the start are skipped.
+	 *
+	 * @param resultSet
+	 *            The {@link LongArray} to add the instances to.
+	 */
+	private void addSetPositions(LongArray resultSet)
+	{
+		int[] times = mTimes;
+		int timeCount = times.length;
+		long[] days = mDays;
+		int day = mDay;
+		int total = bitCount(days, day, mLastDay) * timeCount;
+
+		// convert the positions into the indices of the instances in this interval
+		int[] indices = mSetIndices;
+		int[] setPositions = mSetPositions;
+		for (int i = 0, count = indices.length; i < count; ++i)
+		{
+			int pos = setPositions[i];
+			indices[i] = pos > 0 ? pos - 1 : total + pos;
+		}
+		Arrays.sort(indices);
+
+		int lastIndex = -1;
+		int dayIndex = 0;
+		for (int index : indices)
+		{
+			if (index <= lastIndex || index >= total)
+			{
+				// out of range or a duplicate
+				continue;
+			}
+			lastIndex = index;
+
+			// move forward to the day of this index
+			while (dayIndex < index / timeCount)
+			{
+				day = nextSetBit(days, day + 1);
+				++dayIndex;
+			}
+
+			long instance = dayInstance(day, times[index % timeCount]);
+			if (mStart < instance)
+			{
+				resultSet.add(instance);
+			}
+		}
+		mDay = -1;
+	}
+
+
+	/**
+	 * Loads the mask of all days of the given year into {@link #mDays}. The mask is taken from the cache of year shapes if possible.
+	 *
+	 * @param year
+	 *            The year.
+	 */
+	private void loadMask(int year)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int yearDays = calendarMetrics.getDaysPerYear(year);
+		int firstWeekDay = calendarMetrics.getWeekDayOfFirstYearDay(year);
+		int yearShape = yearShape(yearDays, firstWeekDay);
+
+		YearShape shape = mYearShapes[yearShape];
+		if (shape == null)
+		{
+			long[] days = new long[MASK_SIZE];
+			buildMask(days, year, yearDays, firstWeekDay);
+			// other threads may build the same shape concurrently, but the shapes are immutable and equal, so it doesn't matter which one wins
+			shape = new YearShape(days, monthsWithDays(days, year));
+			mYearShapes[yearShape] = shape;
+		}
+		long[] days = shape.days;
+		int monthsWithDays = shape.months;
+
+		if (year == mStartYear && mFirstDayOfStartYear > 1)
+		{
+			// drop the days that precede the start
+			long[] startYearDays = mStartYearDays;
+			System.arraycopy(days, 0, startYearDays, 0, MASK_SIZE);
+			clearRange(startYearDays, 1, mFirstDayOfStartYear - 1);
+			days = startYearDays;
+			monthsWithDays = monthsWithDays(days, year);
+		}
+
+		mDays = days;
+		mMonthsWithDays = monthsWithDays;
+		mMaskYear = year;
+	}
+
+
+	/**
+	 * Returns the months of the given mask that contain at least one day.
+	 *
+	 * @param days
+	 *            The mask of the days of the year.
+	 * @param year
+	 *            The year.
+	 * @return A bit mask with bit <code>n</code> set if month <code>n</code> contains at least one day.
+	 */
+	private int monthsWithDays(long[] days, int year)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int result = 0;
+		for (int month = 0, monthsPerYear = calendarMetrics.getMonthsPerYear(year); month < monthsPerYear; ++month)
+		{
+			int monthStart = calendarMetrics.getYearDaysForMonth(year, month);
+			if (nextSetBit(days, monthStart + 1) <= monthStart + calendarMetrics.getDaysPerMonth(year, month))
+			{
+				result |= 1 << month;
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the shape of a year, a value between <code>0</code> and {@value #YEAR_SHAPES} (exclusive). Years of the same shape have the same days in the
+	 * same months on the same week days.
+	 *
+	 * @param yearDays
+	 *            The number of days in the year.
+	 * @param firstWeekDay
+	 *            The week day of the first day of the year.
+	 * @return The year shape.
+	 */
+	private static int yearShape(int yearDays, int firstWeekDay)
+	{
+		return (yearDays - 365) * 7 + firstWeekDay;
+	}
+
+
+	/**
+	 * Builds the mask of all days of the given year.
+	 *
+	 * @param days
+	 *            The mask to fill, all bits must be cleared.
+	 * @param year
+	 *            The year.
+	 * @param yearDays
+	 *            The number of days in the year.
+	 * @param firstWeekDay
+	 *            The week day of the first day of the year.
+	 */
+	private void buildMask(long[] days, int year, int yearDays, int firstWeekDay)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		long[] monthDayMasks = mMonthDayMasks;
+
+		// BYMONTH, BYMONTHDAY and (usually) BYDAY are applied month by month
+		for (int month = 0, monthsPerYear = calendarMetrics.getMonthsPerYear(year); month < monthsPerYear; ++month)
+		{
+			if (StaticUtils.isBitSet(mMonthMask, month + 1))
+			{
+				int monthStart = calendarMetrics.getYearDaysForMonth(year, month);
+				int monthDays = calendarMetrics.getDaysPerMonth(year, month);
+				long monthMask = monthDayMasks[monthDays];
+				if (mWeekdays != null && mMonthlyWeekdays)
+				{
+					monthMask &= weekdayMask((firstWeekDay + monthStart) % 7, monthDays);
+				}
+				setBits(days, monthMask, monthStart);
+			}
+		}
+
+		if (mYearDayMasks != null)
+		{
+			and(days, mYearDayMasks[yearDays - 365]);
+		}
+
+		if (mWeekdays != null && !mMonthlyWeekdays)
+		{
+			// the positions of the week days refer to the year
+			long[] partDays = mPartDays;
+			clear(partDays);
+			for (int i = 0, count = mWeekdays.length; i < count; ++i)
+			{
+				int weekday = mWeekdays[i];
+				int pos = mWeekdayPositions[i];
+				int first = (weekday - firstWeekDay + 7) % 7 + 1;
+				if (pos == 0)
+				{
+					if (!mIgnorePlainWeekdays)
+					{
+						for (int day = first; day <= yearDays; day += 7)
+						{
+							setBit(partDays, day);
+						}
+					}
+				}
+				else
+				{
+					int day = nthWeekday(yearDays, first, pos);
+					if (day > 0)
+					{
+						setBit(partDays, day);
+					}
+				}
+			}
+			and(days, partDays);
+		}
+	}
+
+
+	/**
+	 * Returns the mask of the days of a month that pass the BYDAY part.
+	 *
+	 * @param firstWeekDay
+	 *            The week day of the first day of the month.
+	 * @param monthDays
+	 *            The number of days in the month.
+	 * @return A mask of the days of month.
+	 */
+	private long weekdayMask(int firstWeekDay, int monthDays)
+	{
+		long mask = mPlainWeekdayMasks[firstWeekDay];
+		int[] weekdayPositions = mWeekdayPositions;
+		for (int i = 0, count = weekdayPositions.length; i < count; ++i)
+		{
+			int pos = weekdayPositions[i];
+			if (pos != 0)
+			{
+				int day = nthWeekday(monthDays, (mWeekdays[i] - firstWeekDay + 7) % 7 + 1, pos);
+				if (day > 0)
+				{
+					mask |= 1L << day;
+				}
+			}
+		}
+		return mask;
+	}
+
+
+	/**
+	 * Returns the <code>pos</code>th occurrence of a week day within a range of days.
+	 *
+	 * @param length
+	 *            The number of days in the range.
+	 * @param first
+	 *            The first occurrence of the week day in the range, starting with <code>1</code>.
+	 * @param pos
+	 *            The position of the week day, negative values count from the end of the range.
+	 * @return The day within the range, starting with <code>1</code>, or <code>0</code> if the range doesn't contain such a day.
+	 */
+	private static int nthWeekday(int length, int first, int pos)
+	{
+		int count = (length - first) / 7 + 1;
+		if (pos > 0 && pos <= count)
+		{
+			return first + (pos - 1) * 7;
+		}
+		else if (pos < 0 && -pos <= count)
+		{
+			return first + (count + pos) * 7;
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Create an instance for the given day of the current year and time. Consecutive days usually fall into the same month, so the month is looked up only
+	 * if the day is not in the month of the previous call.
+	 *
+	 * @param yearDay
+	 *            The day of the year.
+	 * @param time
+	 *            The time of day as returned by {@link #packTime(int, int, int)}.
+	 * @return The instance.
+	 */
+	private long dayInstance(int yearDay, int time)
+	{
+		int year = mYear;
+		if (yearDay <= mMonthStart || yearDay > mMonthEnd)
+		{
+			CalendarMetrics calendarMetrics = mCalendarMetrics;
+			int month = calendarMetrics.getMonthOfYearDay(year, yearDay);
+			mMonth = month;
+			mMonthStart = calendarMetrics.getYearDaysForMonth(year, month);
+			mMonthEnd = mMonthStart + calendarMetrics.getDaysPerMonth(year, month);
+		}
+		return Instance.make(year, mMonth, yearDay - mMonthStart, time >> 12, (time >> 6) & 0x3f, time & 0x3f);
+	}
+
+
+	/**
+	 * Packs a time of day into an int. The result of two times compares like the times.
+	 *
+	 * @param hour
+	 *            The hour.
+	 * @param minute
+	 *            The minute.
+	 * @param second
+	 *            The second.
+	 * @return An int containing the time.
+	 */
+	private static int packTime(int hour, int minute, int second)
+	{
+		return (hour << 12) | (minute << 6) | second;
+	}
+
+
+	/**
+	 * Returns the greatest common divisor of two positive numbers.
+	 */
+	private static int gcd(int a, int b)
+	{
+		while (b != 0)
+		{
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+
+	private static void clear(long[] mask)
+	{
+		for (int i = 0; i < MASK_SIZE; ++i)
+		{
+			mask[i] = 0;
+		}
+	}
+
+
+	private static void and(long[] mask, long[] other)
+	{
+		for (int i = 0; i < MASK_SIZE; ++i)
+		{
+			mask[i] &= other[i];
+		}
+	}
+
+
+	private static void setBit(long[] mask, int bit)
+	{
+		mask[bit >> 6] |= 1L << bit;
+	}
+
+
+	/**
+	 * Sets the bits of a mask shifted by <code>offset</code> bits. <code>bits</code> must fit into the mask after shifting.
+	 */
+	private static void setBits(long[] mask, long bits, int offset)
+	{
+		int word = offset >> 6;
+		int shift = offset & 63;
+		mask[word] |= bits << shift;
+		if (shift != 0 && (bits >>> (64 - shift)) != 0)
+		{
+			mask[word + 1] |= bits >>> (64 - shift);
+		}
+	}
+
+
+	/**
+	 * Clears all bits from <code>from</code> to <code>to</code> (inclusive).
+	 */
+	private static void clearRange(long[] mask, int from, int to)
+	{
+		while (from <= to)
+		{
+			int word = from >> 6;
+			int end = Math.min(to, (word << 6) + 63);
+			mask[word] &= ~((-1L >>> (63 - end + from)) << from);
+			from = end + 1;
+		}
+	}
+
+
+	/**
+	 * Returns the first set bit that's not before <code>from</code> or <code>Integer.MAX_VALUE</code> if there is no such bit.
+	 */
+	private static int nextSetBit(long[] mask, int from)
+	{
+		int word = from >> 6;
+		if (word >= MASK_SIZE)
+		{
+			return Integer.MAX_VALUE;
+		}
+		long bits = mask[word] & (-1L << from);
+		while (bits == 0)
+		{
+			if (++word == MASK_SIZE)
+			{
+				return Integer.MAX_VALUE;
+			}
+			bits = mask[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+
+	/**
+	 * Returns the number of bits set from <code>from</code> to <code>to</code> (inclusive).
+	 */
+	private static int bitCount(long[] mask, int from, int to)
+	{
+		int count = 0;
+		while (from <= to)
+		{
+			int word = from >> 6;
+			int end = Math.min(to, (word << 6) + 63);
+			count += Long.bitCount(mask[word] & ((-1L >>> (63 - end + from)) << from));
+			from = end + 1;
+		}
+		return count;
+	}
+}
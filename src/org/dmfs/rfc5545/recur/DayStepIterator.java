@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.Arrays;
+
+
+/**
+ * An {@link ArithmeticIterator} for DAILY and WEEKLY rules. The periods of these rules have a fixed number of days, so the days of the instances are computed
+ * from the number of days since the epoch.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class DayStepIterator extends ArithmeticIterator
+{
+	/**
+	 * The week day of the first day of the epoch, 1970-01-01 was a Thursday.
+	 */
+	private final static int EPOCH_WEEKDAY = 4;
+
+	/**
+	 * The number of days per period.
+	 */
+	private final int mPeriodDays;
+
+	/**
+	 * The epoch day of the first day of period <code>0</code>.
+	 */
+	private final long mFirstDay;
+
+	/**
+	 * The days of the instances in a period, counting from the first day of the period.
+	 */
+	private final int[] mDays;
+
+	/**
+	 * The time of all instances.
+	 */
+	private final int mHour;
+	private final int mMinute;
+	private final int mSecond;
+
+	/**
+	 * The year of the last instance and the epoch days of the first day of that year and of the next year. That saves the year calculation for most
+	 * instances.
+	 */
+	private int mYear;
+	private long mYearStart = Long.MAX_VALUE;
+	private long mNextYearStart = Long.MIN_VALUE;
+
+
+	/**
+	 * Creates an iterator for a DAILY or WEEKLY rule.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} to use.
+	 * @param start
+	 *            The first instance.
+	 * @param periodDays
+	 *            The number of days per period.
+	 * @param weekdays
+	 *            The week days of a WEEKLY rule with a BYDAY part (with Sunday being <code>0</code>) or <code>null</code> to recur on the day of the start
+	 *            only.
+	 */
+	DayStepIterator(RecurrenceRule rule, CalendarMetrics calendarMetrics, Calendar start, int periodDays, int[] weekdays)
+	{
+		super(rule, calendarMetrics, start, weekdays == null ? 1 : weekdays.length);
+		mPeriodDays = periodDays;
+		mHour = start.get(Calendar.HOUR_OF_DAY);
+		mMinute = start.get(Calendar.MINUTE);
+		mSecond = start.get(Calendar.SECOND);
+
+		long startDay = epochDay(mStart);
+		if (weekdays == null)
+		{
+			mFirstDay = startDay;
+			mDays = new int[] { 0 };
+		}
+		else
+		{
+			// the periods start on the week start
+			int weekStart = rule.getWeekStart().ordinal();
+			mFirstDay = startDay - StaticUtils.floorMod(startDay + EPOCH_WEEKDAY - weekStart, 7);
+			mDays = new int[weekdays.length];
+			for (int i = 0; i < weekdays.length; ++i)
+			{
+				mDays[i] = (weekdays[i] - weekStart + 7) % 7;
+			}
+			Arrays.sort(mDays);
+		}
+	}
+
+
+	@Override
+	long instance(long period, int index)
+	{
+		long epochDay = mFirstDay + period * mPeriodDays + mDays[index];
+
+		if (epochDay < mYearStart || epochDay >= mNextYearStart)
+		{
+			loadYear(epochDay);
+		}
+
+		int monthAndDay = mCalendarMetrics.getMonthAndDayOfYearDay(mYear, (int) (epochDay - mYearStart) + 1);
+		return Instance.make(mYear, CalendarMetrics.month(monthAndDay), CalendarMetrics.dayOfMonth(monthAndDay), mHour, mMinute, mSecond);
+	}
+
+
+	@Override
+	long period(long instance)
+	{
+		return StaticUtils.floorDiv(epochDay(instance) - mFirstDay, mPeriodDays);
+	}
+
+
+	/**
+	 * Returns the number of days since the epoch of the given instance.
+	 *
+	 * @param instance
+	 *            The instance.
+	 * @return The epoch day.
+	 */
+	private long epochDay(long instance)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int year = Instance.year(instance);
+		return calendarMetrics.getEpochDay(year, calendarMetrics.getDayOfYear(year, Instance.month(instance), Instance.dayOfMonth(instance)));
+	}
+
+
+	/**
+	 * Loads the year that contains the given day into {@link #mYear}, {@link #mYearStart} and {@link #mNextYearStart}.
+	 *
+	 * @param epochDay
+	 *            The number of days since the epoch.
+	 */
+	private void loadYear(long epochDay)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+
+		// estimate the year by the average length of a year, that's off by one at most
+		int year = (int) StaticUtils.floorDiv(epochDay * 400, 146097) + 1970;
+		long yearStart = calendarMetrics.getEpochDay(year, 1);
+		while (yearStart > epochDay)
+		{
+			yearStart = calendarMetrics.getEpochDay(--year, 1);
+		}
+		long nextYearStart;
+		while ((nextYearStart = calendarMetrics.getEpochDay(year + 1, 1)) <= epochDay)
+		{
+			++year;
+			yearStart = nextYearStart;
+		}
+
+		mYear = year;
+		mYearStart = yearStart;
+		mNextYearStart = nextYearStart;
+	}
+}
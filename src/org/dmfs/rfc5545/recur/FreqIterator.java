@@ -31,6 +31,16 @@ import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
  */
 public final class FreqIterator extends RuleIterator
 {
+	/**
+	 * The number of days of the shortest month in the Gregorian calendar.
+	 */
+	private final static int MIN_DAYS_PER_MONTH = 28;
+
+	/**
+	 * The maximum number of intervals to compute in one go.
+	 */
+	private final static int MAX_BATCH_SIZE = 32;
+
 	/**
 	 * The base frequency of the rule.
 	 */
@@ -46,11 +56,36 @@ public final class FreqIterator extends RuleIterator
 	 */
 	private final LongArray mResultSet = new LongArray(1);
 
+	/**
+	 * The instances of the current batch of intervals, see {@link #nextBatch()}. The fields below hold the next interval after this batch.
+	 */
+	private long[] mBatch = new long[1];
+
+	/**
+	 * The number of intervals in the current batch.
+	 */
+	private int mBatchSize;
+
+	/**
+	 * The index of the next instance to return from the current batch.
+	 */
+	private int mBatchIndex;
+
+	/**
+	 * The number of intervals to compute for the next batch.
+	 */
+	private int mNextBatchSize = 1;
+
 	/**
 	 * A helper to perform calendar calculations.
 	 */
 	private final CalendarMetrics mCalendarMetrics;
 
+	/**
+	 * Indicates that all instances are valid.
+	 */
+	private final boolean mValidInstances;
+
 	private int mNextYear;
 	private int mNextMonth;
 	private int mNextDayOfYear;
@@ -84,60 +119,117 @@ public final class FreqIterator extends RuleIterator
 		mNextHour = start.get(Calendar.HOUR_OF_DAY);
 		mNextMinute = start.get(Calendar.MINUTE);
 		mNextSecond = start.get(Calendar.SECOND);
+
+		/*
+		 * YEARLY and MONTHLY rules keep the day of month of the start date, which doesn't exist in every month if it's larger than 28. All other frequencies
+		 * compute the day of month from the day of the year.
+		 */
+		mValidInstances = mFreq != Freq.YEARLY && mFreq != Freq.MONTHLY || calendarTools instanceof GregorianCalendarMetrics
+			&& mNextDayOfMonth <= MIN_DAYS_PER_MONTH;
 	}
 
 
 	@Override
 	public long next()
 	{
-		long result = Instance.make(mNextYear, mNextMonth, mNextDayOfMonth, mNextHour, mNextMinute, mNextSecond, mNextDayOfWeek);
+		if (mBatchIndex == mBatchSize)
+		{
+			nextBatch();
+		}
+		return mBatch[mBatchIndex++];
+	}
+
+
+	/**
+	 * Fills {@link #mBatch} with the instances of the next intervals. The frequency is checked once per batch and the instances of YEARLY and MONTHLY rules
+	 * are computed in local variables.
+	 * <p>
+	 * The batches start with a single interval and grow up to {@link #MAX_BATCH_SIZE} intervals, so iterators that return only a few instances (or seek right
+	 * away) don't compute intervals they never return.
+	 * </p>
+	 */
+	private void nextBatch()
+	{
+		int size = mNextBatchSize;
+		if (size < MAX_BATCH_SIZE)
+		{
+			mNextBatchSize = size * 2;
+		}
+		long[] batch = mBatch;
+		if (batch.length < size)
+		{
+			batch = mBatch = new long[MAX_BATCH_SIZE];
+		}
+		mBatchSize = size;
+		mBatchIndex = 0;
 
+		int interval = mInterval;
 		switch (mFreq)
 		{
 			case YEARLY:
-				mNextYear += mInterval;
+			{
+				int year = mNextYear;
+				for (int i = 0; i < size; ++i)
+				{
+					batch[i] = Instance.make(year, mNextMonth, mNextDayOfMonth, mNextHour, mNextMinute, mNextSecond, mNextDayOfWeek);
+					year += interval;
+				}
+				mNextYear = year;
 				break;
+			}
 
 			case MONTHLY:
-				mNextMonth += mInterval;
-				int maxMonths;
-				while (mNextMonth >= (maxMonths = mCalendarMetrics.getMonthsPerYear(mNextYear)))
+			{
+				CalendarMetrics calendarMetrics = mCalendarMetrics;
+				int year = mNextYear;
+				int month = mNextMonth;
+				for (int i = 0; i < size; ++i)
 				{
-					mNextMonth -= maxMonths;
-					++mNextYear;
+					batch[i] = Instance.make(year, month, mNextDayOfMonth, mNextHour, mNextMinute, mNextSecond, mNextDayOfWeek);
+					month += interval;
+					int maxMonths;
+					while (month >= (maxMonths = calendarMetrics.getMonthsPerYear(year)))
+					{
+						month -= maxMonths;
+						++year;
+					}
 				}
+				mNextYear = year;
+				mNextMonth = month;
 				break;
+			}
 
 			case WEEKLY:
-				mNextDayOfYear += 7 * mInterval;
-
-				int maxDays;
-				while (mNextDayOfYear > (maxDays = mCalendarMetrics.getDaysPerYear(mNextYear)))
+			case DAILY:
+			{
+				int days = mFreq == Freq.WEEKLY ? 7 * interval : interval;
+				for (int i = 0; i < size; ++i)
 				{
-					mNextDayOfYear -= maxDays;
-					++mNextYear;
+					batch[i] = Instance.make(mNextYear, mNextMonth, mNextDayOfMonth, mNextHour, mNextMinute, mNextSecond, mNextDayOfWeek);
+					addDays(days);
 				}
-				int monthAndDay = mCalendarMetrics.getMonthAndDayOfYearDay(mNextYear, mNextDayOfYear);
-				mNextMonth = CalendarMetrics.month(monthAndDay);
-				mNextDayOfMonth = CalendarMetrics.dayOfMonth(monthAndDay);
-
 				break;
+			}
 
-			case DAILY:
-				mNextDayOfYear += mInterval;
-
-				int maxDays2;
-				while (mNextDayOfYear > (maxDays2 = mCalendarMetrics.getDaysPerYear(mNextYear)))
+			default:
+			{
+				for (int i = 0; i < size; ++i)
 				{
-					mNextDayOfYear -= maxDays2;
-					++mNextYear;
+					batch[i] = Instance.make(mNextYear, mNextMonth, mNextDayOfMonth, mNextHour, mNextMinute, mNextSecond, mNextDayOfWeek);
+					nextTime();
 				}
-				int monthAndDay2 = mCalendarMetrics.getMonthAndDayOfYearDay(mNextYear, mNextDayOfYear);
-				mNextMonth = CalendarMetrics.month(monthAndDay2);
-				mNextDayOfMonth = CalendarMetrics.dayOfMonth(monthAndDay2);
-				mNextDayOfWeek = mCalendarMetrics.getDayOfWeek(mNextYear, mNextDayOfYear) + 1;
-				break;
+			}
+		}
+	}
 
+
+	/**
+	 * Moves to the next interval of an HOURLY, MINUTELY or SECONDLY rule.
+	 */
+	private void nextTime()
+	{
+		switch (mFreq)
+		{
 			case HOURLY:
 				mNextHour += mInterval;
 
@@ -201,8 +293,10 @@ public final class FreqIterator extends RuleIterator
 				mNextDayOfWeek = mCalendarMetrics.getDayOfWeek(mNextYear, mNextDayOfYear) + 1;
 				break;
 
+			default:
+				// other frequencies are handled by nextBatch
+				break;
 		}
-		return result;
 	}
 
 
@@ -214,4 +308,191 @@ public final class FreqIterator extends RuleIterator
 		return mResultSet;
 	}
 
+
+	/**
+	 * Fast forward to the interval that contains the given instance. This skips all intervals in between without iterating them, so it's much faster than
+	 * calling {@link #next()} repeatedly, especially when the start is far in the past.
+	 * <p>
+	 * Some expansions (like BYWEEKNO) can return instances that reach into the neighbouring interval. To be on the safe side this method stops one interval
+	 * before the one that contains <code>instance</code>. It never moves backwards, so calling it with an instance that precedes the next interval has no
+	 * effect.
+	 * </p>
+	 * 
+	 * @param instance
+	 *            The instance to fast forward to.
+	 * @return <code>true</code> if any intervals have been skipped, <code>false</code> otherwise.
+	 */
+	@Override
+	public boolean seek(long instance)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		int year = Instance.year(instance);
+		int month = Instance.month(instance);
+
+		// the distance from the interval after the current batch to the given instance and the length of an interval, both in units of the frequency
+		long distance;
+		long intervalUnits = mInterval;
+		switch (mFreq)
+		{
+			case YEARLY:
+				distance = year - mNextYear;
+				break;
+
+			case MONTHLY:
+				distance = monthsUntil(year, month);
+				break;
+
+			case WEEKLY:
+				intervalUnits *= 7;
+				distance = daysUntil(year, calendarMetrics.getDayOfYear(year, month, Instance.dayOfMonth(instance)));
+				break;
+
+			case DAILY:
+				distance = daysUntil(year, calendarMetrics.getDayOfYear(year, month, Instance.dayOfMonth(instance)));
+				break;
+
+			default:
+				intervalUnits *= mFreq == Freq.HOURLY ? 3600 : mFreq == Freq.MINUTELY ? 60 : 1;
+				distance = daysUntil(year, calendarMetrics.getDayOfYear(year, month, Instance.dayOfMonth(instance))) * 24 * 60 * 60
+					+ (Instance.hour(instance) - mNextHour) * 60 * 60 + (Instance.minute(instance) - mNextMinute) * 60 + Instance.second(instance) - mNextSecond;
+		}
+
+		/*
+		 * Skip all intervals but the one before the interval that contains the instance. The remaining intervals of the current batch precede the interval
+		 * after the batch, so they are skipped first.
+		 */
+		int buffered = mBatchSize - mBatchIndex;
+		long intervals = StaticUtils.floorDiv(distance, intervalUnits) + buffered - 1;
+		if (intervals <= 0)
+		{
+			return false;
+		}
+		if (intervals < buffered)
+		{
+			mBatchIndex += (int) intervals;
+			return true;
+		}
+		// the batch has been dropped, start over with small batches, since filters that seek tend to seek again soon
+		mBatchIndex = mBatchSize;
+		mNextBatchSize = 1;
+
+		long units = (intervals - buffered) * intervalUnits;
+		if (units == 0)
+		{
+			// the interval after the batch is the one to continue with
+			return true;
+		}
+
+		switch (mFreq)
+		{
+			case YEARLY:
+				mNextYear += units;
+				break;
+
+			case MONTHLY:
+				mNextMonth += units;
+				int maxMonths;
+				while (mNextMonth >= (maxMonths = calendarMetrics.getMonthsPerYear(mNextYear)))
+				{
+					mNextMonth -= maxMonths;
+					++mNextYear;
+				}
+				break;
+
+			case WEEKLY:
+			case DAILY:
+				addDays((int) units);
+				break;
+
+			default:
+				long secondOfDay = mNextHour * 60 * 60 + mNextMinute * 60 + mNextSecond + units;
+				int secondsOfLastDay = (int) (secondOfDay % (24 * 60 * 60));
+				mNextHour = secondsOfLastDay / (60 * 60);
+				mNextMinute = (secondsOfLastDay / 60) % 60;
+				mNextSecond = secondsOfLastDay % 60;
+				addDays((int) (secondOfDay / (24 * 60 * 60)));
+		}
+		return true;
+	}
+
+
+	@Override
+	boolean returnsValidInstances()
+	{
+		return mValidInstances;
+	}
+
+
+	/**
+	 * Returns the number of months from the month of the next interval to the given month. The result is negative if the given month is before the month of
+	 * the next interval.
+	 * 
+	 * @param year
+	 *            The year.
+	 * @param month
+	 *            The month.
+	 * @return The number of months.
+	 */
+	private int monthsUntil(int year, int month)
+	{
+		int months = month - mNextMonth;
+		for (int y = mNextYear; y < year; ++y)
+		{
+			months += mCalendarMetrics.getMonthsPerYear(y);
+		}
+		for (int y = year; y < mNextYear; ++y)
+		{
+			months -= mCalendarMetrics.getMonthsPerYear(y);
+		}
+		return months;
+	}
+
+
+	/**
+	 * Returns the number of days from the day of the next interval to the given day. The result is negative if the given day is before the day of the next
+	 * interval.
+	 * 
+	 * @param year
+	 *            The year.
+	 * @param yearDay
+	 *            The day of the year.
+	 * @return The number of days.
+	 */
+	private long daysUntil(int year, int yearDay)
+	{
+		long days = yearDay - mNextDayOfYear;
+		for (int y = mNextYear; y < year; ++y)
+		{
+			days += mCalendarMetrics.getDaysPerYear(y);
+		}
+		for (int y = year; y < mNextYear; ++y)
+		{
+			days -= mCalendarMetrics.getDaysPerYear(y);
+		}
+		return days;
+	}
+
+
+	/**
+	 * Move the next interval by the given number of days and update all date fields.
+	 * 
+	 * @param days
+	 *            The number of days to add, must not be negative.
+	 */
+	private void addDays(int days)
+	{
+		mNextDayOfYear += days;
+
+		int maxDays;
+		while (mNextDayOfYear > (maxDays = mCalendarMetrics.getDaysPerYear(mNextYear)))
+		{
+			mNextDayOfYear -= maxDays;
+			++mNextYear;
+		}
+		int monthAndDay = mCalendarMetrics.getMonthAndDayOfYearDay(mNextYear, mNextDayOfYear);
+		mNextMonth = CalendarMetrics.month(monthAndDay);
+		mNextDayOfMonth = CalendarMetrics.dayOfMonth(monthAndDay);
+		mNextDayOfWeek = mCalendarMetrics.getDayOfWeek(mNextYear, mNextDayOfYear) + 1;
+	}
+
 }
@@ -23,7 +23,9 @@ import org.dmfs.rfc5545.recur.RecurrenceRule.Weekday;
 /**
  * Provides a set of methods that provide information about the Gregorian Calendar.
  * <p>
- * TODO: Some of these methods can use some optimizations.
+ * In the Gregorian calendar there are only 14 different shapes of years. The shape of a year is determined by whether it's a leap year and by the week day
+ * of the first day of the year. Most methods look up the results in tables that are indexed by the shape of the year and the day of the year. The shape of
+ * the year that has been used last is cached, since usually many days of the same year are queried in a row.
  * </p>
  * 
  * @author Marten Gajda <marten@dmfs.org>
@@ -41,11 +43,83 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 	 */
 	private final static int[] YEARDAYS_PER_MONTH = { 0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334 };
 
+	/**
+	 * The number of days in a cycle of 400 years.
+	 */
+	private final static int DAYS_PER_400_YEARS = 146097;
+
+	/**
+	 * The number of days from January the 1st of year 1 to January the 1st 1970.
+	 */
+	private final static int DAYS_0001_TO_1970 = 719162;
+
 	/**
 	 * An array of {@link Weekday}s. This is handy to get a {@link Weekday} instance for a given weekday number.
 	 */
 	public final static Weekday[] WEEKDAYS = Weekday.values();
 
+	/**
+	 * The number of elements of tables indexed by the shape of a year, see {@link #getYearShape(int)}. Only 14 of them are used.
+	 */
+	private final static int YEAR_SHAPES = 16;
+
+	/**
+	 * Flags a valid value of {@link #mLastYearShape}.
+	 */
+	private final static int YEAR_SHAPE_VALID = 0x10;
+
+	/**
+	 * The month and the day of month of every day of the year, packed by {@link CalendarMetrics#monthAndDay(int, int)}. The first index is <code>1</code> for
+	 * leap years and <code>0</code> for all other years.
+	 */
+	private final static short[][] MONTH_AND_DAY = new short[2][367];
+
+	/**
+	 * The week day of every day of the year by the week day of the first day of the year.
+	 */
+	private final static byte[][] DAY_OF_WEEK = new byte[7][367];
+
+	/**
+	 * The cached week numbering tables by week start and minimal number of days in the first week, see {@link #weekNumbering(int, int)}.
+	 */
+	private final static WeekNumbering[] WEEK_NUMBERINGS = new WeekNumbering[7 * 8];
+
+	static
+	{
+		for (int leap = 0; leap < 2; ++leap)
+		{
+			int yearDay = 1;
+			for (int month = 0; month < 12; ++month)
+			{
+				int monthDays = DAYS_PER_MONTH[month] + (month == 1 ? leap : 0);
+				for (int day = 1; day <= monthDays; ++day)
+				{
+					MONTH_AND_DAY[leap][yearDay++] = (short) monthAndDay(month, day);
+				}
+			}
+		}
+
+		for (int firstWeekDay = 0; firstWeekDay < 7; ++firstWeekDay)
+		{
+			for (int yearDay = 1; yearDay < 367; ++yearDay)
+			{
+				DAY_OF_WEEK[firstWeekDay][yearDay] = (byte) ((firstWeekDay + yearDay - 1) % 7);
+			}
+		}
+	}
+
+	/**
+	 * The week numbering tables of this instance.
+	 */
+	private final WeekNumbering mWeekNumbering;
+
+	/**
+	 * The year that has been passed to {@link #getYearShape(int)} most recently and its shape. The year is in the upper bits, the shape in the lower four bits.
+	 * The value is valid only if {@link #YEAR_SHAPE_VALID} is set. Since the year and its shape are stored in a single int this is safe to be used by
+	 * multiple threads.
+	 */
+	private int mLastYearShape;
+
 
 	/**
 	 * Create calendar metrics for a Gregorian calendar with the given week numbering.
@@ -58,6 +132,39 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 	public GregorianCalendarMetrics(int weekStart, int minDaysInFirstWeek)
 	{
 		super(weekStart, minDaysInFirstWeek);
+		mWeekNumbering = weekNumbering(weekStart, minDaysInFirstWeek);
+	}
+
+
+	/**
+	 * Returns the week numbering tables for the given week start and minimal number of days in the first week. The tables of all common combinations are
+	 * cached.
+	 * 
+	 * @param weekStart
+	 *            The first day of the week.
+	 * @param minDaysInFirstWeek
+	 *            The minimal number of days in the first week.
+	 * @return The {@link WeekNumbering}.
+	 */
+	private static WeekNumbering weekNumbering(int weekStart, int minDaysInFirstWeek)
+	{
+		if (weekStart < 0 || weekStart > 6 || minDaysInFirstWeek < 1 || minDaysInFirstWeek > 7)
+		{
+			// unusual week numbering, don't cache it
+			return new WeekNumbering(weekStart, minDaysInFirstWeek);
+		}
+
+		int index = weekStart * 8 + minDaysInFirstWeek;
+		synchronized (WEEK_NUMBERINGS)
+		{
+			WeekNumbering result = WEEK_NUMBERINGS[index];
+			if (result == null)
+			{
+				result = new WeekNumbering(weekStart, minDaysInFirstWeek);
+				WEEK_NUMBERINGS[index] = result;
+			}
+			return result;
+		}
 	}
 
 
@@ -106,12 +213,7 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 	@Override
 	public int getWeeksPerYear(int year)
 	{
-		int yd1st = getYearDayOfFirstWeekStart(year);
-		int yearDays = getDaysPerYear(year) - yd1st + 1;
-		int fullweeks = yearDays / 7;
-		int remainingDays = yearDays % 7;
-
-		return 7 - remainingDays >= minDaysInFirstWeek ? fullweeks : fullweeks + 1;
+		return mWeekNumbering.weeksPerYear[getYearShape(year)];
 	}
 
 
@@ -125,30 +227,38 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 	@Override
 	public int getWeekOfYear(int year, int yearDay)
 	{
-		int yd1st = getYearDayOfFirstWeekStart(year);
+		WeekNumbering weekNumbering = mWeekNumbering;
+		int yearShape = getYearShape(year);
+		byte[] weekOfYear = weekNumbering.weekOfYear[yearShape];
 
-		if (yearDay < yd1st)
+		int week;
+		if (yearDay > 0 && yearDay < weekOfYear.length)
 		{
-			// day must be in the last week of the previous year
-			int weeksInYear = getWeeksPerYear(year - 1);
-			return weeksInYear;
+			week = weekOfYear[yearDay];
 		}
 		else
 		{
-			int week = (yearDay - yd1st) / 7 + 1;
-			int weeksInYear = getWeeksPerYear(year);
-
-			return week > weeksInYear ? week - weeksInYear : week;
+			// the day is not in this year, compute the week
+			int yd1st = weekNumbering.yearDayOfFirstWeekStart[yearShape & 7];
+			int weeksInYear = weekNumbering.weeksPerYear[yearShape];
+			week = yearDay < yd1st ? 0 : (yearDay - yd1st) / 7 + 1;
+			week = week > weeksInYear ? week - weeksInYear : week;
 		}
+
+		// 0 means the day is in the last week of the previous year
+		return week == 0 ? getWeeksPerYear(year - 1) : week;
 	}
 
 
 	@Override
 	public int getDayOfWeek(int year, int yearDay)
 	{
-		/* using Gauss's algorithm, see http://en.wikipedia.org/wiki/Calculating_the_day_of_the_week#Gauss.27s_algorithm */
-		int y = year - 1;
-		return (yearDay + 5 * (y & 3) + 4 * (y % 100) + 6 * (y % 400)) % 7;
+		int firstWeekDay = getYearShape(year) & 7;
+		if (yearDay > 0 && yearDay < 367)
+		{
+			return DAY_OF_WEEK[firstWeekDay][yearDay];
+		}
+		return ((firstWeekDay + yearDay - 1) % 7 + 7) % 7;
 	}
 
 
@@ -182,28 +292,65 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 	@Override
 	public int getWeekDayOfFirstYearDay(int year)
 	{
+		return getYearShape(year) & 7;
+	}
+
+
+	/**
+	 * Returns the shape of the given year. The lower three bits contain the week day of the first day of the year, bit 3 is set for leap years.
+	 * 
+	 * @param year
+	 *            The year.
+	 * @return The shape of the year, a value less than {@link #YEAR_SHAPES}.
+	 */
+	private int getYearShape(int year)
+	{
+		int lastYearShape = mLastYearShape;
+		if ((lastYearShape & YEAR_SHAPE_VALID) != 0 && lastYearShape >> 5 == year)
+		{
+			return lastYearShape & 0x0f;
+		}
+
 		/* using Gauss's algorithm, see http://en.wikipedia.org/wiki/Calculating_the_day_of_the_week#Gauss.27s_algorithm */
 		int y = year - 1;
-		return (1 + 5 * (y & 3) + 4 * (y % 100) + 6 * (y % 400)) % 7;
+		int firstWeekDay = ((1 + 5 * (y & 3) + 4 * (y % 100) + 6 * (y % 400)) % 7 + 7) % 7;
+		int yearShape = (isLeapYear(year) ? 8 : 0) | firstWeekDay;
+
+		if (year << 5 >> 5 == year)
+		{
+			mLastYearShape = year << 5 | YEAR_SHAPE_VALID | yearShape;
+		}
+		return yearShape;
 	}
 
 
 	@Override
 	public int getYearDayOfFirstWeekStart(int year)
 	{
-		int jan1stWeekDay = getWeekDayOfFirstYearDay(year);
-
-		int diff = weekStart - jan1stWeekDay;
+		return mWeekNumbering.yearDayOfFirstWeekStart[getYearShape(year) & 7];
+	}
 
-		int yd = 1 + diff;
 
-		return yd > minDaysInFirstWeek ? yd - 7 : yd < minDaysInFirstWeek - 6 ? yd + 7 : yd;
+	@Override
+	public long getEpochDay(int year, int yearDay)
+	{
+		// count the days of full 400 year cycles first, so the remaining leap year calculation works for negative years too
+		int y = year - 1;
+		int cycles = (y >= 0 ? y : y - 399) / 400;
+		int yearOfCycle = y - cycles * 400;
+		return (long) cycles * DAYS_PER_400_YEARS + yearOfCycle * 365 + yearOfCycle / 4 - yearOfCycle / 100 + yearDay - 1 - DAYS_0001_TO_1970;
 	}
 
 
 	@Override
 	public int getMonthOfYearDay(int year, int yearDay)
 	{
+		int leap = isLeapYear(year) ? 1 : 0;
+		if (yearDay > 0 && yearDay <= 365 + leap)
+		{
+			return MONTH_AND_DAY[leap][yearDay] >> 8;
+		}
+
 		int month = (yearDay >> 5) + 1; // get a good estimation for the first month to check
 		if (month < 12 && getYearDaysForMonth(year, month) < yearDay)
 		{
@@ -216,6 +363,11 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 	@Override
 	public int getDayOfMonthOfYearDay(int year, int yearDay)
 	{
+		int leap = isLeapYear(year) ? 1 : 0;
+		if (yearDay > 0 && yearDay <= 365 + leap)
+		{
+			return MONTH_AND_DAY[leap][yearDay] & 0xff;
+		}
 		return yearDay - getYearDaysForMonth(year, getMonthOfYearDay(year, yearDay));
 	}
 
@@ -223,6 +375,12 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 	@Override
 	public int getMonthAndDayOfYearDay(int year, int yearDay)
 	{
+		int leap = isLeapYear(year) ? 1 : 0;
+		if (yearDay > 0 && yearDay <= 365 + leap)
+		{
+			return MONTH_AND_DAY[leap][yearDay];
+		}
+
 		int month = (yearDay >> 5) + 1; // get a good estimation for the first month to check
 		if (month < 12 && getYearDaysForMonth(year, month) < yearDay)
 		{
@@ -233,4 +391,59 @@ public final class GregorianCalendarMetrics extends CalendarMetrics
 		return monthAndDay(month, yearDay - getYearDaysForMonth(year, month));
 	}
 
+
+	/**
+	 * The tables of a specific week numbering, i.e. a specific combination of week start and minimal number of days in the first week.
+	 */
+	private final static class WeekNumbering
+	{
+		/**
+		 * The day of the year that starts the first week by the week day of the first day of the year. This might be less than <code>1</code>, in which case
+		 * the first week starts in the previous year.
+		 */
+		final int[] yearDayOfFirstWeekStart = new int[7];
+
+		/**
+		 * The number of weeks by year shape.
+		 */
+		final int[] weeksPerYear = new int[YEAR_SHAPES];
+
+		/**
+		 * The week number of every day of the year by year shape. <code>0</code> means the day belongs to the last week of the previous year.
+		 */
+		final byte[][] weekOfYear = new byte[YEAR_SHAPES][];
+
+
+		public WeekNumbering(int weekStart, int minDaysInFirstWeek)
+		{
+			for (int firstWeekDay = 0; firstWeekDay < 7; ++firstWeekDay)
+			{
+				int yd = 1 + weekStart - firstWeekDay;
+				yearDayOfFirstWeekStart[firstWeekDay] = yd > minDaysInFirstWeek ? yd - 7 : yd < minDaysInFirstWeek - 6 ? yd + 7 : yd;
+			}
+
+			for (int leap = 0; leap < 2; ++leap)
+			{
+				int yearDays = 365 + leap;
+				for (int firstWeekDay = 0; firstWeekDay < 7; ++firstWeekDay)
+				{
+					int yearShape = leap << 3 | firstWeekDay;
+					int yd1st = yearDayOfFirstWeekStart[firstWeekDay];
+
+					int daysInWeeks = yearDays - yd1st + 1;
+					int weeks = 7 - daysInWeeks % 7 >= minDaysInFirstWeek ? daysInWeeks / 7 : daysInWeeks / 7 + 1;
+					weeksPerYear[yearShape] = weeks;
+
+					byte[] weekOfYearDay = new byte[yearDays + 1];
+					for (int yearDay = Math.max(1, yd1st); yearDay <= yearDays; ++yearDay)
+					{
+						int week = (yearDay - yd1st) / 7 + 1;
+						weekOfYearDay[yearDay] = (byte) (week > weeks ? week - weeks : week);
+					}
+					weekOfYear[yearShape] = weekOfYearDay;
+				}
+			}
+		}
+	}
+
 }
@@ -166,6 +166,12 @@ public final class Instance
 	}
 
 
+	public static long maskTime(long instance)
+	{
+		return (instance & ~(HOUR_MASK | MINUTE_MASK | SECOND_MASK | WEEKDAY_MASK));
+	}
+
+
 	public static int year(long instance)
 	{
 		return (int) ((instance & YEAR_MASK) >> YEAR_POS) - YEAR_BIAS;
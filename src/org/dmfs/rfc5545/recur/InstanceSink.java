@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+/**
+ * Receives the instances of a recurrence rule from {@link RecurrenceRule#forEach(Calendar, long, long, InstanceSink)} or
+ * {@link RecurrenceRule#forEachInstance(Calendar, long, long, InstanceSink)}. The rule drives the iteration and pushes every instance in the requested range
+ * into the sink, so no iterator has to be created and checked for more instances.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public interface InstanceSink
+{
+	/**
+	 * Called once for every instance in the requested range, in the order of the instances.
+	 *
+	 * @param instance
+	 *            The instance, either as a time stamp in milliseconds since the epoch or as a packed {@link Instance}, depending on the method that has been
+	 *            called.
+	 */
+	public void accept(long instance);
+}
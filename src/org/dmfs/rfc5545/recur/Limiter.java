@@ -55,6 +55,13 @@ abstract class Limiter extends RuleIterator
 	}
 
 
+	@Override
+	boolean seek(long instance)
+	{
+		return mPrevious.seek(instance);
+	}
+
+
 	/**
 	 * Returns true if the last instance has been iterated.
 	 * 
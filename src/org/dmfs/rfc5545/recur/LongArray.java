@@ -123,6 +123,26 @@ public final class LongArray
 	}
 
 
+	/**
+	 * Remove all entries at or after the given position. This doesn't change the capacity of the array.
+	 * 
+	 * @param size
+	 *            The new number of entries. Must not be larger than the current number of entries.
+	 */
+	public void truncate(int size)
+	{
+		if (size > mCount)
+		{
+			throw new ArrayIndexOutOfBoundsException("can't truncate " + mCount + " elements to " + size);
+		}
+		mCount = size;
+		if (mPos > size)
+		{
+			mPos = size;
+		}
+	}
+
+
 	/**
 	 * Get the number of entries in the array.
 	 * 
@@ -134,6 +154,52 @@ public final class LongArray
 	}
 
 
+	/**
+	 * Get the value at the given position.
+	 * 
+	 * @param index
+	 *            The position of the value.
+	 * @return The value.
+	 */
+	public long get(int index)
+	{
+		if (index >= mCount)
+		{
+			throw new ArrayIndexOutOfBoundsException("no element at index " + index);
+		}
+		return mLongs[index];
+	}
+
+
+	/**
+	 * Replace the value at the given position.
+	 * 
+	 * @param index
+	 *            The position of the value.
+	 * @param data
+	 *            The new value.
+	 */
+	public void set(int index, long data)
+	{
+		if (index >= mCount)
+		{
+			throw new ArrayIndexOutOfBoundsException("no element at index " + index);
+		}
+		mLongs[index] = data;
+	}
+
+
+	/**
+	 * Returns a copy of all entries in the array.
+	 * 
+	 * @return A new <code>long[]</code> containing all values.
+	 */
+	public long[] toArray()
+	{
+		return Arrays.copyOf(mLongs, mCount);
+	}
+
+
 	/**
 	 * Check if there are more entries to iterate by {@link #next()}.
 	 * 
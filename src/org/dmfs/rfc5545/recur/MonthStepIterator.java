@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import org.dmfs.rfc5545.recur.RecurrenceRule.WeekdayNum;
+
+
+/**
+ * An {@link ArithmeticIterator} for MONTHLY and YEARLY rules. The periods of these rules have a fixed number of months, so the months of the instances are
+ * computed from the number of months since year <code>0</code>. The days of month are either fixed or the n-th occurrence of a week day.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class MonthStepIterator extends ArithmeticIterator
+{
+	/**
+	 * The number of months per period.
+	 */
+	private final int mPeriodMonths;
+
+	/**
+	 * The first month of period <code>0</code>, counting from January of year <code>0</code>.
+	 */
+	private final long mFirstMonth;
+
+	/**
+	 * The months of the instances in a period, counting from the first month of the period.
+	 */
+	private final int[] mMonths;
+
+	/**
+	 * The days of month of the instances in a period. Negative days count from the end of the month. If {@link #mWeekday} is not negative this is the position
+	 * of the week day in the month instead.
+	 */
+	private final int[] mDays;
+
+	/**
+	 * The week day of the instances (with Sunday being <code>0</code>) or <code>-1</code> if the instances recur on fixed days of month.
+	 */
+	private final int mWeekday;
+
+	/**
+	 * The time of all instances.
+	 */
+	private final int mHour;
+	private final int mMinute;
+	private final int mSecond;
+
+
+	/**
+	 * Creates an iterator for a MONTHLY or YEARLY rule.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} to use.
+	 * @param start
+	 *            The first instance.
+	 * @param periodMonths
+	 *            The number of months per period.
+	 * @param months
+	 *            The sorted months of a YEARLY rule with a BYMONTH part (with January being <code>1</code>) or <code>null</code> to recur in the month of the
+	 *            start only.
+	 * @param days
+	 *            The sorted days of month that exist in all of the months or <code>null</code> if <code>weekday</code> is given.
+	 * @param weekday
+	 *            The week day with a position of a MONTHLY rule or <code>null</code>.
+	 */
+	MonthStepIterator(RecurrenceRule rule, CalendarMetrics calendarMetrics, Calendar start, int periodMonths, int[] months, int[] days, WeekdayNum weekday)
+	{
+		super(rule, calendarMetrics, start, (months == null ? 1 : months.length) * (days == null ? 1 : days.length));
+		mPeriodMonths = periodMonths;
+		mHour = start.get(Calendar.HOUR_OF_DAY);
+		mMinute = start.get(Calendar.MINUTE);
+		mSecond = start.get(Calendar.SECOND);
+
+		int startYear = Instance.year(mStart);
+		int startMonth = Instance.month(mStart);
+
+		if (weekday != null)
+		{
+			mWeekday = weekday.weekday.ordinal();
+			days = new int[] { weekday.pos };
+		}
+		else
+		{
+			mWeekday = -1;
+		}
+
+		if (months == null)
+		{
+			mFirstMonth = startYear * 12L + startMonth;
+			mMonths = new int[days.length];
+			mDays = days;
+		}
+		else
+		{
+			// the periods start in January
+			mFirstMonth = startYear * 12L;
+			mMonths = new int[months.length * days.length];
+			mDays = new int[mMonths.length];
+			for (int i = 0, index = 0; i < months.length; ++i)
+			{
+				for (int day : days)
+				{
+					mMonths[index] = months[i] - 1;
+					mDays[index] = day;
+					++index;
+				}
+			}
+		}
+	}
+
+
+	@Override
+	long instance(long period, int index)
+	{
+		long monthIndex = mFirstMonth + period * mPeriodMonths + mMonths[index];
+		int year = (int) StaticUtils.floorDiv(monthIndex, 12);
+		int month = (int) (monthIndex - year * 12L);
+		int day = mDays[index];
+
+		if (mWeekday >= 0)
+		{
+			int firstWeekday = mCalendarMetrics.getDayOfWeek(year, month, 1);
+			if (day > 0)
+			{
+				day = (mWeekday - firstWeekday + 7) % 7 + 1 + (day - 1) * 7;
+			}
+			else
+			{
+				int monthDays = mCalendarMetrics.getDaysPerMonth(year, month);
+				int lastWeekday = (firstWeekday + monthDays - 1) % 7;
+				day = monthDays - (lastWeekday - mWeekday + 7) % 7 + (day + 1) * 7;
+			}
+		}
+		else if (day < 0)
+		{
+			day += mCalendarMetrics.getDaysPerMonth(year, month) + 1;
+		}
+
+		return Instance.make(year, month, day, mHour, mMinute, mSecond);
+	}
+
+
+	@Override
+	long period(long instance)
+	{
+		return StaticUtils.floorDiv(Instance.year(instance) * 12L + Instance.month(instance) - mFirstMonth, mPeriodMonths);
+	}
+}
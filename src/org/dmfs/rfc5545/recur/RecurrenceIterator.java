@@ -17,6 +17,9 @@
 
 package org.dmfs.rfc5545.recur;
 
+import java.util.TimeZone;
+
+
 /**
  * An iterator for recurrence rules.
  * <p>
@@ -29,14 +32,21 @@ package org.dmfs.rfc5545.recur;
 public final class RecurrenceIterator
 {
 	/**
-	 * The previous iterator instance. This is <code>null</code> for the {@link FreqIterator}.
+	 * The last {@link RuleIterator} in the chain of iterators.
+	 */
+	private RuleIterator mRuleIterator;
+
+	/**
+	 * The {@link RuleTemplate} this iterator has been created from or <code>null</code> if it has been created by a {@link RecurrenceRule}.
 	 */
-	private final RuleIterator mRuleIterator;
+	private final RuleTemplate mTemplate;
 
 	/**
-	 * The first event to iterate;
+	 * Whether the first instance is an all-day or a floating date and its time zone.
 	 */
-	private Calendar mStart;
+	private boolean mAllDay;
+	private boolean mFloating;
+	private TimeZone mTimeZone;
 
 	/**
 	 * The upcoming instance, if any.
@@ -44,9 +54,31 @@ public final class RecurrenceIterator
 	private long mNextInstance = Long.MIN_VALUE;
 
 	/**
-	 * A helper for date calculations.
+	 * A helper for date calculations. It's in the time zone of the start date (or UTC if the start date is floating or all-day). Most iterators never need
+	 * it, so it's created on demand, see {@link #helper()}.
 	 */
-	private final Calendar mHelper = new Calendar(Calendar.UTC, 2000, 0, 1, 0, 0, 0);
+	private Calendar mHelper;
+
+	/**
+	 * The transition table of the time zone of the start date. This is <code>null</code> if the start date is floating or all-day.
+	 */
+	private TimeZoneTransitions mTimeZoneTransitions;
+
+	/**
+	 * The index of the offset used in the last conversion. This is a hint for the next conversion.
+	 */
+	private int mTransitionIndex = -1;
+
+	/**
+	 * The {@link CalendarMetrics} to use for date calculations.
+	 */
+	private final CalendarMetrics mCalendarMetrics;
+
+	/**
+	 * The first year that {@link java.util.GregorianCalendar} treats as a Gregorian year. All preceding years are converted by {@link #mHelper} to stay
+	 * compatible with the results of {@link #nextCalendar()}.
+	 */
+	private final static int GREGORIAN_CUTOVER_YEAR = 1583;
 
 
 	/**
@@ -56,12 +88,105 @@ public final class RecurrenceIterator
 	 *            The last {@link RuleIterator} in the chain of iterators.
 	 * @param start
 	 *            The first instance to iterate.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} of the rule.
 	 */
-	RecurrenceIterator(RuleIterator ruleIterator, Calendar start)
+	RecurrenceIterator(RuleIterator ruleIterator, Calendar start, CalendarMetrics calendarMetrics)
+	{
+		this(ruleIterator, start, calendarMetrics, null);
+	}
+
+
+	/**
+	 * Creates a new {@link RecurrenceIterator} that gets its input from <code>ruleIterator</code> and that can be reset by means of the given
+	 * {@link RuleTemplate}.
+	 * 
+	 * @param ruleIterator
+	 *            The last {@link RuleIterator} in the chain of iterators.
+	 * @param start
+	 *            The first instance to iterate.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} of the rule.
+	 * @param template
+	 *            The {@link RuleTemplate} that has created the chain of iterators or <code>null</code>.
+	 */
+	RecurrenceIterator(RuleIterator ruleIterator, Calendar start, CalendarMetrics calendarMetrics, RuleTemplate template)
 	{
 		mRuleIterator = ruleIterator;
-		mStart = start.clone();
+		mCalendarMetrics = calendarMetrics;
+		mTemplate = template;
+		setStart(start);
+	}
 
+
+	/**
+	 * Restarts this iterator at the given start date. This is much cheaper than creating a new iterator, since all the tables of the rule are reused.
+	 * <p>
+	 * <strong>Note:</strong> Only iterators that have been returned by {@link RuleTemplate#cursor(Calendar)} can be reset.
+	 * </p>
+	 * 
+	 * @param start
+	 *            The new first instance.
+	 * @throws UnsupportedOperationException
+	 *             if this iterator has not been created by a {@link RuleTemplate}.
+	 */
+	public void reset(Calendar start)
+	{
+		if (mTemplate == null)
+		{
+			throw new UnsupportedOperationException("only iterators of a RuleTemplate can be reset");
+		}
+		mRuleIterator = mTemplate.getRuleIterator(start, true);
+		mNextInstance = Long.MIN_VALUE;
+		setStart(start);
+	}
+
+
+	/**
+	 * Takes the time zone and the all-day flag of the given start date. The helpers of the previous time zone are dropped if the time zone has changed.
+	 * 
+	 * @param start
+	 *            The first instance.
+	 */
+	private void setStart(Calendar start)
+	{
+		boolean allDay = start.isAllDay();
+		boolean floating = start.isFloating();
+		TimeZone timeZone = floating || allDay ? null : start.getTimeZone();
+
+		if (mHelper != null && !(mTimeZone == null ? timeZone == null : mTimeZone.equals(timeZone)))
+		{
+			mHelper = null;
+		}
+		if (timeZone == null)
+		{
+			mTimeZoneTransitions = null;
+		}
+		else if (mTimeZoneTransitions == null || !mTimeZone.equals(timeZone))
+		{
+			mTimeZoneTransitions = TimeZoneTransitions.get(timeZone);
+			mTransitionIndex = -1;
+		}
+
+		mAllDay = allDay;
+		mFloating = floating;
+		mTimeZone = timeZone;
+	}
+
+
+	/**
+	 * Returns the helper for date calculations, see {@link #mHelper}.
+	 * 
+	 * @return A {@link Calendar}.
+	 */
+	private Calendar helper()
+	{
+		Calendar helper = mHelper;
+		if (helper == null)
+		{
+			helper = mHelper = new Calendar(mTimeZone == null ? Calendar.UTC : mTimeZone, 2000, 0, 1, 0, 0, 0);
+		}
+		return helper;
 	}
 
 
@@ -86,10 +211,7 @@ public final class RecurrenceIterator
 			mNextInstance = Long.MIN_VALUE;
 		}
 
-		mHelper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
-			Instance.second(instance));
-
-		return mHelper.getTimeInMillis();
+		return toMillis(instance);
 	}
 
 
@@ -114,18 +236,19 @@ public final class RecurrenceIterator
 			mNextInstance = Long.MIN_VALUE;
 		}
 
-		mHelper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
+		Calendar helper = helper();
+		helper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
 			Instance.second(instance));
 
-		Calendar result = mHelper.clone();
+		Calendar result = helper.clone();
 
-		if (mStart.isAllDay())
+		if (mAllDay)
 		{
 			result.toAllDay();
 		}
 		else
 		{
-			result.setTimeZone(mStart.isFloating() ? null : mStart.getTimeZone());
+			result.setTimeZone(mFloating ? null : mTimeZone);
 		}
 
 		return result;
@@ -157,10 +280,7 @@ public final class RecurrenceIterator
 			}
 		}
 
-		mHelper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
-			Instance.second(instance));
-
-		return mHelper.getTimeInMillis();
+		return toMillis(instance);
 	}
 
 
@@ -183,18 +303,19 @@ public final class RecurrenceIterator
 			}
 		}
 
-		mHelper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
+		Calendar helper = helper();
+		helper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
 			Instance.second(instance));
 
-		Calendar result = mHelper.clone();
+		Calendar result = helper.clone();
 
-		if (mStart.isAllDay())
+		if (mAllDay)
 		{
 			result.isAllDay();
 		}
 		else
 		{
-			result.setTimeZone(mStart.isFloating() ? null : mStart.getTimeZone());
+			result.setTimeZone(mFloating ? null : mTimeZone);
 		}
 
 		return result;
@@ -218,9 +339,9 @@ public final class RecurrenceIterator
 			--skip;
 			mNextInstance = Long.MIN_VALUE;
 		}
-		while (skip > 0 && mRuleIterator.next() != Long.MIN_VALUE)
+		if (skip > 0)
 		{
-			--skip;
+			mRuleIterator.skip(skip);
 		}
 	}
 
@@ -234,35 +355,215 @@ public final class RecurrenceIterator
 	 * 
 	 * @param until
 	 *            The time stamp of earliest date to be returned by the next call to {@link #next()}.
+	 * @see #fastForward(long)
 	 */
 	public void skip(long until)
 	{
-		if (!hasNext())
+		fastForward(until);
+	}
+
+
+	/**
+	 * Skip all instances up to a specific date.
+	 * <p>
+	 * <strong>Note:</strong> After calling this method you should call {@link #hasNext()} before you continue because there might no more instances left if
+	 * there is an UNTIL or COUNT part in the rule.
+	 * </p>
+	 * 
+	 * @param until
+	 *            The earliest date to be returned by the next call to {@link #next()}.
+	 * @see #fastForward(Calendar)
+	 */
+	public void skip(Calendar until)
+	{
+		fastForward(until.getTimeInMillis());
+	}
+
+
+	/**
+	 * Fast forward to a specific date. This skips all instances up to the given date. In contrast to iterating the instances one by one this method skips
+	 * whole intervals of the rule without calculating the instances in between. That makes it cheap to get the instances of a specific period even if the
+	 * rule started a long time ago.
+	 * <p>
+	 * Rules with a COUNT part usually can't skip intervals, since every single instance must be counted. This method still works for them, but it's not faster
+	 * than iterating the instances. Only simple rules that have the same number of instances in every interval can skip them anyway.
+	 * </p>
+	 * <p>
+	 * <strong>Note:</strong> After calling this method you should call {@link #hasNext()} before you continue because there might no more instances left if
+	 * there is an UNTIL or COUNT part in the rule.
+	 * </p>
+	 * 
+	 * @param until
+	 *            The time stamp of earliest date to be returned by the next call to {@link #nextMillis()} or {@link #nextCalendar()}.
+	 */
+	public void fastForward(long until)
+	{
+		if (!hasNext() || toMillis(mNextInstance) >= until)
 		{
+			// nothing to skip
 			return;
 		}
 
-		long next = peekMillis();
-		while (hasNext() && next < until)
+		// the upcoming instance precedes until, drop it
+		mNextInstance = Long.MIN_VALUE;
+
+		mRuleIterator.seek(earliestInstance(until));
+
+		// skip any remaining instances
+		while (hasNext() && toMillis(mNextInstance) < until)
 		{
-			skip(1);
-			next = peekMillis();
+			mNextInstance = Long.MIN_VALUE;
 		}
 	}
 
 
 	/**
-	 * Skip all instances up to a specific date.
+	 * Fast forward to a specific date. This skips all instances up to the given date.
 	 * <p>
 	 * <strong>Note:</strong> After calling this method you should call {@link #hasNext()} before you continue because there might no more instances left if
 	 * there is an UNTIL or COUNT part in the rule.
 	 * </p>
 	 * 
 	 * @param until
-	 *            The earliest date to be returned by the next call to {@link #next()}.
+	 *            The earliest date to be returned by the next call to {@link #nextMillis()} or {@link #nextCalendar()}.
+	 * @see #fastForward(long)
 	 */
-	public void skip(Calendar until)
+	public void fastForward(Calendar until)
+	{
+		fastForward(until.getTimeInMillis());
+	}
+
+
+	/**
+	 * Pushes the time stamps of all remaining instances before the given time stamp into the given {@link InstanceSink}. The iteration stops at the first
+	 * instance that doesn't precede <code>toMillis</code>, which is consumed too.
+	 * 
+	 * @param toMillis
+	 *            The end of the range in milliseconds since the epoch (exclusive).
+	 * @param sink
+	 *            The {@link InstanceSink} that gets the time stamps.
+	 */
+	void forEach(long toMillis, InstanceSink sink)
+	{
+		long instance = mNextInstance;
+		mNextInstance = Long.MIN_VALUE;
+		if (instance == Long.MIN_VALUE)
+		{
+			instance = mRuleIterator.next();
+		}
+
+		RuleIterator ruleIterator = mRuleIterator;
+		while (instance != Long.MIN_VALUE)
+		{
+			long millis = toMillis(instance);
+			if (millis >= toMillis)
+			{
+				return;
+			}
+			sink.accept(millis);
+			instance = ruleIterator.next();
+		}
+	}
+
+
+	/**
+	 * Returns the time stamp of the given instance.
+	 * 
+	 * @param instance
+	 *            The instance.
+	 * @return The time stamp in milliseconds since the epoch.
+	 */
+	long toMillis(long instance)
+	{
+		if (Instance.year(instance) >= GREGORIAN_CUTOVER_YEAR)
+		{
+			long localMillis = mCalendarMetrics.toMillis(instance);
+			TimeZoneTransitions timeZoneTransitions = mTimeZoneTransitions;
+			if (timeZoneTransitions == null)
+			{
+				return localMillis;
+			}
+			if (timeZoneTransitions.covers(localMillis))
+			{
+				int index = mTransitionIndex = timeZoneTransitions.indexOf(localMillis, mTransitionIndex);
+				return localMillis - timeZoneTransitions.getOffset(index);
+			}
+		}
+
+		Calendar helper = helper();
+		helper.set(Instance.year(instance), Instance.month(instance), Instance.dayOfMonth(instance), Instance.hour(instance), Instance.minute(instance),
+			Instance.second(instance));
+		return helper.getTimeInMillis();
+	}
+
+
+	/**
+	 * Replaces all instances in the given {@link LongArray} by their time stamps. For a series of consecutive instances this is faster than converting each
+	 * instance by {@link #toMillis(long)}, because the time zone offset of the previous instance is usually valid for the next one too.
+	 * 
+	 * @param instances
+	 *            The {@link LongArray} of instances to convert.
+	 */
+	void toMillis(LongArray instances)
+	{
+		CalendarMetrics calendarMetrics = mCalendarMetrics;
+		TimeZoneTransitions timeZoneTransitions = mTimeZoneTransitions;
+		int index = mTransitionIndex;
+
+		for (int i = 0, count = instances.size(); i < count; ++i)
+		{
+			long instance = instances.get(i);
+			if (Instance.year(instance) >= GREGORIAN_CUTOVER_YEAR)
+			{
+				long localMillis = calendarMetrics.toMillis(instance);
+				if (timeZoneTransitions == null)
+				{
+					instances.set(i, localMillis);
+					continue;
+				}
+				if (timeZoneTransitions.covers(localMillis))
+				{
+					index = timeZoneTransitions.indexOf(localMillis, index);
+					instances.set(i, localMillis - timeZoneTransitions.getOffset(index));
+					continue;
+				}
+			}
+			instances.set(i, toMillis(instance));
+		}
+		mTransitionIndex = index;
+	}
+
+
+	/**
+	 * Returns the earliest instance that might have a time stamp not before the given time stamp. Instances in periods that are skipped by a time zone
+	 * transition are converted using the previous offset, so they may get a later time stamp than a later instance. This returns an instance early enough to
+	 * take that into account.
+	 * 
+	 * @param millis
+	 *            The time stamp in milliseconds since the epoch.
+	 * @return The instance.
+	 */
+	long earliestInstance(long millis)
+	{
+		TimeZoneTransitions timeZoneTransitions = mTimeZoneTransitions;
+		return toInstance(timeZoneTransitions == null ? millis : millis - timeZoneTransitions.getMaxOffsetChange());
+	}
+
+
+	/**
+	 * Returns the instance of the given time stamp. Milliseconds are truncated, since instances don't have any.
+	 * 
+	 * @param millis
+	 *            The time stamp in milliseconds since the epoch.
+	 * @return The instance.
+	 */
+	long toInstance(long millis)
 	{
-		skip(until.getTimeInMillis());
+		Calendar helper = helper();
+		helper.setTimeInMillis(millis);
+		long instance = Instance.makeFast(helper);
+		// make sure we don't leak the milliseconds into the results of toMillis
+		helper.set(Calendar.MILLISECOND, 0);
+		return instance;
 	}
 }
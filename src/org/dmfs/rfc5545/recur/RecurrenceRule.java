@@ -21,8 +21,10 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -482,6 +484,17 @@ public final class RecurrenceRule
 	 */
 	private EnumMap<Part, Object> mParts = new EnumMap<Part, Object>(Part.class);
 
+	/**
+	 * The sorted values of all integer BYxxx parts. This is only set for rules that have been compiled into a {@link RuleTemplate}, which are never modified.
+	 * See {@link #getSortedByPart(Part)}.
+	 */
+	private EnumMap<Part, int[]> mSortedParts;
+
+	/**
+	 * The rule that's iterated instead of this one, see {@link #optimized()}. It's dropped whenever a part of this rule is modified.
+	 */
+	private RecurrenceRule mOptimized;
+
 	/**
 	 * The first instance to iterate, if any.
 	 */
@@ -556,6 +569,53 @@ public final class RecurrenceRule
 	}
 
 
+	/**
+	 * Create a copy of the given recurrence rule. The copy doesn't have a start date.
+	 * 
+	 * @param rule
+	 *            The {@link RecurrenceRule} to copy.
+	 */
+	RecurrenceRule(RecurrenceRule rule)
+	{
+		this.mode = rule.mode;
+		mParts.putAll(rule.mParts);
+	}
+
+
+	/**
+	 * Returns a copy of this rule that doesn't share any mutable values with this rule and that has all BYxxx parts sorted in advance. The copy must never be
+	 * modified, so it can be used by multiple threads at a time.
+	 * 
+	 * @return A new {@link RecurrenceRule}.
+	 */
+	RecurrenceRule frozenCopy()
+	{
+		RecurrenceRule result = new RecurrenceRule(this);
+		EnumMap<Part, int[]> sortedParts = new EnumMap<Part, int[]>(Part.class);
+		for (Map.Entry<Part, Object> entry : result.mParts.entrySet())
+		{
+			Object value = entry.getValue();
+			if (value instanceof List)
+			{
+				entry.setValue(Collections.unmodifiableList(new ArrayList<Object>((List<?>) value)));
+				if (entry.getKey() != Part.BYDAY)
+				{
+					sortedParts.put(entry.getKey(), StaticUtils.ListToSortedArray(result.getByPart(entry.getKey())));
+				}
+			}
+			else if (value instanceof Calendar)
+			{
+				Calendar until = ((Calendar) value).clone();
+				// compute all fields now, so reading them later doesn't modify the calendar
+				until.get(Calendar.YEAR);
+				entry.setValue(until);
+			}
+		}
+		result.mSortedParts = sortedParts;
+		return result;
+	}
+
+
 	/**
 	 * Parse the given recurrence rule and populate {@link #mParts}. This method is tolerant in a way that it just drops invalid parts not allowed in the
 	 * current {@link RfcMode}. Also, it doesn't require FREQ to be the first part (that's required in <a
@@ -880,6 +940,7 @@ public final class RecurrenceRule
 	 */
 	public void setFreq(Freq freq, boolean silent)
 	{
+		mOptimized = null;
 		mParts.put(Part.FREQ, freq);
 
 		if (mode == RfcMode.RFC5545_STRICT || mode == RfcMode.RFC5545_LAX)
@@ -914,6 +975,7 @@ public final class RecurrenceRule
 	 */
 	public void setInterval(int interval)
 	{
+		mOptimized = null;
 		if (interval > 1)
 		{
 			mParts.put(Part.INTERVAL, interval);
@@ -951,6 +1013,7 @@ public final class RecurrenceRule
 	 */
 	public void setUntil(Calendar until)
 	{
+		mOptimized = null;
 		if (until == null)
 		{
 			mParts.remove(Part.UNTIL);
@@ -987,6 +1050,7 @@ public final class RecurrenceRule
 	 */
 	public void setCount(int count)
 	{
+		mOptimized = null;
 		mParts.put(Part.COUNT, count);
 		mParts.remove(Part.UNTIL);
 	}
@@ -1047,6 +1111,21 @@ public final class RecurrenceRule
 	}
 
 
+	/**
+	 * Returns the values of a specific by-rule as a sorted array. The arrays of compiled rules are computed in advance, so the caller must not modify the
+	 * result.
+	 * 
+	 * @param part
+	 *            The by-rule to return, see {@link #getByPart(Part)}.
+	 * @return A sorted array of the values or <code>null</code> if the rule doesn't contain the part.
+	 */
+	int[] getSortedByPart(Part part)
+	{
+		EnumMap<Part, int[]> sortedParts = mSortedParts;
+		return sortedParts != null ? sortedParts.get(part) : StaticUtils.ListToSortedArray(getByPart(part));
+	}
+
+
 	/**
 	 * Set a specific by-rule. <code>part</code> may be one of {@link Part#BYSECOND}, {@link Part#BYMINUTE}, {@link Part#BYHOUR}, {@link Part#BYMONTHDAY},
 	 * {@link Part#BYYEARDAY}, {@link Part#BYWEEKNO}, {@link Part#BYMONTH}, or {@link Part#BYSETPOS}.
@@ -1063,6 +1142,7 @@ public final class RecurrenceRule
 	 */
 	public void setByPart(Part part, List<Integer> value) throws InvalidRecurrenceRuleException
 	{
+		mOptimized = null;
 		if (value == null || value.size() == 0)
 		{
 			mParts.remove(part);
@@ -1105,6 +1185,7 @@ public final class RecurrenceRule
 	 */
 	public void setByPart(Part part, Integer... values) throws InvalidRecurrenceRuleException
 	{
+		mOptimized = null;
 		if (values == null || values.length == 0)
 		{
 			mParts.remove(part);
@@ -1122,6 +1203,7 @@ public final class RecurrenceRule
 	 */
 	public void setByDayPart(List<WeekdayNum> value)
 	{
+		mOptimized = null;
 		if (value == null || value.size() == 0)
 		{
 			mParts.remove(Part.BYDAY);
@@ -1131,6 +1213,19 @@ public final class RecurrenceRule
 	}
 
 
+	/**
+	 * Remove a part from this rule.
+	 * 
+	 * @param part
+	 *            The {@link Part} to remove.
+	 */
+	void removePart(Part part)
+	{
+		mOptimized = null;
+		mParts.remove(part);
+	}
+
+
 	/**
 	 * Return the value of the BYDAY part of the rule if there is any.
 	 * 
@@ -1164,6 +1259,7 @@ public final class RecurrenceRule
 	 */
 	public void setWeekStart(Weekday wkst)
 	{
+		mOptimized = null;
 		if (wkst == Weekday.MO)
 		{
 			// Monday is the default, so just remove the part
@@ -1212,6 +1308,252 @@ public final class RecurrenceRule
 	 * @return A {@link RuleIterator}.
 	 */
 	public RecurrenceIterator iterator(Calendar start)
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(getWeekStart().ordinal(), 4);
+		return new RecurrenceIterator(optimized().getRuleIterator(start, calendarMetrics, true), start, calendarMetrics);
+	}
+
+
+	/**
+	 * Compiles this rule into a {@link RuleTemplate}. The template takes a snapshot of this rule and does all the work that doesn't depend on the start date
+	 * only once, so it's much cheaper to iterate the same rule for many different start dates by means of a template.
+	 * <p>
+	 * Later changes to this rule don't affect the template.
+	 * </p>
+	 * 
+	 * @return A {@link RuleTemplate} for this rule.
+	 */
+	public RuleTemplate compile()
+	{
+		return new RuleTemplate(this);
+	}
+
+
+	/**
+	 * Returns the rule that's iterated instead of this one. It returns the same instances, but it's cheaper to iterate, see {@link RuleOptimizer}. The rule is
+	 * optimized once and kept until a part of this rule is modified.
+	 * 
+	 * @return The optimized {@link RecurrenceRule}, which may be this rule itself. The caller must not modify it.
+	 */
+	RecurrenceRule optimized()
+	{
+		RecurrenceRule optimized = mOptimized;
+		if (optimized == null)
+		{
+			optimized = mOptimized = RuleOptimizer.optimize(this);
+		}
+		return optimized;
+	}
+
+
+	/**
+	 * Returns the instances of this rule in the given time range.
+	 * <p>
+	 * This is much faster than iterating all instances up to the end of the range, because all intervals preceding the range are skipped. A rule with a COUNT
+	 * part usually can't skip anything, since every instance preceding the range has to be counted. In that case the instances are counted set by set without
+	 * converting them into time stamps, so only instances in the given range are actually materialized. Simple rules that have the same number of instances
+	 * in every interval are skipped even with a COUNT part.
+	 * </p>
+	 * <p>
+	 * <strong>Note:</strong> if an UNTIL part is present and it's value is a floating time then start must be floating as well and vice versa. The same applies
+	 * if the UNTIL value is an all-day value
+	 * </p>
+	 * 
+	 * @param start
+	 *            The first instance.
+	 * @param fromMillis
+	 *            The start of the range in milliseconds since the epoch (inclusive).
+	 * @param toMillis
+	 *            The end of the range in milliseconds since the epoch (exclusive).
+	 * @return An array of the time stamps of all instances in the given range, in the order of iteration.
+	 * @see #forEach(Calendar, long, long, InstanceSink)
+	 */
+	public long[] instancesBetween(Calendar start, long fromMillis, long toMillis)
+	{
+		final LongArray result = new LongArray();
+		forEach(start, fromMillis, toMillis, new InstanceSink()
+		{
+			@Override
+			public void accept(long instance)
+			{
+				result.add(instance);
+			}
+		});
+		return result.toArray();
+	}
+
+
+	/**
+	 * Pushes the time stamps of all instances of this rule in the given time range into the given {@link InstanceSink}. This works like
+	 * {@link #instancesBetween(Calendar, long, long)}, but it doesn't collect the instances and it stops right at the end of the range.
+	 * <p>
+	 * <strong>Note:</strong> if an UNTIL part is present and it's value is a floating time then start must be floating as well and vice versa. The same applies
+	 * if the UNTIL value is an all-day value
+	 * </p>
+	 * 
+	 * @param start
+	 *            The first instance.
+	 * @param fromMillis
+	 *            The start of the range in milliseconds since the epoch (inclusive).
+	 * @param toMillis
+	 *            The end of the range in milliseconds since the epoch (exclusive).
+	 * @param sink
+	 *            The {@link InstanceSink} that gets the time stamps of the instances, in the order of iteration.
+	 */
+	public void forEach(Calendar start, long fromMillis, long toMillis, InstanceSink sink)
+	{
+		Integer count = getCount();
+
+		if (count == null || hasPart(Part.UNTIL))
+		{
+			// not limited by count, so just fast forward to the range
+			RecurrenceIterator iterator = iterator(start);
+			iterator.fastForward(fromMillis);
+			iterator.forEach(toMillis, sink);
+			return;
+		}
+
+		// iterate without CountLimiter and count the instances ourselves
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(getWeekStart().ordinal(), 4);
+		RuleIterator ruleIterator = optimized().getRuleIterator(start, calendarMetrics, false);
+		RecurrenceIterator converter = new RecurrenceIterator(ruleIterator, start, calendarMetrics);
+		if (ruleIterator instanceof ArithmeticIterator)
+		{
+			// this one counts the instances itself and still fast forwards
+			converter.fastForward(fromMillis);
+			converter.forEach(toMillis, sink);
+			return;
+		}
+
+		long fromInstance = converter.earliestInstance(fromMillis);
+		LongArray candidates = new LongArray();
+		int remaining = count;
+		while (remaining > 0)
+		{
+			LongArray set = ruleIterator.nextSet();
+			candidates.clear();
+			while (set.hasNext() && remaining > 0)
+			{
+				long instance = set.next();
+				--remaining;
+
+				// instances preceding the range are just counted
+				if (Instance.maskWeekday(instance) >= fromInstance)
+				{
+					candidates.add(instance);
+				}
+			}
+
+			// convert all candidates of this set at once
+			converter.toMillis(candidates);
+			while (candidates.hasNext())
+			{
+				long millis = candidates.next();
+				if (millis >= toMillis)
+				{
+					return;
+				}
+				if (millis >= fromMillis)
+				{
+					sink.accept(millis);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Pushes all instances of this rule in the given range into the given {@link InstanceSink} as packed {@link Instance}s. The instances and the range are
+	 * in the local time of <code>start</code>, so nothing is converted into time stamps. That makes this the fastest way to get the instances of a rule, for
+	 * instance if the caller just needs the dates or if it converts them by itself.
+	 * <p>
+	 * The instances passed to the sink don't have a day of week.
+	 * </p>
+	 * <p>
+	 * <strong>Note:</strong> if an UNTIL part is present and it's value is a floating time then start must be floating as well and vice versa. The same applies
+	 * if the UNTIL value is an all-day value
+	 * </p>
+	 * 
+	 * @param start
+	 *            The first instance.
+	 * @param fromInstance
+	 *            The start of the range as a packed {@link Instance} (inclusive).
+	 * @param toInstance
+	 *            The end of the range as a packed {@link Instance} (exclusive).
+	 * @param sink
+	 *            The {@link InstanceSink} that gets the instances, in the order of iteration.
+	 */
+	public void forEachInstance(Calendar start, long fromInstance, long toInstance, InstanceSink sink)
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(getWeekStart().ordinal(), 4);
+		RuleIterator ruleIterator = optimized().getRuleIterator(start, calendarMetrics, true);
+		long from = Instance.maskWeekday(fromInstance);
+		long to = Instance.maskWeekday(toInstance);
+
+		long instance = ruleIterator.next();
+		if (instance != Long.MIN_VALUE && Instance.maskWeekday(instance) < from)
+		{
+			// skip the intervals preceding the range, any remaining instances preceding the range are dropped below
+			ruleIterator.seek(from);
+			instance = ruleIterator.next();
+		}
+
+		// the instances are strictly increasing, so the first instance after the range ends the iteration
+		while (instance != Long.MIN_VALUE)
+		{
+			long next = Instance.maskWeekday(instance);
+			if (next >= to)
+			{
+				return;
+			}
+			if (next >= from)
+			{
+				sink.accept(next);
+			}
+			instance = ruleIterator.next();
+		}
+	}
+
+
+	/**
+	 * Build the chain of {@link RuleIterator}s for this rule.
+	 * 
+	 * @param start
+	 *            The first instance.
+	 * @param calendarTools
+	 *            The {@link CalendarMetrics} to use.
+	 * @param limitCount
+	 *            <code>false</code> to omit the {@link CountLimiter}, in which case the caller is responsible for counting the instances.
+	 * @return The last {@link RuleIterator} in the chain.
+	 */
+	private RuleIterator getRuleIterator(Calendar start, CalendarMetrics calendarTools, boolean limitCount)
+	{
+		return getRuleIterator(start, calendarTools, limitCount, null, false, false);
+	}
+
+
+	/**
+	 * Build the chain of {@link RuleIterator}s for this rule, optionally sharing the year shapes of a {@link DayMaskIterator} with other chains of this rule.
+	 * 
+	 * @param start
+	 *            The first instance.
+	 * @param calendarTools
+	 *            The {@link CalendarMetrics} to use.
+	 * @param limitCount
+	 *            <code>false</code> to omit the {@link CountLimiter}, in which case the caller is responsible for counting the instances. An
+	 *            {@link ArithmeticIterator} applies the COUNT part anyway.
+	 * @param yearShapes
+	 *            The cache of year shapes to pass to a {@link DayMaskIterator} or <code>null</code>.
+	 * @param preferDayMasks
+	 *            <code>true</code> to use a {@link DayMaskIterator} whenever it supports this rule and returns the same instances as the filters, even if
+	 *            it's not expected to be faster for a single chain.
+	 * @param filtersOnly
+	 *            <code>true</code> to build the plain chain of the {@link FreqIterator} and the BYxxx filters, without an {@link ArithmeticIterator} or a
+	 *            {@link DayMaskIterator}. All other chains must return the same instances as this one.
+	 * @return The last {@link RuleIterator} in the chain.
+	 */
+	RuleIterator getRuleIterator(Calendar start, CalendarMetrics calendarTools, boolean limitCount, DayMaskIterator.YearShape[] yearShapes,
+		boolean preferDayMasks, boolean filtersOnly)
 	{
 		Calendar until = getUntil();
 		if (until != null)
@@ -1226,13 +1568,57 @@ public final class RecurrenceRule
 			}
 		}
 
-		CalendarMetrics calendarTools = new GregorianCalendarMetrics(getWeekStart().ordinal(), 4);
+		/*
+		 * The most common rule shapes are computed arithmetically. The ArithmeticIterator replaces the whole chain except for the UntilLimiter and it always
+		 * applies the COUNT part, since it doesn't have to iterate the instances to count them.
+		 */
+		ArithmeticIterator arithmeticIterator = filtersOnly ? null : ArithmeticIterator.get(this, calendarTools, start);
+		if (arithmeticIterator != null)
+		{
+			return until == null ? arithmeticIterator : new UntilLimiter(this, arithmeticIterator, start);
+		}
+
 		boolean sanityFilterAdded = false;
 		RuleIterator iterator = null;
 
+		/*
+		 * YEARLY and MONTHLY rules that would make the filters build and drop lots of intermediate instances are expanded by day masks. The DayMaskIterator
+		 * replaces the FreqIterator and all BYxxx filters (including BYSETPOS). Rules it would iterate differently (like rules with duplicate values) are left
+		 * to the filters. Rules with a large INTERVAL may run out of instances long before the filters notice, so they use the day masks too.
+		 */
+		boolean dayMasks = !filtersOnly && DayMaskIterator.supports(this, calendarTools) && DayMaskIterator.matchesFilters(this)
+			&& (preferDayMasks || DayMaskIterator.isEfficient(this) || DayMaskIterator.needsCycleCheck(this));
+
 		// since FREQ is the first part anyway we don't have to create it separately
 		for (Part p : mParts.keySet())
 		{
+			if (dayMasks && p != Part.UNTIL && p != Part.COUNT)
+			{
+				if (p == Part.FREQ)
+				{
+					iterator = new DayMaskIterator(this, calendarTools, start, yearShapes);
+				}
+				continue;
+			}
+
+			if (p == Part.BYHOUR || p == Part.BYMINUTE || p == Part.BYSECOND)
+			{
+				if (iterator instanceof TimeExpander)
+				{
+					// already expanded by the TimeExpander
+					continue;
+				}
+				if (TimeExpander.expands(this, p))
+				{
+					/*
+					 * Once a time part expands, all subsequent time parts expand too. Expand them in one go, so we don't build the sets of all times of an
+					 * interval.
+					 */
+					iterator = new TimeExpander(this, iterator, p);
+					continue;
+				}
+			}
+
 			// add a filter for each rule part
 			if (p != Part.INTERVAL && p != Part.WKST)
 			{
@@ -1242,11 +1628,22 @@ public final class RecurrenceRule
 					iterator = new SanityFilter(this, iterator, calendarTools, start);
 					sanityFilterAdded = true;
 				}
-				iterator = p.getRuleIterator(this, iterator, calendarTools, start);
+				if (p != Part.COUNT || limitCount)
+				{
+					RuleIterator next = p.getRuleIterator(this, iterator, calendarTools, start);
+					/*
+					 * Let the preceding filter apply limiting filters right to its own results. That saves one iteration and one intermediate set per
+					 * filter.
+					 */
+					if (!(iterator instanceof ByFilter && next instanceof ByFilter && ((ByFilter) iterator).fuse((ByFilter) next)))
+					{
+						iterator = next;
+					}
+				}
 			}
 		}
 		// add a SanityFilter if not already done.
-		return new RecurrenceIterator(sanityFilterAdded ? iterator : new SanityFilter(this, iterator, calendarTools, start), start);
+		return sanityFilterAdded ? iterator : new SanityFilter(this, iterator, calendarTools, start);
 	}
 
 
@@ -29,7 +29,8 @@ import java.util.Iterator;
  * </p>
  * <p>
  * Intermediate iterators may return invalid instances (like 2013-02-29). The {@link SanityFilter} will filter them all, so the last iterator always returns
- * valid instances.
+ * valid instances. If the iterators of a rule can't create invalid instances (see {@link #returnsValidInstances()}), the {@link SanityFilter} doesn't
+ * validate anything.
  * </p>
  * <p>
  * <strong>Note:</strong> Some rules may recur forever, so be sure to add some limitation to your code that stops iterating after a certain number of instances
@@ -82,4 +83,47 @@ abstract class RuleIterator
 	 */
 	abstract LongArray nextSet();
 
+
+	/**
+	 * Fast forward to the given instance. Each iterator forwards this call to the previous iterator, so the {@link FreqIterator} can skip all intervals before
+	 * the interval that contains <code>instance</code> without iterating them.
+	 * <p>
+	 * This is a hint only. It's not guaranteed that all instances preceding <code>instance</code> have been skipped, so the caller still has to skip any
+	 * remaining instances preceding <code>instance</code>. If this method returns <code>true</code>, all instances that have been retrieved before (and any
+	 * instances that have been buffered by subsequent iterators) precede <code>instance</code> and must be dropped.
+	 * </p>
+	 * 
+	 * @param instance
+	 *            The instance to fast forward to.
+	 * @return <code>true</code> if the iterator has skipped any intervals, <code>false</code> if it didn't move.
+	 */
+	abstract boolean seek(long instance);
+
+
+	/**
+	 * Skips the given number of instances. By default this iterates the instances one by one. Iterators that know the position of every instance override
+	 * this.
+	 * 
+	 * @param count
+	 *            The number of instances to skip.
+	 */
+	void skip(int count)
+	{
+		while (count > 0 && next() != Long.MIN_VALUE)
+		{
+			--count;
+		}
+	}
+
+
+	/**
+	 * Returns whether all instances returned by this iterator are valid dates. Filters don't create any instances, so by default that's the case if the
+	 * previous iterator returns valid instances only. Iterators that create instances override this.
+	 * 
+	 * @return <code>true</code> if this iterator never returns an invalid instance, <code>false</code> if the instances need to be validated.
+	 */
+	boolean returnsValidInstances()
+	{
+		return mPrevious != null && mPrevious.returnsValidInstances();
+	}
 }
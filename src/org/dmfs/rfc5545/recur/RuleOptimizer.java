@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
+import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
+import org.dmfs.rfc5545.recur.RecurrenceRule.Weekday;
+import org.dmfs.rfc5545.recur.RecurrenceRule.WeekdayNum;
+
+
+/**
+ * Rewrites a {@link RecurrenceRule} into an equivalent rule that's cheaper to iterate. The optimized rule returns exactly the same instances, it's only used
+ * to build the chain of {@link RuleIterator}s.
+ * <p>
+ * The optimizer performs two kinds of rewrites:
+ * </p>
+ * <ul>
+ * <li>It drops limiting BYxxx parts that don't remove anything, like <code>BYMONTH=1,2,3,4,5,6,7,8,9,10,11,12</code> or a BYDAY part that lists all seven
+ * week days.</li>
+ * <li>If INTERVAL is <code>1</code>, it replaces a frequency that's limited by the matching BYxxx part by the next coarser frequency, which expands that part
+ * instead. For instance <code>FREQ=HOURLY;BYHOUR=9,17</code> becomes <code>FREQ=DAILY;BYHOUR=9,17</code> and <code>FREQ=DAILY;BYDAY=MO,FR</code> becomes
+ * <code>FREQ=WEEKLY;BYDAY=MO,FR</code>. That way the instances are generated instead of being pulled and dropped one by one.</li>
+ * </ul>
+ * <p>
+ * Rules with a BYSETPOS part are never coarsened, since that would change the sets BYSETPOS selects from. Rules with BYxxx values that refer to the same
+ * element (like <code>BYMONTHDAY=1,-31</code>) or with positional week days are not touched at all. Depending on the chain of iterators these may result in
+ * duplicate instances, so a different chain could return different results.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class RuleOptimizer
+{
+	/**
+	 * The number of days per month to check when testing a BYMONTHDAY part for completeness.
+	 */
+	private final static int MIN_MONTH_DAYS = 28;
+	private final static int MAX_MONTH_DAYS = 31;
+
+
+	private RuleOptimizer()
+	{
+	}
+
+
+	/**
+	 * Returns a rule that's equivalent to the given rule but cheaper to iterate. The given rule is never modified.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to optimize.
+	 * @return The optimized {@link RecurrenceRule}, which is <code>rule</code> itself if there is nothing to optimize.
+	 */
+	static RecurrenceRule optimize(RecurrenceRule rule)
+	{
+		if (hasPositions(rule.getByDayPart()) || !isUnique(rule))
+		{
+			return rule;
+		}
+
+		RecurrenceRule result = rule;
+
+		// drop all parts that don't limit anything
+		for (Part part : new Part[] { Part.BYMONTH, Part.BYMONTHDAY, Part.BYDAY, Part.BYHOUR, Part.BYMINUTE, Part.BYSECOND })
+		{
+			if (result.hasPart(part) && isRedundant(result, part))
+			{
+				if (result == rule)
+				{
+					result = new RecurrenceRule(rule);
+				}
+				result.removePart(part);
+			}
+		}
+
+		if (result.getInterval() != 1 || result.hasPart(Part.BYSETPOS))
+		{
+			return result;
+		}
+
+		// expand at the coarsest frequency possible
+		Freq freq;
+		while ((freq = coarserFreq(result)) != null)
+		{
+			if (result == rule)
+			{
+				result = new RecurrenceRule(rule);
+			}
+			result.setFreq(freq, true);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Checks whether the given part of the given rule is a limiting part that lets all instances pass.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @param part
+	 *            The {@link Part} to check, must be present in the rule.
+	 * @return <code>true</code> if the part can be dropped without changing the instances.
+	 */
+	private static boolean isRedundant(RecurrenceRule rule, Part part)
+	{
+		Freq freq = rule.getFreq();
+		switch (part)
+		{
+			case BYMONTH:
+				// BYMONTH changes the scope of weekly rules, so keep it in that case
+				return freq != Freq.YEARLY && freq != Freq.WEEKLY && !rule.hasPart(Part.BYWEEKNO) && containsAll(rule.getByPart(Part.BYMONTH), 1, 12);
+
+			case BYMONTHDAY:
+				/*
+				 * BYMONTHDAY limits if the frequency is at most DAILY or BYYEARDAY has been expanded before. We don't touch the latter case, since it changes
+				 * the way YEARLY and MONTHLY rules are expanded.
+				 */
+				if (!isSubDaily(freq))
+				{
+					return false;
+				}
+				long[] masks = new long[MAX_MONTH_DAYS + 1];
+				ByMonthDayFilter.buildMonthDayMasks(StaticUtils.ListToSortedArray(rule.getByPart(Part.BYMONTHDAY)), masks);
+				for (int monthDays = MIN_MONTH_DAYS; monthDays <= MAX_MONTH_DAYS; ++monthDays)
+				{
+					// bits 1 to monthDays must be set
+					if (masks[monthDays] != ((1L << (monthDays + 1)) - 2))
+					{
+						return false;
+					}
+				}
+				return true;
+
+			case BYDAY:
+				// like BYMONTHDAY above, BYDAY is dropped from rules with a frequency of at most DAILY only
+				if (!isSubDaily(freq))
+				{
+					return false;
+				}
+				long weekdayMask = 0;
+				for (WeekdayNum weekday : rule.getByDayPart())
+				{
+					weekdayMask |= 1L << weekday.weekday.ordinal();
+				}
+				return weekdayMask == 0x7f;
+
+			case BYHOUR:
+				return (freq == Freq.HOURLY || freq == Freq.MINUTELY || freq == Freq.SECONDLY) && containsAll(rule.getByPart(Part.BYHOUR), 0, 23);
+
+			case BYMINUTE:
+				return (freq == Freq.MINUTELY || freq == Freq.SECONDLY) && containsAll(rule.getByPart(Part.BYMINUTE), 0, 59);
+
+			case BYSECOND:
+				return freq == Freq.SECONDLY && containsAll(rule.getByPart(Part.BYSECOND), 0, 59);
+
+			default:
+				return false;
+		}
+	}
+
+
+	/**
+	 * Checks whether the given frequency is DAILY or less than that.
+	 * 
+	 * @param freq
+	 *            The {@link Freq}.
+	 * @return <code>true</code> if the intervals are no longer than a day.
+	 */
+	private static boolean isSubDaily(Freq freq)
+	{
+		return freq == Freq.DAILY || freq == Freq.HOURLY || freq == Freq.MINUTELY || freq == Freq.SECONDLY;
+	}
+
+
+	/**
+	 * Returns the next coarser frequency that expands the instances the given rule limits at its current frequency. The caller has to make sure that the rule
+	 * has an INTERVAL of <code>1</code> and no BYSETPOS part.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @return The coarser {@link Freq} or <code>null</code> if the frequency can't be changed.
+	 */
+	private static Freq coarserFreq(RecurrenceRule rule)
+	{
+		switch (rule.getFreq())
+		{
+			case SECONDLY:
+				// a leap second would be expanded, but it's never iterated
+				return rule.hasPart(Part.BYSECOND) && !rule.getByPart(Part.BYSECOND).contains(60) ? Freq.MINUTELY : null;
+
+			case MINUTELY:
+				return rule.hasPart(Part.BYMINUTE) ? Freq.HOURLY : null;
+
+			case HOURLY:
+				return rule.hasPart(Part.BYHOUR) ? Freq.DAILY : null;
+
+			case DAILY:
+				if (rule.hasPart(Part.BYWEEKNO))
+				{
+					return null;
+				}
+				if (rule.hasPart(Part.BYYEARDAY))
+				{
+					// BYMONTH would be expanded in a YEARLY rule
+					return rule.hasPart(Part.BYMONTH) ? null : Freq.YEARLY;
+				}
+				if (rule.hasPart(Part.BYMONTHDAY))
+				{
+					return Freq.MONTHLY;
+				}
+				if (rule.hasPart(Part.BYDAY))
+				{
+					// BYMONTH would keep weeks that overlap the months in a WEEKLY rule
+					return rule.hasPart(Part.BYMONTH) ? null : Freq.WEEKLY;
+				}
+				return null;
+
+			default:
+				return null;
+		}
+	}
+
+
+	/**
+	 * Checks whether all BYxxx parts of the given rule refer to distinct elements.
+	 * 
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @return <code>true</code> if no BYxxx part contains two values that refer to the same element.
+	 */
+	static boolean isUnique(RecurrenceRule rule)
+	{
+		if (rule.hasPart(Part.BYDAY))
+		{
+			Set<Weekday> weekdays = EnumSet.noneOf(Weekday.class);
+			for (WeekdayNum weekday : rule.getByDayPart())
+			{
+				if (!weekdays.add(weekday.weekday))
+				{
+					return false;
+				}
+			}
+		}
+
+		return isUnique(rule, Part.BYMONTH) && isUnique(rule, Part.BYWEEKNO, 52, 53) && isUnique(rule, Part.BYYEARDAY, 365, 366)
+			&& isUnique(rule, Part.BYMONTHDAY, 28, 29, 30, 31) && isUnique(rule, Part.BYHOUR) && isUnique(rule, Part.BYMINUTE) && isUnique(rule, Part.BYSECOND);
+	}
+
+
+	/**
+	 * Checks whether the values of a BYxxx part refer to distinct elements. Negative values count from the end of a range of the given lengths.
+	 * 
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @param part
+	 *            The {@link Part} to check.
+	 * @param lengths
+	 *            The lengths of the ranges (like the number of days in a month) to resolve negative values, if any.
+	 * @return <code>true</code> if the part is not present or no two values refer to the same element.
+	 */
+	private static boolean isUnique(RecurrenceRule rule, Part part, int... lengths)
+	{
+		List<Integer> values = rule.getByPart(part);
+		if (values == null)
+		{
+			return true;
+		}
+
+		if (lengths.length == 0)
+		{
+			return new HashSet<Integer>(values).size() == values.size();
+		}
+
+		for (int length : lengths)
+		{
+			Set<Integer> elements = new HashSet<Integer>();
+			for (int value : values)
+			{
+				if (!elements.add(value < 0 ? length + value + 1 : value))
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Checks whether any of the given week days has a position.
+	 *
+	 * @param weekdays
+	 *            The week days of a BYDAY part, may be <code>null</code>.
+	 * @return <code>true</code> if any of the week days has a position.
+	 */
+	private static boolean hasPositions(List<WeekdayNum> weekdays)
+	{
+		if (weekdays != null)
+		{
+			for (WeekdayNum weekday : weekdays)
+			{
+				if (weekday.pos != 0)
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Checks whether the given list contains all values in the given range.
+	 *
+	 * @param values
+	 *            The values of a BYxxx part.
+	 * @param first
+	 *            The first value of the range.
+	 * @param last
+	 *            The last value of the range (inclusive).
+	 * @return <code>true</code> if all values of the range are present.
+	 */
+	private static boolean containsAll(List<Integer> values, int first, int last)
+	{
+		long mask = 0;
+		for (int value : values)
+		{
+			if (first <= value && value <= last)
+			{
+				mask |= 1L << value;
+			}
+		}
+		return mask == ((-1L >>> (63 - last)) & (-1L << first));
+	}
+}
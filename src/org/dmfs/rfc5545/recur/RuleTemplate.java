@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+/**
+ * A compiled {@link RecurrenceRule}. A template does everything that doesn't depend on the start date once: it optimizes the rule, sorts the values of all
+ * BYxxx parts and keeps the {@link CalendarMetrics} and the day masks of a {@link DayMaskIterator}. Iterating a rule for a specific start date is done by a
+ * cursor, which is a {@link RecurrenceIterator} that can be reset to another start date.
+ * <p>
+ * A template can be used by many threads at a time. Cursors are not thread safe, every thread needs its own cursor.
+ * </p>
+ * <p>
+ * Templates of rules that are used a lot switch to a faster representation. Once a template has built {@value #HOT_CHAINS} chains of iterators, all new
+ * chains of YEARLY and MONTHLY rules with day parts are replaced by a single {@link DayMaskIterator}. That's a single loop over masks of the days of the year
+ * that are built only once per template, instead of a chain of virtual calls through all BYxxx filters. The chains of rarely used templates are built as
+ * usual, since the first masks cost more than they save.
+ * </p>
+ * <p>
+ * Use {@link RecurrenceRule#compile()} to get a template.
+ * </p>
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class RuleTemplate
+{
+	/**
+	 * The optimized rule. This is a private copy that is never modified.
+	 */
+	private final RecurrenceRule mRule;
+
+	/**
+	 * The {@link CalendarMetrics} of the rule. {@link GregorianCalendarMetrics} can be shared by multiple threads.
+	 */
+	private final CalendarMetrics mCalendarMetrics;
+
+	/**
+	 * The year shapes shared by the {@link DayMaskIterator}s of all cursors.
+	 */
+	private final DayMaskIterator.YearShape[] mYearShapes = DayMaskIterator.newYearShapeCache();
+
+	/**
+	 * The number of chains to build before switching to a {@link DayMaskIterator}.
+	 */
+	private final static int HOT_CHAINS = 32;
+
+	/**
+	 * Whether the rule can be iterated by a {@link DayMaskIterator} that shares the year shapes of all cursors and returns the same instances as the filters.
+	 */
+	private final boolean mDayMasks;
+
+	/**
+	 * The number of chains built so far, up to {@link #HOT_CHAINS}. This is not synchronized, since a lost update just delays the switch a little.
+	 */
+	private int mChains;
+
+
+	/**
+	 * Creates a template of the given rule. Use {@link RecurrenceRule#compile()} to get an instance.
+	 * 
+	 * @param rule
+	 *            The {@link RecurrenceRule} to compile.
+	 */
+	RuleTemplate(RecurrenceRule rule)
+	{
+		mRule = rule.optimized().frozenCopy();
+		mCalendarMetrics = new GregorianCalendarMetrics(rule.getWeekStart().ordinal(), 4);
+		mDayMasks = DayMaskIterator.supports(mRule, mCalendarMetrics) && DayMaskIterator.sharesYearShapes(mRule)
+			&& DayMaskIterator.matchesFilters(mRule);
+	}
+
+
+	/**
+	 * Returns a new cursor that iterates all instances of the rule starting at the given date. The cursor can be moved to another start date by
+	 * {@link RecurrenceIterator#reset(Calendar)}.
+	 * <p>
+	 * <strong>Note:</strong> if an UNTIL part is present and it's value is a floating time then start must be floating as well and vice versa. The same applies
+	 * if the UNTIL value is an all-day value
+	 * </p>
+	 * 
+	 * @param start
+	 *            The first instance.
+	 * @return A {@link RecurrenceIterator}.
+	 */
+	public RecurrenceIterator cursor(Calendar start)
+	{
+		return new RecurrenceIterator(getRuleIterator(start, true), start, mCalendarMetrics, this);
+	}
+
+
+	/**
+	 * Build the chain of {@link RuleIterator}s of the rule for the given start date.
+	 * 
+	 * @param start
+	 *            The first instance.
+	 * @param limitCount
+	 *            <code>false</code> to omit the {@link CountLimiter}, in which case the caller is responsible for counting the instances.
+	 * @return The last {@link RuleIterator} in the chain.
+	 */
+	RuleIterator getRuleIterator(Calendar start, boolean limitCount)
+	{
+		boolean hot = false;
+		if (mDayMasks)
+		{
+			int chains = mChains;
+			hot = chains == HOT_CHAINS;
+			if (!hot)
+			{
+				mChains = chains + 1;
+			}
+		}
+		return mRule.getRuleIterator(start, mCalendarMetrics, limitCount, mYearShapes, hot, false);
+	}
+}
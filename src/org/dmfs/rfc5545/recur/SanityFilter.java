@@ -22,7 +22,8 @@ import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
 
 /**
  * This filter ensures we don't return any instance that is ahead of start. It also ensures that the start date is always returned as first result and that the
- * result contains no invalid instances.
+ * result contains no invalid instances. The instances are only validated if any of the previous iterators may return invalid instances (see
+ * {@link RuleIterator#returnsValidInstances()}).
  * 
  * @author Marten Gajda <marten@dmfs.org>
  * 
@@ -65,6 +66,11 @@ final class SanityFilter extends RuleIterator
 	 */
 	private final boolean mFilterByStart;
 
+	/**
+	 * Whether we have to validate the instances. That's not necessary if the previous iterators never return invalid instances.
+	 */
+	private final boolean mValidate;
+
 
 	/**
 	 * Creates a new {@link SanityFilter} that filters the results of the previous instance. This filter should be located between {@link FreqIterator} or any
@@ -81,6 +87,7 @@ final class SanityFilter extends RuleIterator
 		mStart = Instance.makeFast(start);
 		mCalendarMetrics = calendarTools;
 		mFilterByStart = !rule.hasPart(Part.BYSETPOS);
+		mValidate = !previous.returnsValidInstances();
 	}
 
 
@@ -99,9 +106,11 @@ final class SanityFilter extends RuleIterator
 			long next;
 			// skip all instances that precede start
 			long simpleInstance = 0;
+			boolean precedesStart = false;
 			do
 			{
-				if (++counter == MAX_FILTERED_INSTANCES)
+				// instances preceding start are not counted, the first sets may contain lots of them, but nothing after that
+				if (!precedesStart && ++counter == MAX_FILTERED_INSTANCES)
 				{
 					throw new IllegalArgumentException("too many filtered recurrence instances");
 				}
@@ -109,12 +118,14 @@ final class SanityFilter extends RuleIterator
 				next = mPrevious.next();
 				if (next == Long.MIN_VALUE)
 				{
+					precedesStart = false;
 					continue;
 				}
 
 				simpleInstance = Instance.maskWeekday(next);
+				precedesStart = mFilterByStart && mStart >= simpleInstance;
 
-			} while (mFilterByStart && mStart >= simpleInstance || !Instance.validate(simpleInstance, mCalendarMetrics));
+			} while (precedesStart || mValidate && !Instance.validate(simpleInstance, mCalendarMetrics));
 
 			return next;
 		}
@@ -151,7 +162,7 @@ final class SanityFilter extends RuleIterator
 
 				simpleInstance = Instance.maskWeekday(next);
 
-				if ((!mFilterByStart || mStart < simpleInstance) && Instance.validate(simpleInstance, mCalendarMetrics))
+				if ((!mFilterByStart || mStart < simpleInstance) && (!mValidate || Instance.validate(simpleInstance, mCalendarMetrics)))
 				{
 					resultSet.add(next);
 				}
@@ -159,4 +170,23 @@ final class SanityFilter extends RuleIterator
 		} while (!resultSet.hasNext());
 		return resultSet;
 	}
+
+
+	@Override
+	boolean returnsValidInstances()
+	{
+		return true;
+	}
+
+
+	@Override
+	boolean seek(long instance)
+	{
+		if (mStart < Instance.maskWeekday(instance))
+		{
+			// the start instance is skipped anyway
+			mFirst = false;
+		}
+		return mPrevious.seek(instance);
+	}
 }
@@ -84,4 +84,135 @@ public abstract class StaticUtils
 		}
 		return -1;
 	}
+
+
+	/**
+	 * Convert an array of <code>int</code>s into a bit mask. Bit <code>n</code> of the result is set if the array contains the value <code>n</code>. Values
+	 * outside of the range <code>0..63</code> are ignored.
+	 * 
+	 * @param array
+	 *            The values to convert.
+	 * @return A <code>long</code> with a bit set for every value in the array.
+	 */
+	public static long toBitmask(int[] array)
+	{
+		long result = 0;
+		for (int value : array)
+		{
+			if (value >= 0 && value < 64)
+			{
+				result |= 1L << value;
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Convert an array of <code>int</code>s into a bit set. Bit <code>n</code> of the result (that's bit <code>n % 64</code> of element <code>n / 64</code>)
+	 * is set if the array contains the value <code>n</code>. If <code>negative</code> is <code>true</code> the bit <code>n</code> is set if the array
+	 * contains the value <code>-n</code> instead. Values outside of the range <code>0..maxValue</code> (or <code>-maxValue..0</code> respectively) are
+	 * ignored.
+	 * 
+	 * @param array
+	 *            The values to convert.
+	 * @param maxValue
+	 *            The largest absolute value to support.
+	 * @param negative
+	 *            <code>true</code> to convert the negative values, <code>false</code> to convert the positive values.
+	 * @return A <code>long[]</code> with a bit set for every value in the array.
+	 */
+	public static long[] toBitSet(int[] array, int maxValue, boolean negative)
+	{
+		long[] result = new long[(maxValue >> 6) + 1];
+		for (int value : array)
+		{
+			int bit = negative ? -value : value;
+			if (bit >= 0 && bit <= maxValue)
+			{
+				result[bit >> 6] |= 1L << bit;
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Check whether a specific bit of a bit mask is set. Bits outside of the range <code>0..63</code> are never set.
+	 * 
+	 * @param bitmask
+	 *            The bit mask as returned by {@link #toBitmask(int[])}.
+	 * @param bit
+	 *            The number of the bit to test.
+	 * @return <code>true</code> if the bit is set, <code>false</code> otherwise.
+	 */
+	public static boolean isBitSet(long bitmask, int bit)
+	{
+		return bit >= 0 && bit < 64 && (bitmask & (1L << bit)) != 0;
+	}
+
+
+	/**
+	 * Find the lowest bit of a bit mask that is set and not less than a specific bit.
+	 * 
+	 * @param bitmask
+	 *            The bit mask as returned by {@link #toBitmask(int[])}.
+	 * @param bit
+	 *            The number of the first bit to consider, must not be negative.
+	 * @return The number of the next bit that is set or <code>-1</code> if no such bit is set.
+	 */
+	public static int nextBit(long bitmask, int bit)
+	{
+		if (bit >= 64)
+		{
+			return -1;
+		}
+		long remaining = bitmask & (-1L << bit);
+		return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining);
+	}
+
+
+	/**
+	 * Check whether a specific bit of a bit set is set. Bits outside of the bit set are never set.
+	 * 
+	 * @param bitSet
+	 *            The bit set as returned by {@link #toBitSet(int[], int, boolean)}.
+	 * @param bit
+	 *            The number of the bit to test.
+	 * @return <code>true</code> if the bit is set, <code>false</code> otherwise.
+	 */
+	public static boolean isBitSet(long[] bitSet, int bit)
+	{
+		return bit >= 0 && bit < bitSet.length << 6 && (bitSet[bit >> 6] & (1L << bit)) != 0;
+	}
+
+
+	/**
+	 * Divide two numbers, rounding towards negative infinity.
+	 * 
+	 * @param dividend
+	 *            The dividend.
+	 * @param divisor
+	 *            The divisor, must be positive.
+	 * @return The largest number that's not greater than <code>dividend / divisor</code>.
+	 */
+	public static long floorDiv(long dividend, long divisor)
+	{
+		return dividend >= 0 ? dividend / divisor : (dividend - divisor + 1) / divisor;
+	}
+
+
+	/**
+	 * Returns the remainder of {@link #floorDiv(long, long)}, which is never negative.
+	 * 
+	 * @param dividend
+	 *            The dividend.
+	 * @param divisor
+	 *            The divisor, must be positive.
+	 * @return The remainder, a number between <code>0</code> and <code>divisor</code> (exclusive).
+	 */
+	public static int floorMod(long dividend, int divisor)
+	{
+		return (int) (dividend - floorDiv(dividend, divisor) * divisor);
+	}
 }
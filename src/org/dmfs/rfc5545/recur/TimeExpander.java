@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
+import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
+
+
+/**
+ * An iterator that expands the BYHOUR, BYMINUTE and BYSECOND parts of a rule in one go. It replaces the {@link ByHourFilter}, {@link ByMinuteFilter} and
+ * {@link BySecondFilter} when these expand the instances.
+ * <p>
+ * The expanding filters build the entire set of an interval before returning the first instance, which is a lot for rules like
+ * <code>FREQ=DAILY;BYMINUTE=0,...,59;BYSECOND=0,...,59</code>. Since the times are always expanded last, this class just loops over the hours, minutes and
+ * seconds of every instance of the previous iterator in {@link #next()}, which returns the instances in the same order without building any sets. Only
+ * {@link #nextSet()} (which is called by {@link BySetPosFilter}) builds the set of an interval.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class TimeExpander extends RuleIterator
+{
+	/**
+	 * The hours, minutes and seconds to expand or <code>null</code> to keep the respective field of the instances.
+	 */
+	private final int[] mHours;
+	private final int[] mMinutes;
+	private final int[] mSeconds;
+
+	/**
+	 * The number of values of each field. A field that's not expanded has one value.
+	 */
+	private final int mHourCount;
+	private final int mMinuteCount;
+	private final int mSecondCount;
+
+	/**
+	 * The instance of the previous iterator we're currently expanding or {@link Long#MIN_VALUE} if we need a new one.
+	 */
+	private long mInstance = Long.MIN_VALUE;
+
+	/**
+	 * The indices of the next time to return.
+	 */
+	private int mHourIndex;
+	private int mMinuteIndex;
+	private int mSecondIndex;
+
+	/**
+	 * The set we return.
+	 */
+	private final LongArray mResultSet = new LongArray();
+
+
+	/**
+	 * Returns whether the given time part of the given rule expands the instances.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule}.
+	 * @param part
+	 *            One of {@link Part#BYHOUR}, {@link Part#BYMINUTE} or {@link Part#BYSECOND}.
+	 * @return <code>true</code> if the part expands the instances, <code>false</code> if it's a filter.
+	 */
+	static boolean expands(RecurrenceRule rule, Part part)
+	{
+		Freq freq = rule.getFreq();
+		switch (part)
+		{
+			case BYHOUR:
+				return freq == Freq.YEARLY || freq == Freq.MONTHLY || freq == Freq.WEEKLY || freq == Freq.DAILY;
+			case BYMINUTE:
+				return freq != Freq.SECONDLY && freq != Freq.MINUTELY;
+			case BYSECOND:
+				return freq != Freq.SECONDLY;
+			default:
+				return false;
+		}
+	}
+
+
+	/**
+	 * Creates an iterator that expands the given part and all subsequent time parts of the given rule. The parts must expand the instances.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate.
+	 * @param previous
+	 *            The previous iterator.
+	 * @param firstPart
+	 *            The first time part to expand, one of {@link Part#BYHOUR}, {@link Part#BYMINUTE} or {@link Part#BYSECOND}.
+	 */
+	TimeExpander(RecurrenceRule rule, RuleIterator previous, Part firstPart)
+	{
+		super(previous);
+		mHours = firstPart == Part.BYHOUR ? rule.getSortedByPart(Part.BYHOUR) : null;
+		mMinutes = firstPart != Part.BYSECOND ? rule.getSortedByPart(Part.BYMINUTE) : null;
+		mSeconds = rule.getSortedByPart(Part.BYSECOND);
+		mHourCount = mHours == null ? 1 : mHours.length;
+		mMinuteCount = mMinutes == null ? 1 : mMinutes.length;
+		mSecondCount = mSeconds == null ? 1 : mSeconds.length;
+	}
+
+
+	@Override
+	public long next()
+	{
+		long instance = mInstance;
+		if (instance == Long.MIN_VALUE)
+		{
+			instance = mPrevious.next();
+			if (instance == Long.MIN_VALUE)
+			{
+				return Long.MIN_VALUE;
+			}
+			mInstance = instance;
+		}
+
+		long result = instance;
+		if (mHours != null)
+		{
+			result = Instance.setHour(result, mHours[mHourIndex]);
+		}
+		if (mMinutes != null)
+		{
+			result = Instance.setMinute(result, mMinutes[mMinuteIndex]);
+		}
+		if (mSeconds != null)
+		{
+			result = Instance.setSecond(result, mSeconds[mSecondIndex]);
+		}
+
+		// move on to the next time, the seconds change fastest
+		if (++mSecondIndex == mSecondCount)
+		{
+			mSecondIndex = 0;
+			if (++mMinuteIndex == mMinuteCount)
+			{
+				mMinuteIndex = 0;
+				if (++mHourIndex == mHourCount)
+				{
+					mHourIndex = 0;
+					mInstance = Long.MIN_VALUE;
+				}
+			}
+		}
+		return result;
+	}
+
+
+	@Override
+	LongArray nextSet()
+	{
+		LongArray resultSet = mResultSet;
+		resultSet.clear();
+
+		// drop any partially iterated instance
+		mInstance = Long.MIN_VALUE;
+		mHourIndex = mMinuteIndex = mSecondIndex = 0;
+
+		int counter = 0;
+		do
+		{
+			if (counter == ByFilter.MAX_EMPTY_SETS)
+			{
+				throw new IllegalArgumentException("too many empty recurrence sets " + this);
+			}
+			counter++;
+
+			LongArray prev = mPrevious.nextSet();
+			while (prev.hasNext())
+			{
+				long instance = prev.next();
+				for (int hour = 0; hour < mHourCount; ++hour)
+				{
+					long hourInstance = mHours == null ? instance : Instance.setHour(instance, mHours[hour]);
+					for (int minute = 0; minute < mMinuteCount; ++minute)
+					{
+						long minuteInstance = mMinutes == null ? hourInstance : Instance.setMinute(hourInstance, mMinutes[minute]);
+						for (int second = 0; second < mSecondCount; ++second)
+						{
+							resultSet.add(mSeconds == null ? minuteInstance : Instance.setSecond(minuteInstance, mSeconds[second]));
+						}
+					}
+				}
+			}
+		} while (!resultSet.hasNext());
+		return resultSet;
+	}
+
+
+	@Override
+	boolean returnsValidInstances()
+	{
+		// leap seconds are expanded but never valid
+		return (mSeconds == null || mSeconds[mSeconds.length - 1] < 60) && mPrevious.returnsValidInstances();
+	}
+
+
+	@Override
+	boolean seek(long instance)
+	{
+		if (mPrevious.seek(instance))
+		{
+			// the instance we're expanding precedes the new interval, drop it
+			mInstance = Long.MIN_VALUE;
+			mHourIndex = mMinuteIndex = mSecondIndex = 0;
+			return true;
+		}
+		return false;
+	}
+}
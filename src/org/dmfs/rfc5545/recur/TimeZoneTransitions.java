@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+
+/**
+ * An immutable table of the offset transitions of a {@link TimeZone}. It converts local times to UTC times with a binary search and an addition, without
+ * asking the {@link TimeZone} for every single instance.
+ * <p>
+ * Local times are given as milliseconds since the epoch, as if the local time was a UTC time (that's what {@link CalendarMetrics#toMillis(long)} returns). A
+ * local time that doesn't exist, because it's skipped by a transition, is converted using the offset before the transition. A local time that exists twice is
+ * converted using the offset after the transition. That's exactly what {@link java.util.GregorianCalendar} does.
+ * </p>
+ * <p>
+ * The tables cover the years {@value #FIRST_YEAR} to {@value #LAST_YEAR}. Use {@link #covers(long)} to check whether a specific local time is covered.
+ * </p>
+ * <p>
+ * Building a table is expensive, so the tables are cached. Use {@link #get(TimeZone)} to get the table of a specific {@link TimeZone}.
+ * </p>
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class TimeZoneTransitions
+{
+	/**
+	 * The first year covered by the tables.
+	 */
+	private final static int FIRST_YEAR = 1900;
+
+	/**
+	 * The last year covered by the tables.
+	 */
+	private final static int LAST_YEAR = 2100;
+
+	/**
+	 * The maximum number of tables to cache.
+	 */
+	private final static int MAX_CACHED_TABLES = 64;
+
+	/**
+	 * The interval to check the offset of the time zone when searching for transitions. Transitions that are closer than this are not detected.
+	 */
+	private final static long SAMPLE_INTERVAL = 12L * 60 * 60 * 1000;
+
+	/**
+	 * The number of milliseconds per day.
+	 */
+	private final static long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	/**
+	 * The cache of tables. The eldest entry is removed if the cache exceeds {@value #MAX_CACHED_TABLES} entries.
+	 */
+	private final static Map<TimeZone, TimeZoneTransitions> CACHE = new LinkedHashMap<TimeZone, TimeZoneTransitions>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<TimeZone, TimeZoneTransitions> eldest)
+		{
+			return size() > MAX_CACHED_TABLES;
+		}
+	};
+
+	/**
+	 * The local times at which a new offset starts. The offset that applies to a local time before <code>mLocalTransitions[i]</code> is
+	 * <code>mOffsets[i]</code>.
+	 */
+	private final long[] mLocalTransitions;
+
+	/**
+	 * The offsets. This array contains one element more than {@link #mLocalTransitions}.
+	 */
+	private final int[] mOffsets;
+
+	/**
+	 * The first local time covered by this table.
+	 */
+	private final long mFirstLocal;
+
+	/**
+	 * The last local time covered by this table.
+	 */
+	private final long mLastLocal;
+
+	/**
+	 * The largest change of the offset of all transitions.
+	 */
+	private final int mMaxOffsetChange;
+
+
+	/**
+	 * Returns the transition table of the given {@link TimeZone}. The tables are cached, so this is cheap unless the table of the given time zone has been
+	 * evicted from the cache or never been built before.
+	 *
+	 * @param timeZone
+	 *            The {@link TimeZone}.
+	 * @return The {@link TimeZoneTransitions} of the time zone.
+	 */
+	public static TimeZoneTransitions get(TimeZone timeZone)
+	{
+		synchronized (CACHE)
+		{
+			TimeZoneTransitions result = CACHE.get(timeZone);
+			if (result == null)
+			{
+				// clone the time zone, because time zones are mutable
+				TimeZone key = (TimeZone) timeZone.clone();
+				result = new TimeZoneTransitions(key);
+				CACHE.put(key, result);
+			}
+			return result;
+		}
+	}
+
+
+	/**
+	 * Builds the transition table of the given {@link TimeZone}. Use {@link #get(TimeZone)} to get a cached table.
+	 *
+	 * @param timeZone
+	 *            The {@link TimeZone}.
+	 */
+	TimeZoneTransitions(TimeZone timeZone)
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(0, 4);
+		long first = calendarMetrics.getEpochDay(FIRST_YEAR, 1) * MILLIS_PER_DAY;
+		long last = calendarMetrics.getEpochDay(LAST_YEAR + 1, 1) * MILLIS_PER_DAY - 1;
+
+		LongArray transitions = new LongArray();
+		LongArray offsets = new LongArray();
+
+		// start one day early to make sure the first local time is covered, regardless of the offset
+		long time = first - MILLIS_PER_DAY;
+		int offset = timeZone.getOffset(time);
+		offsets.add(offset);
+		int maxOffsetChange = 0;
+		while (time < last + MILLIS_PER_DAY)
+		{
+			long next = time + SAMPLE_INTERVAL;
+			int nextOffset = timeZone.getOffset(next);
+			if (nextOffset != offset)
+			{
+				// find the exact transition time
+				long lower = time;
+				long upper = next;
+				while (upper - lower > 1)
+				{
+					long mid = lower + ((upper - lower) >> 1);
+					if (timeZone.getOffset(mid) == offset)
+					{
+						lower = mid;
+					}
+					else
+					{
+						upper = mid;
+					}
+				}
+				// the new offset applies to all local times after the transition time shifted by the new offset
+				transitions.add(upper + nextOffset);
+				offsets.add(nextOffset);
+				maxOffsetChange = Math.max(maxOffsetChange, Math.abs(nextOffset - offset));
+				offset = nextOffset;
+			}
+			time = next;
+		}
+
+		int count = transitions.size();
+		mLocalTransitions = new long[count];
+		mOffsets = new int[count + 1];
+		for (int i = 0; i < count; ++i)
+		{
+			mLocalTransitions[i] = transitions.next();
+		}
+		for (int i = 0; i <= count; ++i)
+		{
+			mOffsets[i] = (int) offsets.next();
+		}
+		mFirstLocal = first;
+		mLastLocal = last;
+		mMaxOffsetChange = maxOffsetChange;
+	}
+
+
+	/**
+	 * Checks whether the given local time is covered by this table.
+	 *
+	 * @param localMillis
+	 *            The local time.
+	 * @return <code>true</code> if this table can convert the local time, <code>false</code> otherwise.
+	 */
+	public boolean covers(long localMillis)
+	{
+		return mFirstLocal <= localMillis && localMillis <= mLastLocal;
+	}
+
+
+	/**
+	 * Returns the index of the offset that applies to the given local time. The index of a previous call can be passed as a hint. If the offset at the hint
+	 * (or the next one) applies to the local time, no binary search is necessary. This speeds up the conversion of consecutive local times.
+	 *
+	 * @param localMillis
+	 *            The local time.
+	 * @param hint
+	 *            The result of a previous call or <code>-1</code>.
+	 * @return The index of the offset.
+	 */
+	public int indexOf(long localMillis, int hint)
+	{
+		long[] localTransitions = mLocalTransitions;
+		int count = localTransitions.length;
+
+		if (hint >= 0 && hint <= count && (hint == 0 || localTransitions[hint - 1] <= localMillis))
+		{
+			// check the hint and the following index
+			if (hint == count || localMillis < localTransitions[hint])
+			{
+				return hint;
+			}
+			if (hint + 1 == count || localMillis < localTransitions[hint + 1])
+			{
+				return hint + 1;
+			}
+		}
+
+		// binary search for the first transition after localMillis
+		int low = 0;
+		int high = count;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (localTransitions[mid] <= localMillis)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+
+	/**
+	 * Returns the offset at the given index.
+	 *
+	 * @param index
+	 *            An index as returned by {@link #indexOf(long, int)}.
+	 * @return The offset in milliseconds.
+	 */
+	public int getOffset(int index)
+	{
+		return mOffsets[index];
+	}
+
+
+	/**
+	 * Converts the given local time to UTC.
+	 *
+	 * @param localMillis
+	 *            The local time. It must be covered by this table.
+	 * @return The time stamp in milliseconds since the epoch.
+	 */
+	public long toUtc(long localMillis)
+	{
+		return localMillis - mOffsets[indexOf(localMillis, -1)];
+	}
+
+
+	/**
+	 * Returns the largest change of the offset caused by any transition in this table. This is an upper bound of the difference between the local times of
+	 * two instances that are converted in the wrong order, because one is in a skipped or repeated period.
+	 *
+	 * @return The largest change in milliseconds.
+	 */
+	public int getMaxOffsetChange()
+	{
+		return mMaxOffsetChange;
+	}
+}
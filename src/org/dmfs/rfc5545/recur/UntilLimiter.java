@@ -58,4 +58,12 @@ final class UntilLimiter extends Limiter
 	{
 		return mUntil < Instance.maskWeekday(instance);
 	}
+
+
+	@Override
+	void skip(int count)
+	{
+		// instances after until are dropped by stop, so the previous iterator may skip them
+		mPrevious.skip(count);
+	}
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+
+public class ArithmeticIteratorTest
+{
+	/**
+	 * The number of instances to compare.
+	 */
+	private final static int INSTANCES = 500;
+
+	private final static String[] RULES = {
+		"FREQ=DAILY",
+		"FREQ=DAILY;INTERVAL=10",
+		"FREQ=WEEKLY",
+		"FREQ=WEEKLY;INTERVAL=3",
+		"FREQ=WEEKLY;BYDAY=MO,WE,FR",
+		"FREQ=WEEKLY;INTERVAL=2;BYDAY=SU,SA;WKST=SU",
+		"FREQ=WEEKLY;INTERVAL=2;BYDAY=SU,TU;WKST=TH",
+		"FREQ=MONTHLY",
+		"FREQ=MONTHLY;INTERVAL=7;BYMONTHDAY=1,15,28",
+		"FREQ=MONTHLY;BYMONTHDAY=-1",
+		"FREQ=MONTHLY;BYDAY=2TU",
+		"FREQ=MONTHLY;INTERVAL=5;BYDAY=-1FR",
+		"FREQ=MONTHLY;BYDAY=4SA",
+		"FREQ=MONTHLY;BYDAY=-4SU",
+		"FREQ=YEARLY",
+		"FREQ=YEARLY;INTERVAL=4",
+		"FREQ=YEARLY;BYMONTH=2,3,12",
+		"FREQ=YEARLY;BYMONTH=1,4;BYMONTHDAY=-30,1",
+		"FREQ=YEARLY;INTERVAL=2;BYMONTH=7;BYMONTHDAY=4,5,31" };
+
+
+	/**
+	 * Compare the results of an {@link ArithmeticIterator} with the results of the chain of iterators it replaces.
+	 */
+	@Test
+	public void testSameInstancesAsFilterChain() throws InvalidRecurrenceRuleException
+	{
+		for (String ruleString : RULES)
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(rule.getWeekStart().ordinal(), 4);
+			for (Calendar start : ReferenceChain.STARTS)
+			{
+				RuleIterator arithmeticIterator = ArithmeticIterator.get(rule, calendarMetrics, start);
+				if (arithmeticIterator == null)
+				{
+					// days that don't exist in every month are left to the filters
+					continue;
+				}
+				ReferenceChain.assertSameInstances("in rule " + ruleString + " with start " + start, ReferenceChain.ruleIterator(rule, calendarMetrics, start),
+					arithmeticIterator, INSTANCES);
+			}
+		}
+	}
+
+
+	/**
+	 * Skipping instances of a rule with a COUNT part must return the same instances as iterating them one by one, up to the last instance.
+	 */
+	@Test
+	public void testSkipWithCount() throws InvalidRecurrenceRuleException
+	{
+		for (String ruleString : RULES)
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString + ";COUNT=100");
+			for (Calendar start : ReferenceChain.STARTS)
+			{
+				for (int skip : new int[] { 0, 1, 2, 37, 99, 100, 1000 })
+				{
+					RecurrenceIterator expected = ReferenceChain.iterator(rule, start);
+					for (int i = 0; i < skip && expected.hasNext(); ++i)
+					{
+						expected.nextMillis();
+					}
+
+					RecurrenceIterator skipped = rule.iterator(start);
+					skipped.skip(skip);
+					while (expected.hasNext())
+					{
+						assertEquals("wrong instance after skipping " + skip + " in rule " + ruleString + " with start " + start, expected.nextMillis(),
+							skipped.nextMillis());
+					}
+					assertFalse(skipped.hasNext());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Fast forwarding a rule with a COUNT part must return the same instances as iterating them one by one.
+	 */
+	@Test
+	public void testFastForwardWithCount() throws InvalidRecurrenceRuleException
+	{
+		long[] targets = { new Calendar(2009, 5, 1, 0, 0, 0).getTimeInMillis(), new Calendar(2013, 0, 1, 12, 0, 0).getTimeInMillis(),
+			new Calendar(2100, 0, 1, 0, 0, 0).getTimeInMillis() };
+		for (String ruleString : RULES)
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString + ";COUNT=300");
+			for (Calendar start : ReferenceChain.STARTS)
+			{
+				for (long target : targets)
+				{
+					RecurrenceIterator expected = ReferenceChain.iterator(rule, start);
+					while (expected.hasNext() && expected.peekMillis() < target)
+					{
+						expected.nextMillis();
+					}
+
+					RecurrenceIterator fastForwarded = rule.iterator(start);
+					fastForwarded.fastForward(target);
+					while (expected.hasNext())
+					{
+						assertEquals("wrong instance after fast forwarding rule " + ruleString + " with start " + start, expected.nextMillis(),
+							fastForwarded.nextMillis());
+					}
+					assertFalse(fastForwarded.hasNext());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Rules with more than one instance per day, with days that don't exist in every month or with a varying number of instances per interval are not
+	 * supported.
+	 */
+	@Test
+	public void testUnsupported() throws InvalidRecurrenceRuleException
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(1, 4);
+		Calendar start = new Calendar(2013, 0, 31, 0, 0, 0);
+		for (String ruleString : new String[] { "FREQ=DAILY;BYHOUR=9,17", "FREQ=DAILY;BYDAY=MO", "FREQ=WEEKLY;BYMONTH=3", "FREQ=MONTHLY",
+			"FREQ=MONTHLY;BYMONTHDAY=29", "FREQ=MONTHLY;BYMONTHDAY=-1,-2", "FREQ=MONTHLY;BYDAY=5MO", "FREQ=MONTHLY;BYDAY=1MO,1FR",
+			"FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29", "FREQ=YEARLY;BYMONTHDAY=10", "FREQ=YEARLY;BYYEARDAY=10", "FREQ=YEARLY;BYMONTH=1;BYSETPOS=1",
+			"FREQ=HOURLY" })
+		{
+			assertNull(ruleString, ArithmeticIterator.get(new RecurrenceRule(ruleString, RecurrenceRule.RfcMode.RFC2445_LAX), calendarMetrics, start));
+		}
+
+		// the same start day is fine for a rule that recurs on day 28
+		assertNotNull(ArithmeticIterator.get(new RecurrenceRule("FREQ=MONTHLY"), calendarMetrics, new Calendar(2013, 0, 28, 0, 0, 0)));
+	}
+}
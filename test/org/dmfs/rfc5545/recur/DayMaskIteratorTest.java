@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+
+public class DayMaskIteratorTest
+{
+	/**
+	 * The number of instances to compare.
+	 */
+	private final static int INSTANCES = 300;
+
+	private final static String[] RULES = {
+		"FREQ=YEARLY",
+		"FREQ=YEARLY;INTERVAL=3;BYMONTH=2,8",
+		"FREQ=YEARLY;BYMONTH=3,6,9,12;BYDAY=-1FR",
+		"FREQ=YEARLY;BYDAY=20MO,-3SU",
+		"FREQ=YEARLY;BYYEARDAY=1,100,-1;BYHOUR=9,17",
+		"FREQ=YEARLY;BYMONTH=1,7;BYYEARDAY=-200,20,190",
+		"FREQ=YEARLY;BYMONTHDAY=-1;BYDAY=MO,TU,WE,TH,FR",
+		"FREQ=YEARLY;BYMONTHDAY=7,2;BYDAY=SA",
+		"FREQ=YEARLY;BYYEARDAY=1,2,3,4,5,6,7,-7,-6,-5,-4,-3,-2,-1;BYDAY=1MO,-1FR",
+		"FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29",
+		"FREQ=YEARLY;BYMONTH=11;BYDAY=TH;BYSETPOS=4",
+		"FREQ=YEARLY;BYDAY=SA,SU;BYHOUR=10;BYMINUTE=15,45;BYSETPOS=1,-1,200",
+		"FREQ=MONTHLY",
+		"FREQ=MONTHLY;INTERVAL=5;BYMONTH=3,4,5",
+		"FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+		"FREQ=MONTHLY;BYMONTHDAY=13;BYDAY=FR",
+		"FREQ=MONTHLY;BYMONTHDAY=1,15,-1;BYHOUR=8;BYMINUTE=0;BYSECOND=0,30",
+		"FREQ=MONTHLY;INTERVAL=2;BYDAY=1SU,-2WE;BYSETPOS=2",
+		"FREQ=MONTHLY;BYMONTH=6;BYDAY=SA,SU;BYMINUTE=0,20,40;BYSETPOS=-3,1,3,4",
+		"FREQ=MONTHLY;INTERVAL=7;BYMONTH=2;BYMONTHDAY=29;BYDAY=MO" };
+
+
+	/**
+	 * Compare the results of a {@link DayMaskIterator} with the results of the chain of BYxxx filters it replaces.
+	 */
+	@Test
+	public void testSameInstancesAsFilterChain() throws InvalidRecurrenceRuleException
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(1, 4);
+		for (String ruleString : RULES)
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			assertTrue(DayMaskIterator.supports(rule, calendarMetrics));
+			for (Calendar start : ReferenceChain.STARTS)
+			{
+				RuleIterator dayMasks = new SanityFilter(rule, new DayMaskIterator(rule, calendarMetrics, start), calendarMetrics, start);
+				ReferenceChain.assertSameInstances("in rule " + ruleString + " with start " + start, ReferenceChain.ruleIterator(rule, calendarMetrics, start),
+					dayMasks, INSTANCES);
+			}
+		}
+	}
+
+
+	/**
+	 * Rules with duplicate values are left to the filters, which return an instance once for every value that refers to it. That's important for the
+	 * positions of a BYSETPOS part.
+	 */
+	@Test
+	public void testDuplicateValues() throws InvalidRecurrenceRuleException
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(1, 4);
+		Calendar start = new Calendar(2016, 0, 1, 9, 0, 0);
+		for (String ruleString : new String[] { "FREQ=MONTHLY;BYMONTHDAY=-1,31;BYSETPOS=2", "FREQ=MONTHLY;BYMONTHDAY=7,-1,31,28;BYMINUTE=42,16,21;BYSETPOS=10",
+			"FREQ=MONTHLY;BYDAY=SA,FR,FR", "FREQ=YEARLY;BYMONTH=1,1;BYDAY=-1MO,MO" })
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			assertTrue(DayMaskIterator.supports(rule, calendarMetrics));
+			assertTrue(!DayMaskIterator.matchesFilters(rule));
+
+			ReferenceChain.assertSameInstances("in rule " + ruleString, ReferenceChain.iterator(rule, start), rule.iterator(start), INSTANCES);
+		}
+	}
+
+
+	/**
+	 * Week days with a position are iterated by day masks, but not if a day is given twice. The duplicate days count for the COUNT part, so returning them
+	 * only once would shift all subsequent instances.
+	 */
+	@Test
+	public void testDuplicatePositionsWithCount() throws InvalidRecurrenceRuleException
+	{
+		RecurrenceRule rule = new RecurrenceRule("FREQ=YEARLY;BYMONTH=12,1,1,8;BYDAY=-5FR,-1MO;WKST=FR;COUNT=119");
+		Calendar start = new Calendar(TimeZone.getTimeZone("Asia/Kolkata"), 2000, 0, 26, 1, 11, 56);
+		assertTrue(DayMaskIterator.isEfficient(rule));
+		assertTrue(!DayMaskIterator.matchesFilters(rule));
+
+		ReferenceChain.assertSameInstances("in rule " + rule, ReferenceChain.iterator(rule, start), rule.iterator(start), INSTANCES);
+	}
+
+
+	/**
+	 * Rules with week numbers or a frequency of less than a month are not supported.
+	 */
+	@Test
+	public void testUnsupported() throws InvalidRecurrenceRuleException
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(1, 4);
+		for (String ruleString : new String[] { "FREQ=YEARLY;BYWEEKNO=20", "FREQ=MONTHLY;BYYEARDAY=20", "FREQ=WEEKLY", "FREQ=DAILY;BYMONTH=3" })
+		{
+			assertTrue(!DayMaskIterator.supports(new RecurrenceRule(ruleString, RecurrenceRule.RfcMode.RFC2445_LAX), calendarMetrics));
+		}
+	}
+
+
+	/**
+	 * Rules that don't have any instances after the start are detected after a single cycle of 400 years, even if they are not worth to be iterated by day
+	 * masks otherwise. The filters would run beyond the years an {@link Instance} can hold.
+	 */
+	@Test
+	public void testExhaustedRule() throws InvalidRecurrenceRuleException
+	{
+		// 1900, 2300, 2700, ... are no leap years
+		Calendar start = new Calendar(1900, 1, 28, 0, 0, 0);
+		for (String ruleString : new String[] { "FREQ=YEARLY;INTERVAL=400;BYMONTH=2;BYMONTHDAY=29", "FREQ=YEARLY;INTERVAL=400;BYYEARDAY=366",
+			"FREQ=YEARLY;INTERVAL=400;BYMONTH=4;BYMONTHDAY=31", "FREQ=MONTHLY;INTERVAL=4800;BYMONTHDAY=30" })
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			assertExhausted(ruleString, rule.iterator(start));
+			assertExhausted(ruleString + " compiled", rule.compile().cursor(start));
+		}
+	}
+
+
+	/**
+	 * A rule whose set positions never select any of the days of an interval throws the same exception as a rule without any days.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testExhaustedSetPositions() throws InvalidRecurrenceRuleException
+	{
+		// every interval contains a single day, so there is no second one
+		RecurrenceIterator iterator = new RecurrenceRule("FREQ=MONTHLY;BYMONTHDAY=1;BYSETPOS=2").iterator(new Calendar(2000, 0, 1, 0, 0, 0));
+		iterator.nextMillis();
+		iterator.nextMillis();
+	}
+
+
+	private void assertExhausted(String message, RecurrenceIterator iterator)
+	{
+		// the start is always the first instance
+		iterator.nextMillis();
+		try
+		{
+			iterator.nextMillis();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return;
+		}
+		fail("rule not exhausted " + message);
+	}
+}
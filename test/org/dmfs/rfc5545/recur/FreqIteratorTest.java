@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
+import org.junit.Test;
+
+
+public class FreqIteratorTest
+{
+	/**
+	 * The maximum number of intervals to iterate sequentially.
+	 */
+	private final static long MAX_INTERVALS = 100000;
+
+	private final static int[] INTERVALS = { 1, 2, 3, 7, 13, 90 };
+
+	private final static Calendar[] STARTS = { new Calendar(2009, 0, 1, 0, 0, 0), new Calendar(2008, 1, 29, 23, 59, 59),
+		new Calendar(2009, 11, 31, 13, 39, 12), new Calendar(1985, 4, 1, 13, 39, 12) };
+
+	private final static long[] TARGETS = { Instance.make(2009, 0, 1, 0, 0, 0), Instance.make(2009, 0, 2, 12, 30, 0), Instance.make(2012, 1, 29, 0, 0, 0),
+		Instance.make(2024, 6, 15, 9, 15, 30), Instance.make(2013, 11, 31, 23, 59, 59) };
+
+
+	/**
+	 * Compare {@link FreqIterator#seek(long)} with iterating the intervals one by one. After seeking the iterator must return an instance of the original
+	 * sequence that is not after the target and the target must be passed within two more intervals.
+	 */
+	@Test
+	public void testSeek() throws InvalidRecurrenceRuleException
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(1, 4);
+		for (Freq freq : Freq.values())
+		{
+			for (int interval : INTERVALS)
+			{
+				RecurrenceRule rule = new RecurrenceRule(freq);
+				rule.setInterval(interval);
+				for (Calendar start : STARTS)
+				{
+					for (long target : TARGETS)
+					{
+						if (intervals(freq, interval, start, target) > MAX_INTERVALS)
+						{
+							// too expensive to iterate sequentially
+							continue;
+						}
+
+						FreqIterator sequential = new FreqIterator(rule, calendarMetrics, start);
+						FreqIterator seeking = new FreqIterator(rule, calendarMetrics, start);
+						seeking.seek(target);
+						long first = Instance.maskWeekday(seeking.next());
+
+						// the first instance after seeking must not be after the target, unless the target is before start
+						assertTrue(first <= Math.max(target, Instance.makeFast(start)));
+
+						long instance = Instance.maskWeekday(sequential.next());
+						while (instance < first)
+						{
+							instance = Instance.maskWeekday(sequential.next());
+						}
+						assertEquals(first, instance);
+
+						// the next instances must be the same
+						for (int i = 0; i < 10; ++i)
+						{
+							assertEquals(Instance.maskWeekday(sequential.next()), Instance.maskWeekday(seeking.next()));
+						}
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Estimate the number of intervals between start and target.
+	 */
+	private static long intervals(Freq freq, int interval, Calendar start, long target)
+	{
+		long seconds = (new Calendar(Instance.year(target), Instance.month(target), Instance.dayOfMonth(target), Instance.hour(target),
+			Instance.minute(target), Instance.second(target)).getTimeInMillis() - start.getTimeInMillis()) / 1000;
+		switch (freq)
+		{
+			case SECONDLY:
+				return seconds / interval;
+			case MINUTELY:
+				return seconds / 60 / interval;
+			case HOURLY:
+				return seconds / 3600 / interval;
+			default:
+				return seconds / 86400 / interval;
+		}
+	}
+
+
+	/**
+	 * Ensure we didn't stop too early, i.e. the target is at most two intervals away after seeking.
+	 */
+	@Test
+	public void testSeekDistance() throws InvalidRecurrenceRuleException
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(1, 4);
+		for (Freq freq : Freq.values())
+		{
+			for (int interval : INTERVALS)
+			{
+				RecurrenceRule rule = new RecurrenceRule(freq);
+				rule.setInterval(interval);
+				for (Calendar start : STARTS)
+				{
+					for (long target : TARGETS)
+					{
+						FreqIterator seeking = new FreqIterator(rule, calendarMetrics, start);
+						seeking.seek(target);
+						seeking.next();
+						seeking.next();
+						assertTrue(Instance.maskWeekday(seeking.next()) > target);
+					}
+				}
+			}
+		}
+	}
+}
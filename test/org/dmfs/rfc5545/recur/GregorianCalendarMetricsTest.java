@@ -442,4 +442,57 @@ public class GregorianCalendarMetricsTest
 
 	}
 
+
+	@Test
+	public void testGetEpochDay()
+	{
+		java.util.Calendar testCal = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.US);
+		// use a pure Gregorian calendar, just like GregorianCalendarMetrics
+		((GregorianCalendar) testCal).setGregorianChange(new java.util.Date(Long.MIN_VALUE));
+		CalendarMetrics tools = new GregorianCalendarMetrics(0, 4);
+		for (int year = -800; year < 3000; ++year)
+		{
+			testCal.clear();
+			if (year > 0)
+			{
+				testCal.set(year, 0, 1);
+			}
+			else
+			{
+				// the year before 1 AD is 1 BC
+				testCal.set(java.util.Calendar.ERA, GregorianCalendar.BC);
+				testCal.set(1 - year, 0, 1);
+			}
+			for (int yearDay = 1; yearDay <= tools.getDaysPerYear(year); ++yearDay)
+			{
+				testCal.set(java.util.Calendar.DAY_OF_YEAR, yearDay);
+				assertEquals("getEpochDay failed for year=" + year + " yearDay=" + yearDay, testCal.getTimeInMillis(),
+					tools.getEpochDay(year, yearDay) * 24L * 60 * 60 * 1000);
+			}
+		}
+	}
+
+
+	@Test
+	public void testToMillis()
+	{
+		java.util.Calendar testCal = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.US);
+		CalendarMetrics tools = new GregorianCalendarMetrics(0, 4);
+		for (int year = 1700; year < 3000; year += 7)
+		{
+			for (int month = 0; month < 12; ++month)
+			{
+				for (int dayOfMonth = 1; dayOfMonth <= tools.getDaysPerMonth(year, month); dayOfMonth += 3)
+				{
+					int hour = (year + dayOfMonth) % 24;
+					int minute = (month * 7 + dayOfMonth) % 60;
+					int second = (year * 13 + month) % 60;
+					testCal.clear();
+					testCal.set(year, month, dayOfMonth, hour, minute, second);
+					assertEquals(testCal.getTimeInMillis(), tools.toMillis(Instance.make(year, month, dayOfMonth, hour, minute, second)));
+				}
+			}
+		}
+	}
+
 }
@@ -24,7 +24,10 @@ import static org.junit.Assert.fail;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TimeZone;
 
+import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
+import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
 import org.dmfs.rfc5545.recur.RecurrenceRule.RfcMode;
 import org.junit.Before;
 import org.junit.Test;
@@ -245,6 +248,253 @@ public class RecurrenceIteratorTest
 	}
 
 
+	/**
+	 * This test ensures that {@link RecurrenceIterator#fastForward(long)} skips exactly the same instances as iterating the instances one by one. For every rule
+	 * it takes a couple of instances as the target and compares the upcoming instances after fast forwarding with the sequential iteration.
+	 * 
+	 * @throws InvalidRecurrenceRuleException
+	 */
+	@Test
+	public void testFastForward() throws InvalidRecurrenceRuleException
+	{
+		final int[] targets = { 0, 1, 2, 10, 100, 997, 5000 };
+
+		for (TestRule rule : mTestRules)
+		{
+			RecurrenceRule r = new RecurrenceRule(rule.rule, rule.mode);
+			if (rule.start != null)
+			{
+				r.setStart(rule.start);
+			}
+			else if (!rule.floating)
+			{
+				r.setStart(ABSOLUTE_TEST_START_DATE);
+			}
+			else if (!rule.allday)
+			{
+				r.setStart(FLOATING_TEST_START_DATE);
+			}
+			else
+			{
+				r.setStart(ALLDAY_TEST_START_DATE);
+			}
+
+			List<Long> instances = new ArrayList<Long>();
+			RecurrenceIterator it = r.iterator();
+			while (it.hasNext() && instances.size() < MAX_ITERATIONS)
+			{
+				instances.add(it.nextMillis());
+			}
+
+			for (int target : targets)
+			{
+				if (target >= instances.size())
+				{
+					continue;
+				}
+
+				// fast forward to an instance and to a little after an instance
+				for (int offset = 0; offset <= 567; offset += 567)
+				{
+					RecurrenceIterator fastForward = r.iterator();
+					fastForward.fastForward(instances.get(target) + offset);
+
+					for (int i = offset == 0 ? target : target + 1; i < Math.min(instances.size(), target + MAX_BUFFER); ++i)
+					{
+						assertTrue("missing instance no " + i + " after fast forward in rule " + rule.rule, fastForward.hasNext());
+						assertEquals("wrong instance no " + i + " after fast forward in rule " + rule.rule, (long) instances.get(i), fastForward.nextMillis());
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * This test ensures that {@link RecurrenceRule#instancesBetween(Calendar, long, long)} returns the same instances as iterating all instances one by one.
+	 * 
+	 * @throws InvalidRecurrenceRuleException
+	 */
+	@Test
+	public void testInstancesBetween() throws InvalidRecurrenceRuleException
+	{
+		final int[][] ranges = { { 0, 1 }, { 0, 10 }, { 3, 20 }, { 100, 150 }, { 990, 1010 }, { 5000, 5001 } };
+
+		for (TestRule rule : mTestRules)
+		{
+			RecurrenceRule r = new RecurrenceRule(rule.rule, rule.mode);
+			Calendar start = getStart(rule);
+
+			List<Long> instances = new ArrayList<Long>();
+			RecurrenceIterator it = r.iterator(start);
+			while (it.hasNext() && instances.size() < MAX_ITERATIONS)
+			{
+				instances.add(it.nextMillis());
+			}
+
+			for (int[] range : ranges)
+			{
+				if (range[1] >= instances.size())
+				{
+					continue;
+				}
+
+				// the range end is exclusive, move the start a little to ensure we don't depend on exact values
+				long from = instances.get(range[0]) - 567;
+				long to = instances.get(range[1]);
+				long[] result = r.instancesBetween(start, from, to);
+
+				assertEquals("wrong number of instances in rule " + rule.rule, range[1] - range[0], result.length);
+				for (int i = 0; i < result.length; ++i)
+				{
+					assertEquals("wrong instance in rule " + rule.rule, (long) instances.get(range[0] + i), result[i]);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * This test ensures that {@link RecurrenceRule#forEachInstance(Calendar, long, long, InstanceSink)} pushes the same {@link Instance}s as iterating all
+	 * instances one by one. The range starts exactly at an instance or one second after it, so that instance is pushed or not. Rules without an UNTIL part
+	 * are iterated from an absolute, a floating and (if their instances are whole days) an all-day start, since an {@link Instance} doesn't know the
+	 * difference.
+	 * 
+	 * @throws InvalidRecurrenceRuleException
+	 */
+	@Test
+	public void testForEachInstance() throws InvalidRecurrenceRuleException
+	{
+		final int[][] ranges = { { 0, 1 }, { 0, 10 }, { 3, 20 }, { 100, 150 }, { 990, 1010 }, { 5000, 5001 } };
+
+		for (TestRule rule : mTestRules)
+		{
+			RecurrenceRule r = new RecurrenceRule(rule.rule, rule.mode);
+			Calendar[] starts;
+			if (rule.start != null || rule.until != null)
+			{
+				starts = new Calendar[] { getStart(rule) };
+			}
+			else if (r.getFreq().compareTo(Freq.DAILY) < 0 || r.hasPart(Part.BYHOUR) || r.hasPart(Part.BYMINUTE) || r.hasPart(Part.BYSECOND))
+			{
+				// all-day starts need instances on whole days
+				starts = new Calendar[] { ABSOLUTE_TEST_START_DATE, FLOATING_TEST_START_DATE };
+			}
+			else
+			{
+				starts = new Calendar[] { ABSOLUTE_TEST_START_DATE, FLOATING_TEST_START_DATE, ALLDAY_TEST_START_DATE };
+			}
+
+			for (Calendar start : starts)
+			{
+				// the instances including their week days, as they are returned by Instance.make
+				List<Long> instances = new ArrayList<Long>();
+				RecurrenceIterator it = r.iterator(start);
+				while (it.hasNext() && instances.size() < MAX_ITERATIONS)
+				{
+					instances.add(Instance.make(it.nextCalendar()));
+				}
+
+				for (int[] range : ranges)
+				{
+					if (range[1] >= instances.size())
+					{
+						continue;
+					}
+
+					long from = instances.get(range[0]);
+					long to = instances.get(range[1]);
+					String message = rule.rule + " from " + start;
+					assertForEachInstance(message, r, start, from, to, instances.subList(range[0], range[1]));
+					assertForEachInstance(message, r, start, Instance.setSecond(from, Instance.second(from) + 1), to, instances.subList(range[0] + 1, range[1]));
+					assertForEachInstance(message, r, start, from, from, instances.subList(range[0], range[0]));
+				}
+			}
+		}
+	}
+
+
+	private void assertForEachInstance(String message, RecurrenceRule rule, Calendar start, long from, long to, List<Long> expected)
+	{
+		final LongArray result = new LongArray();
+		rule.forEachInstance(start, from, to, new InstanceSink()
+		{
+			@Override
+			public void accept(long instance)
+			{
+				result.add(instance);
+			}
+		});
+
+		assertEquals("wrong number of instances in rule " + message, expected.size(), result.size());
+		for (int i = 0; i < result.size(); ++i)
+		{
+			assertEquals("wrong instance in rule " + message, Instance.maskWeekday(expected.get(i)), result.get(i));
+		}
+	}
+
+
+	/**
+	 * This test ensures that {@link RecurrenceIterator#nextMillis()} returns the time stamps of the results of {@link RecurrenceIterator#nextCalendar()} for
+	 * start dates with time zones.
+	 * 
+	 * @throws InvalidRecurrenceRuleException
+	 */
+	@Test
+	public void testNextMillisWithTimeZone() throws InvalidRecurrenceRuleException
+	{
+		final String[] timeZones = { "Europe/Berlin", "America/New_York", "Australia/Sydney", "Asia/Kolkata" };
+
+		for (TestRule rule : mTestRules)
+		{
+			if (rule.floating || rule.allday || rule.start != null || rule.until != null)
+			{
+				// we need a start date with time zone
+				continue;
+			}
+
+			RecurrenceRule r = new RecurrenceRule(rule.rule, rule.mode);
+			for (String timeZone : timeZones)
+			{
+				Calendar start = new Calendar(TimeZone.getTimeZone(timeZone), 1985, 4, 1, 13, 39, 12);
+
+				RecurrenceIterator millisIterator = r.iterator(start);
+				RecurrenceIterator calendarIterator = r.iterator(start);
+				int count = 0;
+				while (millisIterator.hasNext() && count++ < MAX_ITERATIONS)
+				{
+					assertEquals("wrong instance in rule " + rule.rule + " in " + timeZone, calendarIterator.nextCalendar().getTimeInMillis(),
+						millisIterator.nextMillis());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the start date to iterate the given rule from. The start must be floating or all-day if the UNTIL part is.
+	 */
+	private Calendar getStart(TestRule rule)
+	{
+		if (rule.start != null)
+		{
+			return rule.start;
+		}
+		else if (!rule.floating)
+		{
+			return ABSOLUTE_TEST_START_DATE;
+		}
+		else if (!rule.allday)
+		{
+			return FLOATING_TEST_START_DATE;
+		}
+		else
+		{
+			return ALLDAY_TEST_START_DATE;
+		}
+	}
+
+
 	// @Test
 	public void testSpecial() throws InvalidRecurrenceRuleException
 	{
@@ -376,6 +626,9 @@ public class RecurrenceIteratorTest
 		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=1;BYDAY=TH;COUNT=104;WKST=SU").setCount(104).setWeekdays(Calendar.THURSDAY));
 		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=1;BYDAY=TU;COUNT=300;WKST=MO").setCount(300).setWeekdays(Calendar.TUESDAY));
 		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=1;BYDAY=WE;COUNT=104;WKST=SU").setCount(104).setWeekdays(Calendar.WEDNESDAY));
+		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=2;BYDAY=SA,SU,MO;COUNT=300;WKST=TH").setCount(300).setWeekdays(Calendar.SATURDAY, Calendar.SUNDAY,
+			Calendar.MONDAY));
+		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=3;BYDAY=FR,SA;COUNT=300;WKST=SA").setCount(300).setWeekdays(Calendar.FRIDAY, Calendar.SATURDAY));
 		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=2;BYDAY=MO;COUNT=10;WKST=MO").setCount(10).setWeekdays(Calendar.MONDAY));
 		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=2;BYDAY=SU;COUNT=52;WKST=SU").setCount(52).setWeekdays(Calendar.SUNDAY));
 		mTestRules.add(new TestRule("FREQ=WEEKLY;INTERVAL=2;COUNT=8;WKST=SU;BYDAY=TU,TH").setCount(8).setWeekdays(Calendar.TUESDAY, Calendar.THURSDAY));
@@ -939,6 +1192,30 @@ public class RecurrenceIteratorTest
 		mTestRules.add(new TestRule("FREQ=WEEKLY;BYMONTH=1;BYWEEKNO=5;BYMONTHDAY=27,28,29,30,31;UNTIL=20171231", RfcMode.RFC2445_LAX).setStart("20130101")
 			.setUntil("20171231").setMonths(1).setWeeks(5).setMonthdays(27, 28, 29, 30, 31).setInstances(17));
 
+		// the 7th of each month, i.e. one instance per month
+		mTestRules.add(new TestRule("FREQ=WEEKLY;BYMONTHDAY=7;UNTIL=20141231", RfcMode.RFC2445_LAX).setStart("20130107").setUntil("20141231").setMonthdays(7)
+			.setInstances(24));
+
+		// the 24th of August if it's in week 34: 2013, 2014, 2016 and 2017
+		mTestRules.add(new TestRule("FREQ=YEARLY;BYWEEKNO=34;BYMONTHDAY=24,10,15;UNTIL=20171231").setStart("20130824").setUntil("20171231").setMonthdays(24)
+			.setInstances(4));
+
+		// the 85th, 86th (the 280th last day in non-leap years) and 90th day of the year if they are in week 13: 3 + 2 + 2 + 1 + 2
+		mTestRules.add(new TestRule("FREQ=YEARLY;BYWEEKNO=13;BYYEARDAY=85,90,-280;UNTIL=20171231").setStart("20130326").setUntil("20171231")
+			.setInstances(10));
+
+		// -1 is the last day of the year when filtering too
+		mTestRules.add(new TestRule("FREQ=DAILY;BYYEARDAY=-1;UNTIL=20171231").setStart("20131231").setUntil("20171231").setMonths(12).setMonthdays(31)
+			.setInstances(5));
+
+		// the minutes must be returned in ascending order, even if they are not sorted in the rule
+		mTestRules.add(new TestRule("FREQ=HOURLY;BYMINUTE=45,15;UNTIL=20130101T235959Z").setStart("20130101T001500Z").setUntil("20130101T235959Z")
+			.setMinutes(15, 45).setInstances(48));
+
+		// a weekday that's given twice is counted twice by BYSETPOS, so the second position is the first Monday again
+		mTestRules.add(new TestRule("FREQ=MONTHLY;BYDAY=MO,1MO;BYSETPOS=2;UNTIL=20130331").setStart("20130107").setUntil("20130331")
+			.setWeekdays(Calendar.MONDAY).setMonthdays(7, 4).setInstances(3));
+
 		mTestRules.add(new TestRule("FREQ=HOURLY;INTERVAL=2;UNTIL=20131231T235959Z").setStart("20120101T000000Z").setUntil("20131231T235959Z")
 			.setInstances(Math.min(MAX_ITERATIONS, 731 * 12)));
 		mTestRules.add(new TestRule("FREQ=MINUTELY;INTERVAL=30;UNTIL=20120630T235959Z").setStart("20120101T000000Z").setUntil("20120630T235959Z")
@@ -995,12 +1272,26 @@ public class RecurrenceIteratorTest
 		// every second from 20120101T050000 until 20120101T080000 -> 3 * 60 = 180 instances
 		mTestRules.add(new TestRule("FREQ=SECONDLY;UNTIL=20120101T065959").setStart("20120101T050000").setInstances(2 * 60 * 60));
 
+		// every second of the fourth hour of the day from 20120101 until 20120102 -> 2 * 60 * 60 instances, more than 1000 seconds are filtered in a line
+		mTestRules.add(new TestRule("FREQ=SECONDLY;BYHOUR=3;UNTIL=20120102T235959").setStart("20120101T030000").setInstances(2 * 60 * 60).setHours(3));
+
+		// every hour in December from 2012 until 2014 -> 3 * 31 * 24 instances
+		mTestRules.add(new TestRule("FREQ=HOURLY;BYMONTH=12;UNTIL=20141231T235959").setStart("20121201T000000").setInstances(3 * 31 * 24).setMonths(12));
+
+		// every minute on week days from 20120105 until 20120110 -> 4 * 24 * 60 instances
+		mTestRules.add(new TestRule("FREQ=MINUTELY;BYDAY=MO,TU,WE,TH,FR;UNTIL=20120110T235959").setStart("20120105T000000").setInstances(4 * 24 * 60)
+			.setWeekdays(Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY, Calendar.THURSDAY, Calendar.FRIDAY));
+
 		/**
 		 * yearly + x
 		 */
 
 		// the fourth month of each year from 2012 until 2019
 		mTestRules.add(new TestRule("FREQ=YEARLY;UNTIL=20191231;BYMONTH=4").setStart("20120101").setInstances(9).setMonths(4).setMonthdays(1));
+
+		// 24 times in the hours 0 and 12 of the first of January from 2012 until 2014 -> 3 * 2 * 24 instances
+		mTestRules.add(new TestRule("FREQ=YEARLY;BYMONTH=1;BYHOUR=0,12;BYMINUTE=0,10,20,30,40,50;BYSECOND=0,15,30,45;UNTIL=20141231T235959")
+			.setStart("20120101T000000").setInstances(3 * 2 * 24).setMonths(1).setMonthdays(1).setHours(0, 12));
 		// the fifth day of each year
 		mTestRules.add(new TestRule("FREQ=YEARLY;UNTIL=20191231;BYYEARDAY=5").setStart("20120101").setInstances(9).setMonths(1).setMonthdays(5));
 
@@ -1022,11 +1313,18 @@ public class RecurrenceIteratorTest
 
 		// leap years
 		mTestRules.add(new TestRule("FREQ=YEARLY;UNTIL=30000101;BYMONTH=2;BYMONTHDAY=29").setStart("20000101").setInstances(25 * 10 - 7 + 1));
+
+		// days that don't exist in every month -> 7 months with 31 days, January and March of 4 years
+		mTestRules.add(new TestRule("FREQ=MONTHLY;UNTIL=20121231").setStart("20120131").setInstances(7).setMonthdays(31));
+		mTestRules.add(new TestRule("FREQ=YEARLY;UNTIL=20151231;BYMONTH=1,2,3").setStart("20120130").setInstances(4 * 2).setMonths(1, 3).setMonthdays(30));
 		/**
 		 * bysetpos
 		 */
 		mTestRules.add(new TestRule("FREQ=MONTHLY;UNTIL=20121231;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1").setStart("20120101").setInstances(12 + 1)
 			.setWeekdays(Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY, Calendar.THURSDAY, Calendar.FRIDAY));
+		// the first and the last of 6 times of every day in January 2012 -> 31 * 2 instances
+		mTestRules.add(new TestRule("FREQ=DAILY;UNTIL=20120131T235959;BYHOUR=17,9,12;BYMINUTE=30,0;BYSETPOS=-1,1").setStart("20120101T090000")
+			.setInstances(31 * 2).setMinutes(0, 30));
 
 		/**
 		 * Fixme: commented out until fixed. BY[HOUR,MINUTE,SECOND] aren't expanded correctly. (Compare github issue #7)
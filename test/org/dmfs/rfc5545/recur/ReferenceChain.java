@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.TimeZone;
+
+
+/**
+ * The plain chain of the {@link FreqIterator} and the BYxxx filters of a rule, as built by
+ * {@link RecurrenceRule#getRuleIterator(Calendar, CalendarMetrics, boolean, DayMaskIterator.YearShape[], boolean, boolean)}. The tests of the other engines
+ * compare their instances with the instances of this chain.
+ */
+public class ReferenceChain
+{
+	/**
+	 * The start dates to test, including floating dates, dates in time zones, the end of February of a leap year and the end of a year.
+	 */
+	public final static Calendar[] STARTS = { new Calendar(2009, 0, 1, 0, 0, 0), new Calendar(2008, 1, 28, 23, 59, 59), new Calendar(2008, 1, 29, 23, 59, 59),
+		new Calendar(2009, 11, 31, 13, 39, 12), new Calendar(1985, 4, 1, 13, 39, 12), new Calendar(2013, 5, 15, 10, 15, 0), new Calendar(1899, 11, 30, 1, 2, 3),
+		new Calendar(Calendar.UTC, 2009, 0, 1, 0, 0, 0), new Calendar(TimeZone.getTimeZone("Europe/Berlin"), 2013, 2, 31, 1, 30, 0),
+		new Calendar(TimeZone.getTimeZone("America/New_York"), 2012, 9, 31, 8, 0, 0) };
+
+
+	/**
+	 * Returns the plain chain of filters of the given rule, including the limiting parts.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate exactly as it has been specified.
+	 * @param calendarMetrics
+	 *            The {@link CalendarMetrics} to use.
+	 * @param start
+	 *            The first instance.
+	 * @return The last {@link RuleIterator} of the chain.
+	 */
+	public static RuleIterator ruleIterator(RecurrenceRule rule, CalendarMetrics calendarMetrics, Calendar start)
+	{
+		return rule.getRuleIterator(start, calendarMetrics, true, null, false, true);
+	}
+
+
+	/**
+	 * Returns a {@link RecurrenceIterator} that iterates the plain chain of filters of the given rule.
+	 *
+	 * @param rule
+	 *            The {@link RecurrenceRule} to iterate exactly as it has been specified.
+	 * @param start
+	 *            The first instance.
+	 * @return A {@link RecurrenceIterator}.
+	 */
+	public static RecurrenceIterator iterator(RecurrenceRule rule, Calendar start)
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(rule.getWeekStart().ordinal(), 4);
+		return new RecurrenceIterator(ruleIterator(rule, calendarMetrics, start), start, calendarMetrics);
+	}
+
+
+	/**
+	 * Asserts that two {@link RuleIterator}s return the same instances, ignoring the week days.
+	 */
+	public static void assertSameInstances(String message, RuleIterator expected, RuleIterator actual, int instances)
+	{
+		for (int i = 0; i < instances; ++i)
+		{
+			assertEquals("wrong instance no " + i + " " + message, Instance.maskWeekday(expected.next()), Instance.maskWeekday(actual.next()));
+		}
+	}
+
+
+	/**
+	 * Asserts that two {@link RecurrenceIterator}s return the same instances, up to the given number of instances or the end of the expected instances.
+	 */
+	public static void assertSameInstances(String message, RecurrenceIterator expected, RecurrenceIterator actual, int instances)
+	{
+		for (int i = 0; i < instances && expected.hasNext(); ++i)
+		{
+			assertEquals("wrong instance no " + i + " " + message, expected.nextMillis(), actual.nextMillis());
+		}
+		assertEquals("wrong end " + message, expected.hasNext(), actual.hasNext());
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.dmfs.rfc5545.recur.RecurrenceRule.Freq;
+import org.dmfs.rfc5545.recur.RecurrenceRule.Part;
+import org.dmfs.rfc5545.recur.RecurrenceRule.Weekday;
+import org.junit.Test;
+
+
+public class RuleOptimizerTest
+{
+	/**
+	 * The number of instances to compare.
+	 */
+	private final static int INSTANCES = 500;
+
+	private final static String[] RULES = {
+		"FREQ=SECONDLY;BYSECOND=0,30",
+		"FREQ=SECONDLY;BYSECOND=15;BYMINUTE=0,20,40;BYHOUR=9,17",
+		"FREQ=MINUTELY;BYMINUTE=0,15,30,45;BYDAY=MO,TU,WE,TH,FR",
+		"FREQ=MINUTELY;BYHOUR=9,10,11,12,13,14,15,16;BYDAY=MO,TU,WE,TH,FR;BYMINUTE=0,30",
+		"FREQ=HOURLY;BYHOUR=9,17;BYMONTH=3,4",
+		"FREQ=HOURLY;BYHOUR=0,6,12,18;BYMONTHDAY=1,-1",
+		"FREQ=DAILY;BYDAY=MO,FR",
+		"FREQ=DAILY;BYDAY=SA,SU;BYHOUR=10;BYMINUTE=15,45",
+		"FREQ=DAILY;BYMONTHDAY=1,15,-1",
+		"FREQ=DAILY;BYMONTHDAY=13;BYDAY=FR",
+		"FREQ=DAILY;BYMONTH=2;BYMONTHDAY=29",
+		"FREQ=DAILY;BYYEARDAY=1,100,-1",
+		"FREQ=DAILY;BYYEARDAY=60;BYMONTHDAY=29,1",
+		"FREQ=DAILY;BYMONTH=1,2,3,4,5,6,7,8,9,10,11,12;BYDAY=MO,TU,WE,TH,FR,SA,SU",
+		"FREQ=MONTHLY;BYMONTH=1,2,3,4,5,6,7,8,9,10,11,12;BYDAY=-1FR",
+		"FREQ=HOURLY;BYHOUR=0,1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23;BYMINUTE=5",
+		"FREQ=HOURLY;INTERVAL=2;BYHOUR=8,9,10,11",
+		"FREQ=DAILY;BYDAY=MO,WE;BYSETPOS=1" };
+
+
+	/**
+	 * Compare the instances of the optimized rules with the instances of the plain filter chains of the rules as specified.
+	 */
+	@Test
+	public void testSameInstances() throws InvalidRecurrenceRuleException
+	{
+		for (String ruleString : RULES)
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			for (Calendar start : ReferenceChain.STARTS)
+			{
+				ReferenceChain.assertSameInstances("in rule " + ruleString + " with start " + start, ReferenceChain.iterator(rule, start), rule.iterator(start),
+					INSTANCES);
+			}
+		}
+	}
+
+
+	/**
+	 * Rules that limit at a frequency are expanded at the next coarser frequency.
+	 */
+	@Test
+	public void testCoarserFrequency() throws InvalidRecurrenceRuleException
+	{
+		assertEquals(Freq.DAILY, RuleOptimizer.optimize(new RecurrenceRule("FREQ=SECONDLY;BYSECOND=0;BYMINUTE=0;BYHOUR=9")).getFreq());
+		assertEquals(Freq.HOURLY, RuleOptimizer.optimize(new RecurrenceRule("FREQ=MINUTELY;BYMINUTE=0,30")).getFreq());
+		assertEquals(Freq.WEEKLY, RuleOptimizer.optimize(new RecurrenceRule("FREQ=DAILY;BYDAY=MO,FR")).getFreq());
+		assertEquals(Freq.MONTHLY, RuleOptimizer.optimize(new RecurrenceRule("FREQ=DAILY;BYMONTHDAY=1,15")).getFreq());
+		assertEquals(Freq.YEARLY, RuleOptimizer.optimize(new RecurrenceRule("FREQ=DAILY;BYYEARDAY=1,100")).getFreq());
+	}
+
+
+	/**
+	 * Limiting parts that contain all values are dropped.
+	 */
+	@Test
+	public void testRedundantParts() throws InvalidRecurrenceRuleException
+	{
+		RecurrenceRule rule = RuleOptimizer.optimize(new RecurrenceRule("FREQ=DAILY;BYMONTH=1,2,3,4,5,6,7,8,9,10,11,12;BYDAY=MO,TU,WE,TH,FR,SA,SU"));
+		assertEquals(Freq.DAILY, rule.getFreq());
+		assertFalse(rule.hasPart(Part.BYMONTH));
+		assertFalse(rule.hasPart(Part.BYDAY));
+	}
+
+
+	/**
+	 * Rules with an INTERVAL, BYSETPOS, positional week days or duplicate values are not coarsened.
+	 */
+	@Test
+	public void testUnchanged() throws InvalidRecurrenceRuleException
+	{
+		for (String ruleString : new String[] { "FREQ=HOURLY;INTERVAL=3;BYHOUR=9,12,15", "FREQ=DAILY;BYDAY=MO,WE;BYSETPOS=1", "FREQ=YEARLY;BYDAY=1MO",
+			"FREQ=DAILY;BYMONTHDAY=1,-31", "FREQ=HOURLY;BYHOUR=9,9", "FREQ=DAILY;BYMONTH=3;BYDAY=MO" })
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			assertSame(ruleString, rule, RuleOptimizer.optimize(rule));
+		}
+	}
+
+
+	/**
+	 * A rule is optimized only once, until one of its parts is modified.
+	 */
+	@Test
+	public void testOptimizedOnce() throws InvalidRecurrenceRuleException
+	{
+		RecurrenceRule rule = new RecurrenceRule("FREQ=DAILY;BYDAY=MO,FR");
+		RecurrenceRule optimized = rule.optimized();
+		assertEquals(Freq.WEEKLY, optimized.getFreq());
+		assertSame(optimized, rule.optimized());
+
+		rule.setInterval(2);
+		assertSame(rule, rule.optimized());
+
+		rule.setInterval(1);
+		rule.setWeekStart(Weekday.SU);
+		assertEquals(Freq.WEEKLY, rule.optimized().getFreq());
+		assertEquals(Weekday.SU, rule.optimized().getWeekStart());
+	}
+}
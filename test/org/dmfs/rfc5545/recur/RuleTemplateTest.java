@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+
+public class RuleTemplateTest
+{
+	/**
+	 * The number of instances to compare.
+	 */
+	private final static int INSTANCES = 300;
+
+	private final static String[] RULES = { "FREQ=DAILY", "FREQ=WEEKLY;BYDAY=MO,WE,FR;BYHOUR=9,17", "FREQ=MONTHLY;BYDAY=-1FR", "FREQ=MONTHLY;BYDAY=MO,TU;BYSETPOS=2",
+		"FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29", "FREQ=YEARLY;BYDAY=1SU,-1SU;BYMONTH=3,10", "FREQ=YEARLY;INTERVAL=2", "FREQ=HOURLY;BYHOUR=9,17;COUNT=20",
+		"FREQ=MONTHLY;UNTIL=20201231T235959Z" };
+
+	/**
+	 * Absolute start dates, since some of the rules have an absolute UNTIL part.
+	 */
+	private final static Calendar[] STARTS = { new Calendar(Calendar.UTC, 2009, 0, 1, 0, 0, 0), new Calendar(Calendar.UTC, 2008, 1, 29, 23, 59, 59),
+		new Calendar(TimeZone.getTimeZone("Europe/Berlin"), 2013, 2, 31, 1, 30, 0), new Calendar(TimeZone.getTimeZone("America/New_York"), 2012, 9, 31, 8, 0, 0) };
+
+
+	/**
+	 * The cursors of a template return the same instances as the plain filter chain of the rule.
+	 */
+	@Test
+	public void testSameInstances() throws InvalidRecurrenceRuleException
+	{
+		for (String ruleString : RULES)
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			RuleTemplate template = rule.compile();
+			for (Calendar start : STARTS)
+			{
+				ReferenceChain.assertSameInstances("in rule " + ruleString + " with start " + start, ReferenceChain.iterator(rule, start),
+					template.cursor(start), INSTANCES);
+			}
+		}
+	}
+
+
+	/**
+	 * A reset cursor returns the same instances as a new cursor, even if the time zone of the start changes.
+	 */
+	@Test
+	public void testReset() throws InvalidRecurrenceRuleException
+	{
+		for (String ruleString : RULES)
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			RuleTemplate template = rule.compile();
+			RecurrenceIterator cursor = template.cursor(STARTS[STARTS.length - 1]);
+			// leave the cursor somewhere in the middle
+			cursor.nextMillis();
+			for (Calendar start : STARTS)
+			{
+				cursor.reset(start);
+				ReferenceChain.assertSameInstances("in rule " + ruleString + " with start " + start, ReferenceChain.iterator(rule, start), cursor, INSTANCES);
+			}
+		}
+	}
+
+
+	/**
+	 * Changing a rule (or its lists of values) after compiling it doesn't change the template.
+	 */
+	@Test
+	public void testSnapshot() throws InvalidRecurrenceRuleException
+	{
+		String ruleString = "FREQ=WEEKLY;BYDAY=MO,WE,FR";
+		RecurrenceRule rule = new RecurrenceRule(ruleString);
+		RuleTemplate template = rule.compile();
+		rule.setInterval(2);
+		rule.getByDayPart().remove(0);
+		ReferenceChain.assertSameInstances("in rule " + ruleString, ReferenceChain.iterator(new RecurrenceRule(ruleString), STARTS[0]),
+			template.cursor(STARTS[0]), INSTANCES);
+	}
+
+
+	/**
+	 * The cursors of templates that have switched to day masks return the same instances as the plain filter chain of the rule.
+	 */
+	@Test
+	public void testHotTemplate() throws InvalidRecurrenceRuleException
+	{
+		for (String ruleString : new String[] { "FREQ=MONTHLY;BYMONTHDAY=1,15,-1", "FREQ=YEARLY;BYMONTH=5;BYMONTHDAY=23;BYHOUR=8,20",
+			"FREQ=YEARLY;BYYEARDAY=1,100,200,-1", "FREQ=MONTHLY;INTERVAL=2;BYDAY=MO,FR;COUNT=100", "FREQ=YEARLY;BYMONTH=1,4,7;BYDAY=MO,FR",
+			"FREQ=YEARLY;BYMONTHDAY=7,22" })
+		{
+			RecurrenceRule rule = new RecurrenceRule(ruleString);
+			RuleTemplate template = rule.compile();
+			for (int i = 0; i < 50; ++i)
+			{
+				Calendar start = STARTS[i % STARTS.length];
+				ReferenceChain.assertSameInstances("in rule " + ruleString + " with start " + start, ReferenceChain.iterator(rule, start),
+					template.cursor(start), INSTANCES);
+			}
+		}
+	}
+
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testResetRuleIterator() throws InvalidRecurrenceRuleException
+	{
+		new RecurrenceRule("FREQ=DAILY").iterator(STARTS[0]).reset(STARTS[1]);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Marten Gajda <marten@dmfs.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dmfs.rfc5545.recur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+
+/**
+ * Test {@link TimeZoneTransitions}.
+ * 
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public class TimeZoneTransitionsTest
+{
+	private final static String[] TIME_ZONES = { "UTC", "Europe/Berlin", "America/New_York", "Australia/Sydney", "Asia/Kolkata", "Pacific/Chatham",
+		"America/Sao_Paulo", "Europe/London" };
+
+
+	/**
+	 * Compare the conversion of local times with {@link GregorianCalendar} every 15 minutes in years with and without transitions.
+	 */
+	@Test
+	public void testToUtc()
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(0, 4);
+		for (String id : TIME_ZONES)
+		{
+			TimeZone timeZone = TimeZone.getTimeZone(id);
+			TimeZoneTransitions transitions = TimeZoneTransitions.get(timeZone);
+			java.util.Calendar testCal = new GregorianCalendar(timeZone);
+			for (int year : new int[] { 1900, 1945, 1985, 2009, 2038, 2099, 2100 })
+			{
+				for (int yearDay = 1; yearDay <= calendarMetrics.getDaysPerYear(year); ++yearDay)
+				{
+					int monthAndDay = calendarMetrics.getMonthAndDayOfYearDay(year, yearDay);
+					int month = CalendarMetrics.month(monthAndDay);
+					int dayOfMonth = CalendarMetrics.dayOfMonth(monthAndDay);
+					for (int minute = 0; minute < 24 * 60; minute += 15)
+					{
+						long instance = Instance.make(year, month, dayOfMonth, minute / 60, minute % 60, 0);
+						long localMillis = calendarMetrics.toMillis(instance);
+						assertTrue(transitions.covers(localMillis));
+
+						testCal.clear();
+						testCal.set(year, month, dayOfMonth, minute / 60, minute % 60, 0);
+						assertEquals("wrong conversion of " + year + "-" + (month + 1) + "-" + dayOfMonth + " " + minute / 60 + ":" + minute % 60 + " in " + id,
+							testCal.getTimeInMillis(), transitions.toUtc(localMillis));
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Ensure the hint of {@link TimeZoneTransitions#indexOf(long, int)} doesn't change the result.
+	 */
+	@Test
+	public void testIndexOf()
+	{
+		CalendarMetrics calendarMetrics = new GregorianCalendarMetrics(0, 4);
+		TimeZoneTransitions transitions = TimeZoneTransitions.get(TimeZone.getTimeZone("Europe/Berlin"));
+		int hint = -1;
+		for (int year = 1960; year < 2030; ++year)
+		{
+			for (int yearDay = 1; yearDay <= calendarMetrics.getDaysPerYear(year); yearDay += 5)
+			{
+				long localMillis = calendarMetrics.getEpochDay(year, yearDay) * 24L * 60 * 60 * 1000;
+				int index = transitions.indexOf(localMillis, -1);
+				hint = transitions.indexOf(localMillis, hint);
+				assertEquals(index, hint);
+				// a wrong hint must not change the result either
+				assertEquals(index, transitions.indexOf(localMillis, 0));
+				assertEquals(index, transitions.indexOf(localMillis, index + 5));
+			}
+		}
+	}
+
+
+	@Test
+	public void testCache()
+	{
+		TimeZoneTransitions transitions = TimeZoneTransitions.get(TimeZone.getTimeZone("Europe/Berlin"));
+		assertSame(transitions, TimeZoneTransitions.get(TimeZone.getTimeZone("Europe/Berlin")));
+		assertEquals(60 * 60 * 1000, TimeZoneTransitions.get(TimeZone.getTimeZone("America/New_York")).getMaxOffsetChange());
+		assertEquals(0, TimeZoneTransitions.get(TimeZone.getTimeZone("UTC")).getMaxOffsetChange());
+	}
+}